@@ -16,33 +16,268 @@
 
 package ProteomicsLibrary;
 
+import ProteomicsLibrary.Types.PackedPeptideMap;
+import ProteomicsLibrary.Types.PackedPeptideSet;
+import ProteomicsLibrary.Types.PeptideProteinMapping;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
 
-import java.util.Map;
-import java.util.Set;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class BuildIndex {
 
     private Multimap<String, String> targetPeptideProteinMap = HashMultimap.create();
+    private PeptideProteinMapping targetPeptideProteinMapping = null; // either the mapping the index was built from or interned from the Multimap on demand.
+    private int digestedProteinNum = 0;
 
     public BuildIndex(Map<String, String> proteinSequenceMap, String cleavageSite1, String protectionSite1, boolean cleavageFromCTerm1, String cleavageSite2, String protectionSite2, Boolean cleavageFromCTerm2, int missedCleavage) {
+        this(proteinSequenceMap, cleavageSite1, protectionSite1, cleavageFromCTerm1, cleavageSite2, protectionSite2, cleavageFromCTerm2, missedCleavage, 1);
+    }
+
+    public BuildIndex(Map<String, String> proteinSequenceMap, String cleavageSite1, String protectionSite1, boolean cleavageFromCTerm1, String cleavageSite2, String protectionSite2, Boolean cleavageFromCTerm2, int missedCleavage, int threadNum) {
+        this(proteinSequenceMap, cleavageSite1, protectionSite1, cleavageFromCTerm1, cleavageSite2, protectionSite2, cleavageFromCTerm2, missedCleavage, 0, Integer.MAX_VALUE, 0, Double.MAX_VALUE, threadNum);
+    }
+
+    public BuildIndex(Map<String, String> proteinSequenceMap, String cleavageSite1, String protectionSite1, boolean cleavageFromCTerm1, String cleavageSite2, String protectionSite2, Boolean cleavageFromCTerm2, int missedCleavage, int minPeptideLength, int maxPeptideLength, double minPeptideMass, double maxPeptideMass, int threadNum) { // the content doesn't depend on threadNum. The peptide length doesn't include n and c. The peptide mass includes H2O.
+        MassTool massTool = new MassTool(missedCleavage, cleavageSite1, protectionSite1, cleavageFromCTerm1, cleavageSite2, protectionSite2, cleavageFromCTerm2, 0.02, 1, "N14");
+        digestedProteinNum = proteinSequenceMap.size();
+        if (threadNum <= 1) {
+            for (String protein : proteinSequenceMap.keySet()) {
+                digestProtein(massTool, protein, proteinSequenceMap.get(protein), minPeptideLength, maxPeptideLength, minPeptideMass, maxPeptideMass, (protein2, proteinSequence, start, end) -> targetPeptideProteinMap.put("n" + proteinSequence.substring(start, end) + "c", protein2));
+            }
+        } else {
+            String[] proteinArray = proteinSequenceMap.keySet().toArray(new String[0]);
+            Arrays.sort(proteinArray); // fix the partition so that the merging order is deterministic.
+            int batchSize = Math.max(1, proteinArray.length / (threadNum * 8));
+            int batchNum = (proteinArray.length + batchSize - 1) / batchSize;
+            List<Multimap<String, String>> batchMapList = new ArrayList<>(Collections.nCopies(batchNum, null)); // each task writes its own element.
+            ForkJoinPool forkJoinPool = new ForkJoinPool(threadNum);
+            try {
+                forkJoinPool.invoke(new DigestTask(massTool, proteinSequenceMap, proteinArray, batchSize, batchMapList, 0, batchNum, minPeptideLength, maxPeptideLength, minPeptideMass, maxPeptideMass));
+            } finally {
+                forkJoinPool.shutdown();
+            }
+
+            // merge the batches once, in the batch order. A merged batch is released right away.
+            int keyNum = 0;
+            for (Multimap<String, String> batchMap : batchMapList) {
+                keyNum += batchMap.keySet().size();
+            }
+            targetPeptideProteinMap = HashMultimap.create(keyNum, 2);
+            for (int i = 0; i < batchNum; ++i) {
+                targetPeptideProteinMap.putAll(batchMapList.get(i));
+                batchMapList.set(i, null);
+            }
+        }
+    }
+
+    public BuildIndex(Multimap<String, String> previousPeptideProteinMap, Map<String, Long> previousManifest, Map<String, String> proteinSequenceMap, String cleavageSite1, String protectionSite1, boolean cleavageFromCTerm1, String cleavageSite2, String protectionSite2, Boolean cleavageFromCTerm2, int missedCleavage, int minPeptideLength, int maxPeptideLength, double minPeptideMass, double maxPeptideMass) { // patches a previous index built with the same parameters. Only added or edited proteins are digested. The previous manifest is from buildManifest() of the previous proteins.
         MassTool massTool = new MassTool(missedCleavage, cleavageSite1, protectionSite1, cleavageFromCTerm1, cleavageSite2, protectionSite2, cleavageFromCTerm2, 0.02, 1, "N14");
+        Set<String> unchangedProteinSet = new HashSet<>();
         for (String protein : proteinSequenceMap.keySet()) {
-            String proteinSequence = proteinSequenceMap.get(protein);
-            Set<String> peptideSet = massTool.buildPeptideSet(proteinSequence);
-            int i = 0;
-            while (proteinSequence.charAt(i) == 'M') {
-                peptideSet.addAll(massTool.buildPeptideSet(proteinSequence.substring(++i)));
+            Long previousHash = previousManifest.get(protein);
+            if (previousHash != null && previousHash == calSequenceHash(proteinSequenceMap.get(protein))) {
+                unchangedProteinSet.add(protein);
             }
+        }
 
-            for (String peptide : peptideSet) {
-                targetPeptideProteinMap.put(peptide, protein);
+        // remove the references to removed or edited proteins, including those from peptides shared with unchanged proteins.
+        targetPeptideProteinMap = HashMultimap.create(previousPeptideProteinMap);
+        targetPeptideProteinMap.entries().removeIf(entry -> !unchangedProteinSet.contains(entry.getValue()));
+
+        for (String protein : proteinSequenceMap.keySet()) {
+            if (!unchangedProteinSet.contains(protein)) {
+                digestProtein(massTool, protein, proteinSequenceMap.get(protein), minPeptideLength, maxPeptideLength, minPeptideMass, maxPeptideMass, (protein2, proteinSequence, start, end) -> targetPeptideProteinMap.put("n" + proteinSequence.substring(start, end) + "c", protein2));
+                ++digestedProteinNum;
             }
         }
     }
 
+    public BuildIndex(PeptideProteinMapping targetPeptideProteinMapping) { // getTargetPeptideProteinMap() is a read-only view of the mapping.
+        this.targetPeptideProteinMapping = targetPeptideProteinMapping;
+        targetPeptideProteinMap = targetPeptideProteinMapping.asMultimap();
+    }
+
+    public static PeptideProteinMapping buildTargetPeptideProteinMapping(Map<String, String> proteinSequenceMap, String cleavageSite1, String protectionSite1, boolean cleavageFromCTerm1, String cleavageSite2, String protectionSite2, Boolean cleavageFromCTerm2, int missedCleavage, int minPeptideLength, int maxPeptideLength, double minPeptideMass, double maxPeptideMass) { // the same content as getTargetPeptideProteinMap() without building the Multimap.
+        MassTool massTool = new MassTool(missedCleavage, cleavageSite1, protectionSite1, cleavageFromCTerm1, cleavageSite2, protectionSite2, cleavageFromCTerm2, 0.02, 1, "N14");
+        List<String> proteinList = new ArrayList<>(proteinSequenceMap.keySet());
+        List<String> peptideList = new ArrayList<>();
+        Map<String, Integer> peptideIdMap = new HashMap<>();
+        int[][] pairArray = new int[][]{new int[1024], new int[1024]}; // {peptide IDs, protein IDs}
+        int[] pairNum = new int[]{0};
+        for (int proteinId = 0; proteinId < proteinList.size(); ++proteinId) {
+            int proteinId2 = proteinId;
+            String protein = proteinList.get(proteinId);
+            digestProtein(massTool, protein, proteinSequenceMap.get(protein), minPeptideLength, maxPeptideLength, minPeptideMass, maxPeptideMass, (protein2, proteinSequence, start, end) -> {
+                String peptide = "n" + proteinSequence.substring(start, end) + "c";
+                Integer peptideId = peptideIdMap.get(peptide);
+                if (peptideId == null) {
+                    peptideId = peptideList.size();
+                    peptideIdMap.put(peptide, peptideId);
+                    peptideList.add(peptide);
+                }
+                if (pairNum[0] == pairArray[0].length) {
+                    pairArray[0] = Arrays.copyOf(pairArray[0], pairNum[0] * 2);
+                    pairArray[1] = Arrays.copyOf(pairArray[1], pairNum[0] * 2);
+                }
+                pairArray[0][pairNum[0]] = peptideId;
+                pairArray[1][pairNum[0]] = proteinId2;
+                ++pairNum[0];
+            });
+        }
+        return new PeptideProteinMapping(peptideList, proteinList, pairArray[0], pairArray[1], pairNum[0]); // duplicated pairs from the leading M are merged here.
+    }
+
+    public static OffHeapPeptideStore buildOffHeapTargetPeptideStore(Map<String, String> proteinSequenceMap, MassTool massTool, int minPeptideLength, int maxPeptideLength, double minPeptideMass, double maxPeptideMass, int segmentSize) { // the same content as getTargetPeptideProteinMap() without any peptide String. massTool gives both the digestion rules and the stored masses, as in buildPeptideMassIndex().
+        OffHeapPeptideStore peptideStore = new OffHeapPeptideStore(segmentSize);
+        for (String protein : proteinSequenceMap.keySet()) {
+            digestProtein(massTool, protein, proteinSequenceMap.get(protein), minPeptideLength, maxPeptideLength, minPeptideMass, maxPeptideMass, (protein2, proteinSequence, start, end) -> peptideStore.add(proteinSequence, start, end, massTool.calPeptideMass(proteinSequence, start, end), protein2));
+        }
+        return peptideStore;
+    }
+
+    public static PackedPeptideMap<List<String>> buildPackedTargetPeptideProteinMap(Map<String, String> proteinSequenceMap, String cleavageSite1, String protectionSite1, boolean cleavageFromCTerm1, String cleavageSite2, String protectionSite2, Boolean cleavageFromCTerm2, int missedCleavage) { // the same content as getTargetPeptideProteinMap() with packed peptide keys. Each protein appears at most once in a list.
+        MassTool massTool = new MassTool(missedCleavage, cleavageSite1, protectionSite1, cleavageFromCTerm1, cleavageSite2, protectionSite2, cleavageFromCTerm2, 0.02, 1, "N14");
+        PackedPeptideMap<List<String>> peptideProteinMap = new PackedPeptideMap<>();
+        for (String protein : proteinSequenceMap.keySet()) {
+            PackedPeptideSet peptideSet = new PackedPeptideSet();
+            digestProtein(massTool, protein, proteinSequenceMap.get(protein), (protein2, proteinSequence, start, end) -> {
+                if (peptideSet.add(proteinSequence, start, end)) {
+                    peptideProteinMap.getOrCreate(proteinSequence, start, end, ArrayList::new).add(protein2);
+                }
+            });
+        }
+        return peptideProteinMap;
+    }
+
+    public static void digestProtein(MassTool massTool, String protein, String proteinSequence, MassTool.PeptideVisitor visitor) { // streams the peptides of one protein in getTargetPeptideProteinMap(), including those after each leading M. The same peptide may be visited more than once.
+        massTool.digestProtein(protein, proteinSequence, visitor);
+        int i = 0;
+        while (i < proteinSequence.length() && proteinSequence.charAt(i) == 'M') {
+            massTool.digestProtein(protein, proteinSequence, ++i, visitor);
+        }
+    }
+
+    public static void digestProtein(MassTool massTool, String protein, String proteinSequence, int minPeptideLength, int maxPeptideLength, double minPeptideMass, double maxPeptideMass, MassTool.PeptideVisitor visitor) { // the same as above, only with the peptides in the bounds.
+        massTool.digestProtein(protein, proteinSequence, 0, minPeptideLength, maxPeptideLength, minPeptideMass, maxPeptideMass, visitor);
+        int i = 0;
+        while (i < proteinSequence.length() && proteinSequence.charAt(i) == 'M') {
+            massTool.digestProtein(protein, proteinSequence, ++i, minPeptideLength, maxPeptideLength, minPeptideMass, maxPeptideMass, visitor);
+        }
+    }
+
     public Multimap<String, String> getTargetPeptideProteinMap() {
         return targetPeptideProteinMap;
     }
+
+    public PeptideProteinMapping getTargetPeptideProteinMapping() { // interns the Multimap if the index was not built from a mapping.
+        if (targetPeptideProteinMapping == null) {
+            targetPeptideProteinMapping = new PeptideProteinMapping(targetPeptideProteinMap);
+        }
+        return targetPeptideProteinMapping;
+    }
+
+    public int getDigestedProteinNum() {
+        return digestedProteinNum;
+    }
+
+    public static long calSequenceHash(String sequence) { // 64-bit FNV-1a
+        return Utilities.calFnv1aHash(sequence, 0, sequence.length(), false);
+    }
+
+    public static Map<String, Long> buildManifest(Map<String, String> proteinSequenceMap) { // protein -> sequence hash
+        Map<String, Long> manifest = new HashMap<>(proteinSequenceMap.size() * 2);
+        for (String protein : proteinSequenceMap.keySet()) {
+            manifest.put(protein, calSequenceHash(proteinSequenceMap.get(protein)));
+        }
+        return manifest;
+    }
+
+    public static void writeManifest(Path path, Map<String, Long> manifest, String parameters) throws IOException { // parameters is the same as PeptideMassIndex.buildParameterString().
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write(String.format(Locale.US, "parameter_hash\t%016x\n", PeptideMassIndex.calParameterHash(parameters)));
+            for (Map.Entry<String, Long> entry : new TreeMap<>(manifest).entrySet()) {
+                writer.write(String.format(Locale.US, "%016x\t%s\n", entry.getValue(), entry.getKey()));
+            }
+        }
+    }
+
+    public static Map<String, Long> readManifest(Path path, String parameters) throws IOException { // empty if there is no manifest or it was built with other parameters, so that every protein is digested again.
+        Map<String, Long> manifest = new HashMap<>();
+        if (!Files.isRegularFile(path)) {
+            return manifest;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line == null || !line.contentEquals(String.format(Locale.US, "parameter_hash\t%016x", PeptideMassIndex.calParameterHash(parameters)))) {
+                return manifest;
+            }
+            while ((line = reader.readLine()) != null) {
+                int tabIdx = line.indexOf('\t');
+                if (tabIdx > 0) {
+                    manifest.put(line.substring(tabIdx + 1), Long.parseUnsignedLong(line.substring(0, tabIdx), 16));
+                }
+            }
+        }
+        return manifest;
+    }
+
+    public PeptideMassIndex buildPeptideMassIndex(MassTool massTool) { // the masses come from massTool so that its fixed modifications are considered.
+        return new PeptideMassIndex(targetPeptideProteinMap, massTool);
+    }
+
+    private static class DigestTask extends RecursiveAction { // digests the batches in [startBatch, endBatch). Batch i has the proteins in [i * batchSize, (i + 1) * batchSize).
+
+        private static final long serialVersionUID = 1L;
+
+        private final MassTool massTool;
+        private final Map<String, String> proteinSequenceMap;
+        private final String[] proteinArray;
+        private final int batchSize;
+        private final List<Multimap<String, String>> batchMapList;
+        private final int startBatch;
+        private final int endBatch;
+        private final int minPeptideLength;
+        private final int maxPeptideLength;
+        private final double minPeptideMass;
+        private final double maxPeptideMass;
+
+        DigestTask(MassTool massTool, Map<String, String> proteinSequenceMap, String[] proteinArray, int batchSize, List<Multimap<String, String>> batchMapList, int startBatch, int endBatch, int minPeptideLength, int maxPeptideLength, double minPeptideMass, double maxPeptideMass) {
+            this.massTool = massTool;
+            this.proteinSequenceMap = proteinSequenceMap;
+            this.proteinArray = proteinArray;
+            this.batchSize = batchSize;
+            this.batchMapList = batchMapList;
+            this.startBatch = startBatch;
+            this.endBatch = endBatch;
+            this.minPeptideLength = minPeptideLength;
+            this.maxPeptideLength = maxPeptideLength;
+            this.minPeptideMass = minPeptideMass;
+            this.maxPeptideMass = maxPeptideMass;
+        }
+
+        @Override
+        protected void compute() {
+            if (endBatch - startBatch <= 1) {
+                for (int batch = startBatch; batch < endBatch; ++batch) {
+                    Multimap<String, String> peptideProteinMap = HashMultimap.create();
+                    for (int i = batch * batchSize; i < Math.min(proteinArray.length, (batch + 1) * batchSize); ++i) {
+                        digestProtein(massTool, proteinArray[i], proteinSequenceMap.get(proteinArray[i]), minPeptideLength, maxPeptideLength, minPeptideMass, maxPeptideMass, (protein, proteinSequence, start, end) -> peptideProteinMap.put("n" + proteinSequence.substring(start, end) + "c", protein));
+                    }
+                    batchMapList.set(batch, peptideProteinMap);
+                }
+            } else {
+                int middle = (startBatch + endBatch) >>> 1;
+                invokeAll(new DigestTask(massTool, proteinSequenceMap, proteinArray, batchSize, batchMapList, startBatch, middle, minPeptideLength, maxPeptideLength, minPeptideMass, maxPeptideMass), new DigestTask(massTool, proteinSequenceMap, proteinArray, batchSize, batchMapList, middle, endBatch, minPeptideLength, maxPeptideLength, minPeptideMass, maxPeptideMass));
+            }
+        }
+    }
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2018-2019 The Hong Kong University of Science and Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ProteomicsLibrary;
+
+public class CleavageRule { // the same cleavage sites as MassTool.getDigestSitePattern() without regex. It is thread-safe.
+
+    private static final ThreadLocal<CutPointStack> threadLocalStack = ThreadLocal.withInitial(CutPointStack::new);
+
+    private final boolean[] cleavageArray = new boolean[128];
+    private final boolean[] protectionArray = new boolean[128];
+    private final boolean cleavageFromCTerm;
+
+    public CleavageRule(String cleavageSite, String protectionSite, boolean cleavageFromCTerm) {
+        for (int i = 0; i < cleavageSite.length(); ++i) {
+            char aa = cleavageSite.charAt(i);
+            if (aa < 128) {
+                cleavageArray[aa] = true;
+            }
+        }
+        if (!protectionSite.contentEquals("-")) {
+            for (int i = 0; i < protectionSite.length(); ++i) {
+                char aa = protectionSite.charAt(i);
+                if (aa < 128) {
+                    protectionArray[aa] = true;
+                }
+            }
+        }
+        this.cleavageFromCTerm = cleavageFromCTerm;
+    }
+
+    public boolean isCleavageSite(char aa) {
+        return aa < 128 && cleavageArray[aa];
+    }
+
+    public boolean isProtectionSite(char aa) {
+        return aa < 128 && protectionArray[aa];
+    }
+
+    public boolean isCleavageFromCTerm() {
+        return cleavageFromCTerm;
+    }
+
+    public boolean isCutPoint(CharSequence sequence, int start, int end, int cutPoint) { // whether the sequence[start, end) is cut before cutPoint. Residues outside [start, end) are invisible, which is the same as digesting the substring.
+        if (cleavageFromCTerm) {
+            return cutPoint > start && cutPoint <= end && isCleavageSite(sequence.charAt(cutPoint - 1)) && (cutPoint == end || !isProtectionSite(sequence.charAt(cutPoint)));
+        } else {
+            return cutPoint >= start && cutPoint < end && isCleavageSite(sequence.charAt(cutPoint)) && (cutPoint == start || !isProtectionSite(sequence.charAt(cutPoint - 1)));
+        }
+    }
+
+    public boolean isCutSiteResidue(CharSequence sequence, int from, int length, int idx) { // whether sequence[idx] is the residue of a cut in sequence[from, length), i.e. a match of MassTool.getDigestSitePattern() at idx.
+        return cleavageFromCTerm ? isCutPoint(sequence, from, length, idx + 1) : isCutPoint(sequence, from, length, idx);
+    }
+
+    public void digest(CharSequence sequence, int start, int end, int missedCleavage, RangeConsumer consumer) { // reports [start, end) of each peptide in sequence[start, end) ordered by the missed cleavage number and then by the start.
+        CutPointStack stack = threadLocalStack.get();
+        int offset = stack.size;
+        try {
+            int cutPointNum = pushCutPoints(stack, sequence, start, end);
+            for (int time = 0; time <= missedCleavage; ++time) {
+                for (int i = 0; i + 1 + time < cutPointNum; ++i) {
+                    consumer.accept(stack.array[offset + i], stack.array[offset + i + 1 + time], time); // the consumer may digest again, which may grow the array.
+                }
+            }
+        } finally {
+            stack.size = offset;
+        }
+    }
+
+    public void digestByStart(CharSequence sequence, int start, int end, int missedCleavage, ExtensionConsumer consumer) { // the same peptides as digest() ordered by the start and then by the missed cleavage number. A start is not extended any more once the consumer returns false.
+        CutPointStack stack = threadLocalStack.get();
+        int offset = stack.size;
+        try {
+            int cutPointNum = pushCutPoints(stack, sequence, start, end);
+            for (int i = 0; i + 1 < cutPointNum; ++i) {
+                for (int time = 0; time <= missedCleavage && i + 1 + time < cutPointNum; ++time) {
+                    if (!consumer.accept(stack.array[offset + i], stack.array[offset + i + 1 + time], time)) {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            stack.size = offset;
+        }
+    }
+
+    private int pushCutPoints(CutPointStack stack, CharSequence sequence, int start, int end) {
+        int cutPointNum = 1;
+        stack.push(start);
+        for (int i = start + 1; i < end; ++i) {
+            if (isCutPoint(sequence, start, end, i)) {
+                stack.push(i);
+                ++cutPointNum;
+            }
+        }
+        if (end > start) {
+            stack.push(end);
+            ++cutPointNum;
+        }
+        return cutPointNum;
+    }
+
+    public interface RangeConsumer {
+        void accept(int start, int end, int missedCleavageNum);
+    }
+
+    public interface ExtensionConsumer {
+        boolean accept(int start, int end, int missedCleavageNum); // returns false to stop extending the peptide.
+    }
+
+    private static class CutPointStack { // the cut points of nested digestions are stacked in one array so that digest() can be called in a consumer.
+
+        private int[] array = new int[256];
+        private int size = 0;
+
+        private void push(int cutPoint) {
+            if (size == array.length) {
+                int[] newArray = new int[array.length * 2];
+                System.arraycopy(array, 0, newArray, 0, size);
+                array = newArray;
+            }
+            array[size++] = cutPoint;
+        }
+    }
+}
@@ -19,6 +19,14 @@ package ProteomicsLibrary;
 import com.google.common.collect.Multimap;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystemException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -31,13 +39,8 @@ public class DbTool {
     private Map<String, String> proteinAnnotateMap = new HashMap<>();
 
     public DbTool(String dbName, String databaseType) throws IOException {
-        String id = "";
-        String annotate;
-        StringBuilder sequence = new StringBuilder(99999);
         databaseType = databaseType.trim().toLowerCase();
 
-        boolean newPro = true;
-
         Pattern headerPattern;
         if (databaseType.contentEquals("tair")) {
             headerPattern = Pattern.compile("^>([^\\s]+)[\\s|]*(.*)$");
@@ -53,45 +56,24 @@ public class DbTool {
             throw new NullPointerException(String.format(Locale.US, "Incorrect database type (%s) in the parameter file.", databaseType));
         }
 
-        BufferedReader dbReader;
+        ReadableByteChannel dbChannel;
         if (databaseType.contentEquals("contaminants")) {
             InputStream inputStream = getClass().getClassLoader().getResourceAsStream("contaminants.fasta");
-            dbReader = new BufferedReader(new InputStreamReader(inputStream));
+            dbChannel = Channels.newChannel(inputStream);
         } else {
-            dbReader = new BufferedReader(new FileReader(dbName));
-        }
-        String line;
-        while ((line = dbReader.readLine()) != null) {
-            line = line.trim();
-            Matcher headMatcher = headerPattern.matcher(line);
-            if (headMatcher.matches()) {
-                // This line is a header
-                if (!newPro) {
-                    // This isn't the first protein
-                    proteinSequenceMap.put(id, sequence.toString());
-                }
-                id = headMatcher.group(1).trim();
-                if (databaseType.contentEquals("others")) {
-                    annotate = id;
-                } else {
-                    annotate = headMatcher.group(2).trim();
-                }
-                proteinAnnotateMap.put(id, annotate);
-                newPro = true;
-            } else if (!line.isEmpty()) {
-                // This line is a body
-                if (newPro) {
-                    sequence = new StringBuilder(99999);
-                    sequence.append(line);
-                    newPro = false;
-                } else {
-                    sequence.append(line);
-                }
+            try {
+                dbChannel = FileChannel.open(Paths.get(dbName), StandardOpenOption.READ);
+            } catch (FileSystemException ex) { // keep the FileNotFoundException of the former FileReader for a missing or unreadable file.
+                FileNotFoundException fileNotFoundException = new FileNotFoundException(String.format(Locale.US, "%s (%s)", dbName, ex.getReason() == null ? "No such file or directory" : ex.getReason()));
+                fileNotFoundException.initCause(ex);
+                throw fileNotFoundException;
             }
         }
-        dbReader.close();
-        // Last protein
-        proteinSequenceMap.put(id, sequence.toString());
+        try {
+            new FastaReader(headerPattern, databaseType.contentEquals("others")).read(dbChannel);
+        } finally {
+            dbChannel.close();
+        }
     }
 
     public Map<String, String> getProteinSequenceMap() {
@@ -102,6 +84,10 @@ public class DbTool {
         return proteinAnnotateMap;
     }
 
+    public ProteomeIndex buildProteomeIndex() { // for many flank or location queries against this database.
+        return new ProteomeIndex(proteinSequenceMap);
+    }
+
     public static String shuffleSeq(String sequence, String cleavageSite, String protectionSite, boolean cleavageFromCTerm) { // shuffling the protein sequence with without randomness
         // todo: A protection site may be shuffled, which may result in "non-existing" peptides after digestion.
         // todo: A "potential" protection site may also be shuffled to the side of a cleavage site so that it prevents a peptide from being digested.
@@ -112,16 +98,11 @@ public class DbTool {
             sequenceToBeShuffled = sequence;
         }
 
-        Pattern digestSitePattern = MassTool.getDigestSitePattern(cleavageSite, protectionSite, cleavageFromCTerm);
-        Set<Integer> cutSiteSet = new HashSet<>();
-        Matcher matcher = digestSitePattern.matcher(sequenceToBeShuffled);
-        while (matcher.find()) {
-            cutSiteSet.add(matcher.start());
-        }
+        CleavageRule cleavageRule = new CleavageRule(cleavageSite, protectionSite, cleavageFromCTerm);
         char[] tempArray = sequenceToBeShuffled.toCharArray();
         int idx = 0;
         while (idx < tempArray.length - 1) {
-            if (!cutSiteSet.contains(idx) && !cutSiteSet.contains(idx + 1)) {
+            if (!cleavageRule.isCutSiteResidue(sequenceToBeShuffled, 0, tempArray.length, idx) && !cleavageRule.isCutSiteResidue(sequenceToBeShuffled, 0, tempArray.length, idx + 1)) {
                 char temp = tempArray[idx];
                 tempArray[idx] = tempArray[idx + 1];
                 tempArray[idx + 1] = temp;
@@ -148,16 +129,17 @@ public class DbTool {
             sequenceToBeShuffled = sequence;
         }
 
-        Pattern digestSitePattern = MassTool.getDigestSitePattern(cleavageSite, protectionSite, cleavageFromCTerm);
-        Set<Integer> cutSiteSet = new HashSet<>();
-        Matcher matcher = digestSitePattern.matcher(sequenceToBeShuffled);
-        while (matcher.find()) {
-            cutSiteSet.add(matcher.start());
-        }
+        CleavageRule cleavageRule = new CleavageRule(cleavageSite, protectionSite, cleavageFromCTerm);
         char[] tempArray = sequenceToBeShuffled.toCharArray();
         int time = 0;
-        Integer[] cutSiteArray = cutSiteSet.toArray(new Integer[0]);
-        Arrays.sort(cutSiteArray);
+        int[] cutSiteArray = new int[tempArray.length];
+        int cutSiteNum = 0;
+        for (int i = 0; i < tempArray.length; ++i) {
+            if (cleavageRule.isCutSiteResidue(sequenceToBeShuffled, 0, tempArray.length, i)) {
+                cutSiteArray[cutSiteNum++] = i;
+            }
+        }
+        cutSiteArray = Arrays.copyOf(cutSiteArray, cutSiteNum);
 
         // shuffling in each cut range.
         int startIdx;
@@ -192,55 +174,47 @@ public class DbTool {
     }
 
     public static Character[] getLeftRightFlank(String peptide, Multimap<String, String> peptideProteinMap, Map<String, String> proteinSequenceMap, String cleavageSite, String protectionSite, boolean cleavageFromCTerm) throws Exception {
-        Character[] leftRightFlank = new Character[2];
         String peptideString = DbTool.getSequenceOnly(peptide);
         for (String proteinId : peptideProteinMap.get(peptide)) {
             String proteinSequence = proteinSequenceMap.get(proteinId);
             int startIdx = proteinSequence.indexOf(peptideString);
             while (startIdx >= 0) {
-                if (startIdx == 0 || ((startIdx == 1 && proteinSequence.charAt(0) == 'M'))) { // considering first "M" being cut situation.
-                    int tempIdx = startIdx + peptideString.length();
-                    if (tempIdx < proteinSequence.length()) {
-                        leftRightFlank[1] = proteinSequence.charAt(tempIdx);
-                        if ((cleavageFromCTerm && !protectionSite.contains(leftRightFlank[1].toString())) || (!cleavageFromCTerm && cleavageSite.contains(leftRightFlank[1].toString()))) {
-                            leftRightFlank[0] = '-';
-                            break;
-                        } else {
-                            leftRightFlank[1] = null;
-                        }
-                    } else if (tempIdx == proteinSequence.length()) {
-                        leftRightFlank[0] = '-';
-                        leftRightFlank[1] = '-';
-                        break;
-                    } else {
-                        throw new Exception(String.format(Locale.US, "The peptide %s is longer than its protein %s.", peptideString, proteinSequence));
-                    }
-                } else if (startIdx == proteinSequence.length() - peptideString.length()) {
-                    leftRightFlank[0] = proteinSequence.charAt(startIdx - 1);
-                    if ((cleavageFromCTerm && cleavageSite.contains(leftRightFlank[0].toString())) || (!cleavageFromCTerm && !protectionSite.contains(leftRightFlank[0].toString()))) {
-                        leftRightFlank[1] = '-';
-                        break;
-                    } else {
-                        leftRightFlank[0] = null;
-                    }
-                } else {
-                    leftRightFlank[0] = proteinSequence.charAt(startIdx - 1);
-                    leftRightFlank[1] = proteinSequence.charAt(startIdx + peptideString.length());
-                    if ((cleavageFromCTerm && cleavageSite.contains(leftRightFlank[0].toString()) && !protectionSite.contains(leftRightFlank[1].toString())) || (!cleavageFromCTerm && cleavageSite.contains(leftRightFlank[1].toString()) && !protectionSite.contains(leftRightFlank[0].toString()))) {
-                        break;
-                    } else {
-                        leftRightFlank[0] = null;
-                        leftRightFlank[1] = null;
-                    }
+                Character[] leftRightFlank = getLeftRightFlank(proteinSequence, startIdx, peptideString.length(), cleavageSite, protectionSite, cleavageFromCTerm);
+                if (leftRightFlank != null) {
+                    return leftRightFlank;
                 }
                 startIdx = proteinSequence.indexOf(peptideString, startIdx + 1);
             }
+        }
+        return null;
+    }
 
-            if (leftRightFlank[0] != null && leftRightFlank[1] != null) {
-                return leftRightFlank;
+    static Character[] getLeftRightFlank(String proteinSequence, int startIdx, int peptideLength, String cleavageSite, String protectionSite, boolean cleavageFromCTerm) { // the flanks of the peptide at proteinSequence[startIdx, startIdx + peptideLength), or null if it is not a digested peptide there.
+        int endIdx = startIdx + peptideLength;
+        if (startIdx == 0 || ((startIdx == 1 && proteinSequence.charAt(0) == 'M'))) { // considering first "M" being cut situation.
+            if (endIdx < proteinSequence.length()) {
+                char rightFlank = proteinSequence.charAt(endIdx);
+                if ((cleavageFromCTerm && protectionSite.indexOf(rightFlank) < 0) || (!cleavageFromCTerm && cleavageSite.indexOf(rightFlank) >= 0)) {
+                    return new Character[]{'-', rightFlank};
+                }
+                return null;
+            } else {
+                return new Character[]{'-', '-'};
+            }
+        } else if (endIdx == proteinSequence.length()) {
+            char leftFlank = proteinSequence.charAt(startIdx - 1);
+            if ((cleavageFromCTerm && cleavageSite.indexOf(leftFlank) >= 0) || (!cleavageFromCTerm && protectionSite.indexOf(leftFlank) < 0)) {
+                return new Character[]{leftFlank, '-'};
+            }
+            return null;
+        } else {
+            char leftFlank = proteinSequence.charAt(startIdx - 1);
+            char rightFlank = proteinSequence.charAt(endIdx);
+            if ((cleavageFromCTerm && cleavageSite.indexOf(leftFlank) >= 0 && protectionSite.indexOf(rightFlank) < 0) || (!cleavageFromCTerm && cleavageSite.indexOf(rightFlank) >= 0 && protectionSite.indexOf(leftFlank) < 0)) {
+                return new Character[]{leftFlank, rightFlank};
             }
+            return null;
         }
-        return null;
     }
 
     public static Set<Integer> findPeptideLocation(String proteinSequence, String peptide, String cutSite, String protectSite) throws NullPointerException {
@@ -248,7 +222,7 @@ public class DbTool {
         Set<Integer> output = new HashSet<>();
         int idx = proteinSequence.indexOf(peptide);
         while (idx >= 0) {
-            if ((idx == 0 || cutSite.contains(proteinSequence.substring(idx - 1, idx)) || (idx == 1 && proteinSequence.charAt(0) == 'M')) && (idx + peptide.length() == proteinSequence.length() || !protectSite.contains(proteinSequence.substring(idx + peptide.length(), idx + peptide.length() + 1)))) { // caution: we only consider cutting from N-term.
+            if (isPeptideLocation(proteinSequence, idx, peptide.length(), cutSite, protectSite)) {
                 output.add(idx);
             }
             idx = proteinSequence.indexOf(peptide, idx + 1);
@@ -256,6 +230,10 @@ public class DbTool {
         return output;
     }
 
+    static boolean isPeptideLocation(String proteinSequence, int idx, int peptideLength, String cutSite, String protectSite) { // caution: we only consider cutting from N-term.
+        return (idx == 0 || cutSite.indexOf(proteinSequence.charAt(idx - 1)) >= 0 || (idx == 1 && proteinSequence.charAt(0) == 'M')) && (idx + peptideLength == proteinSequence.length() || protectSite.indexOf(proteinSequence.charAt(idx + peptideLength)) < 0);
+    }
+
     public static TreeSet<String> reduceProteinIdSet(Set<String> input, String databaseType) { // this only works for TAIR
         if (input.size() == 1 || !databaseType.toLowerCase().contentEquals("tair")) {
             return new TreeSet<>(input);
@@ -323,4 +301,120 @@ public class DbTool {
 
         return missedCleavageSitePattern;
     }
+
+    private class FastaReader { // reads a FASTA file in large chunks and splits the lines at the '\n' and '\r' bytes as BufferedReader.readLine() does. Only the lines starting with '>' are decoded and matched against the header pattern. The result is the same as reading the lines decoded with the default charset, which must be ASCII compatible.
+
+        private static final int CHUNK_SIZE = 1 << 20;
+
+        private final Pattern headerPattern;
+        private final boolean others;
+        private final Charset charset = Charset.defaultCharset();
+        private byte[] lineArray = new byte[1024]; // the current line, which may span two chunks.
+        private int lineLength = 0;
+        private char[] sequenceArray = new char[99999]; // reused by all proteins.
+        private int sequenceLength = 0;
+        private String id = "";
+        private boolean newPro = true;
+
+        private FastaReader(Pattern headerPattern, boolean others) {
+            this.headerPattern = headerPattern;
+            this.others = others;
+        }
+
+        private void read(ReadableByteChannel channel) throws IOException {
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+            byte[] chunkArray = chunk.array();
+            while (channel.read(chunk) >= 0) {
+                int end = chunk.position();
+                int lineStart = 0;
+                for (int i = 0; i < end; ++i) {
+                    if (chunkArray[i] == '\n' || chunkArray[i] == '\r') { // "\r\n" gives an extra empty line, which is skipped as in readLine().
+                        appendLine(chunkArray, lineStart, i);
+                        processLine();
+                        lineStart = i + 1;
+                    }
+                }
+                appendLine(chunkArray, lineStart, end);
+                chunk.clear();
+            }
+            processLine();
+            // Last protein
+            proteinSequenceMap.put(id, String.valueOf(sequenceArray, 0, sequenceLength));
+        }
+
+        private void appendLine(byte[] array, int start, int end) {
+            if (lineLength + end - start > lineArray.length) {
+                lineArray = Arrays.copyOf(lineArray, Math.max(lineArray.length * 2, lineLength + end - start));
+            }
+            System.arraycopy(array, start, lineArray, lineLength, end - start);
+            lineLength += end - start;
+        }
+
+        private void processLine() {
+            // the same as String.trim(), which removes the chars <= ' '.
+            int start = 0;
+            int end = lineLength;
+            lineLength = 0;
+            while (start < end && (lineArray[start] & 0xff) <= ' ') {
+                ++start;
+            }
+            while (end > start && (lineArray[end - 1] & 0xff) <= ' ') {
+                --end;
+            }
+            if (start == end) {
+                return;
+            }
+
+            if (lineArray[start] == '>') {
+                Matcher headMatcher = headerPattern.matcher(new String(lineArray, start, end - start, charset));
+                if (headMatcher.matches()) {
+                    // This line is a header
+                    if (!newPro) {
+                        // This isn't the first protein
+                        proteinSequenceMap.put(id, String.valueOf(sequenceArray, 0, sequenceLength));
+                    }
+                    id = headMatcher.group(1).trim();
+                    String annotate;
+                    if (others) {
+                        annotate = id;
+                    } else {
+                        annotate = headMatcher.group(2).trim();
+                    }
+                    proteinAnnotateMap.put(id, annotate);
+                    newPro = true;
+                    return;
+                }
+            }
+
+            // This line is a body
+            if (newPro) {
+                sequenceLength = 0;
+                newPro = false;
+            }
+            boolean ascii = true;
+            for (int i = start; i < end; ++i) {
+                if (lineArray[i] < 0) {
+                    ascii = false;
+                    break;
+                }
+            }
+            if (ascii) {
+                ensureSequenceCapacity(end - start);
+                for (int i = start; i < end; ++i) {
+                    sequenceArray[sequenceLength++] = (char) lineArray[i];
+                }
+            } else {
+                String line = new String(lineArray, start, end - start, charset);
+                ensureSequenceCapacity(line.length());
+                line.getChars(0, line.length(), sequenceArray, sequenceLength);
+                sequenceLength += line.length();
+            }
+        }
+
+        private void ensureSequenceCapacity(int num) {
+            if (sequenceLength + num > sequenceArray.length) {
+                sequenceArray = Arrays.copyOf(sequenceArray, Math.max(sequenceArray.length * 2, sequenceLength + num));
+            }
+        }
+    }
 }
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2018-2019 The Hong Kong University of Science and Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ProteomicsLibrary;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class DecoyGenerator { // generates decoy proteins. The random source of a protein is seeded by its ID so that the decoys don't depend on the order or the thread number. The first "M" is kept as in DbTool.shuffleSeq(). It is thread-safe.
+
+    public enum Mode {
+        REVERSE, // reverses the whole sequence.
+        PSEUDO_REVERSE, // reverses each range between two cleavage sites, keeping the sites in place.
+        FISHER_YATES // shuffles each range between two cleavage sites, the same ranges as DbTool.shuffleSeqFY().
+    }
+
+    private static final int MAX_SHUFFLE_TIME = 10;
+
+    private final CleavageRule cleavageRule;
+    private final Mode mode;
+    private final long seed;
+
+    // the collision check. A decoy peptide equal to a target peptide gets its ranges reshuffled.
+    private final MassTool massTool;
+    private final PeptideHashSet targetPeptideSet;
+    private final int minPeptideLength;
+    private final int maxPeptideLength;
+    private final double minPeptideMass;
+    private final double maxPeptideMass;
+
+    public DecoyGenerator(String cleavageSite, String protectionSite, boolean cleavageFromCTerm, Mode mode, long seed) {
+        this(cleavageSite, protectionSite, cleavageFromCTerm, mode, seed, null, null, 0, 0, 0, 0);
+    }
+
+    public DecoyGenerator(String cleavageSite, String protectionSite, boolean cleavageFromCTerm, Mode mode, long seed, MassTool massTool, PeptideHashSet targetPeptideSet, int minPeptideLength, int maxPeptideLength, double minPeptideMass, double maxPeptideMass) { // decoys are digested with the bounds of BuildIndex.digestProtein(). The colliding ranges are reshuffled at most MAX_SHUFFLE_TIME times, and a collision that cannot be removed is kept.
+        cleavageRule = new CleavageRule(cleavageSite, protectionSite, cleavageFromCTerm);
+        this.mode = mode;
+        this.seed = seed;
+        this.massTool = massTool;
+        this.targetPeptideSet = targetPeptideSet;
+        this.minPeptideLength = minPeptideLength;
+        this.maxPeptideLength = maxPeptideLength;
+        this.minPeptideMass = minPeptideMass;
+        this.maxPeptideMass = maxPeptideMass;
+    }
+
+    public String generate(String protein, String sequence) {
+        int from = sequence.startsWith("M") ? 1 : 0; // don't touch the first "M" because it has a special meaning.
+        char[] array = sequence.toCharArray();
+        SplittableRandom random = new SplittableRandom(calSeed(protein));
+        switch (mode) {
+            case REVERSE:
+                reverse(array, from, array.length);
+                break;
+            case PSEUDO_REVERSE:
+                forEachRange(sequence, from, (start, end) -> reverse(array, start, end));
+                break;
+            case FISHER_YATES:
+                forEachRange(sequence, from, (start, end) -> {
+                    if (end - start > 2) {
+                        int time = 0;
+                        do {
+                            shuffle(array, start, end, random);
+                            ++time;
+                        } while (time < MAX_SHUFFLE_TIME && sequence.regionMatches(start, String.valueOf(array, start, end - start), 0, end - start));
+                    }
+                });
+                break;
+        }
+        if (targetPeptideSet != null) {
+            removeCollision(protein, array, from, random);
+        }
+        return String.valueOf(array);
+    }
+
+    private void removeCollision(String protein, char[] array, int from, SplittableRandom random) {
+        int[] coverArray = new int[array.length + 1]; // the difference array of the number of colliding peptides covering a residue.
+        for (int time = 0; time < MAX_SHUFFLE_TIME; ++time) {
+            String decoySequence = String.valueOf(array);
+            Arrays.fill(coverArray, 0);
+            boolean[] collided = new boolean[1];
+            BuildIndex.digestProtein(massTool, protein, decoySequence, minPeptideLength, maxPeptideLength, minPeptideMass, maxPeptideMass, (protein2, proteinSequence, start, end) -> {
+                if (targetPeptideSet.contains(proteinSequence, start, end)) {
+                    ++coverArray[start];
+                    --coverArray[end];
+                    collided[0] = true;
+                }
+            });
+            if (!collided[0]) {
+                return;
+            }
+            for (int i = 1; i < coverArray.length; ++i) {
+                coverArray[i] += coverArray[i - 1];
+            }
+            forEachRange(decoySequence, from, (start, end) -> {
+                for (int i = start; i < end; ++i) {
+                    if (coverArray[i] > 0) {
+                        shuffle(array, start, end, random);
+                        break;
+                    }
+                }
+            });
+        }
+    }
+
+    public Map<String, String> generate(Map<String, String> proteinSequenceMap, int threadNum) { // protein ID -> decoy sequence. The content doesn't depend on threadNum.
+        String[] proteinArray = proteinSequenceMap.keySet().toArray(new String[0]);
+        String[] decoyArray = new String[proteinArray.length];
+        if (threadNum <= 1) {
+            for (int i = 0; i < proteinArray.length; ++i) {
+                decoyArray[i] = generate(proteinArray[i], proteinSequenceMap.get(proteinArray[i]));
+            }
+        } else {
+            ForkJoinPool forkJoinPool = new ForkJoinPool(threadNum);
+            try {
+                forkJoinPool.invoke(new GenerateTask(proteinSequenceMap, proteinArray, decoyArray, 0, proteinArray.length, Math.max(1, proteinArray.length / (threadNum * 8))));
+            } finally {
+                forkJoinPool.shutdown();
+            }
+        }
+        Map<String, String> decoySequenceMap = new HashMap<>(proteinArray.length * 2);
+        for (int i = 0; i < proteinArray.length; ++i) {
+            decoySequenceMap.put(proteinArray[i], decoyArray[i]);
+        }
+        return decoySequenceMap;
+    }
+
+    private long calSeed(String protein) {
+        return seed ^ BuildIndex.calSequenceHash(protein);
+    }
+
+    private void forEachRange(String sequence, int from, RangeConsumer consumer) { // the ranges in [from, length) between two site residues, which are the residues matching MassTool.getDigestSitePattern().
+        int length = sequence.length();
+        int start = from;
+        for (int i = from; i < length; ++i) {
+            if (cleavageRule.isCutSiteResidue(sequence, from, length, i)) {
+                consumer.accept(start, i);
+                start = i + 1;
+            }
+        }
+        consumer.accept(start, length);
+    }
+
+    private static void shuffle(char[] array, int start, int end, SplittableRandom random) { // the Durstenfeld version of the Fisher-Yates shuffle.
+        for (int i = end - 1; i > start; --i) {
+            int j = start + random.nextInt(i - start + 1);
+            char temp = array[i];
+            array[i] = array[j];
+            array[j] = temp;
+        }
+    }
+
+    private static void reverse(char[] array, int start, int end) {
+        for (int i = start, j = end - 1; i < j; ++i, --j) {
+            char temp = array[i];
+            array[i] = array[j];
+            array[j] = temp;
+        }
+    }
+
+    private interface RangeConsumer {
+        void accept(int start, int end);
+    }
+
+    private class GenerateTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Map<String, String> proteinSequenceMap;
+        private final String[] proteinArray;
+        private final String[] decoyArray;
+        private final int start;
+        private final int end;
+        private final int threshold;
+
+        private GenerateTask(Map<String, String> proteinSequenceMap, String[] proteinArray, String[] decoyArray, int start, int end, int threshold) {
+            this.proteinSequenceMap = proteinSequenceMap;
+            this.proteinArray = proteinArray;
+            this.decoyArray = decoyArray;
+            this.start = start;
+            this.end = end;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= threshold) {
+                for (int i = start; i < end; ++i) {
+                    decoyArray[i] = generate(proteinArray[i], proteinSequenceMap.get(proteinArray[i]));
+                }
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new GenerateTask(proteinSequenceMap, proteinArray, decoyArray, start, middle, threshold), new GenerateTask(proteinSequenceMap, proteinArray, decoyArray, middle, end, threshold));
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2018-2019 The Hong Kong University of Science and Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ProteomicsLibrary;
+
+import ProteomicsLibrary.Types.IonArrayBuffer;
+import ProteomicsLibrary.Types.SparseVector;
+
+import java.util.Arrays;
+import java.util.Map;
+
+public class FragmentIndex { // fragment bins (MassTool.mzToBin()) -> the ranks of a PeptideMassIndex. Each posting list is sorted by the rank, i.e. by the precursor mass, so that a precursor window is a slice of it. It is immutable and thread-safe.
+
+    private final PeptideMassIndex peptideMassIndex;
+    private final int[] binOffsetArray; // the postings of bin i are postingArray[binOffsetArray[i], binOffsetArray[i + 1])
+    private final int[] postingArray;
+
+    public FragmentIndex(PeptideMassIndex peptideMassIndex, MassTool massTool, int maxFragmentCharge) { // b- and y-ions from charge 1 to maxFragmentCharge, the same as MassTool.buildIonArray().
+        this.peptideMassIndex = peptideMassIndex;
+        int peptideNum = peptideMassIndex.size();
+
+        // collect the distinct bins of each peptide in the rank order.
+        IonArrayBuffer ionBuffer = new IonArrayBuffer();
+        int[] peptideOffsetArray = new int[peptideNum + 1];
+        int[] peptideBinArray = new int[Math.max(1024, peptideNum * 4)];
+        int binNum = 0;
+        int maxBin = -1;
+        for (int rank = 0; rank < peptideNum; ++rank) {
+            peptideOffsetArray[rank] = binNum;
+            massTool.buildIonArray(MassTool.compilePeptide(peptideMassIndex.getPeptide(peptideMassIndex.getOrdinal(rank))), maxFragmentCharge, ionBuffer);
+            int ionNum = ionBuffer.getRowNum() * ionBuffer.getColNum();
+            if (peptideBinArray.length < binNum + ionNum) {
+                peptideBinArray = Arrays.copyOf(peptideBinArray, Math.max(binNum + ionNum, peptideBinArray.length * 2));
+            }
+            double[] ionArray = ionBuffer.getIonArray();
+            for (int i = 0; i < ionNum; ++i) {
+                peptideBinArray[binNum + i] = Math.max(0, massTool.mzToBin(ionArray[i]));
+            }
+            Arrays.sort(peptideBinArray, binNum, binNum + ionNum);
+            int end = binNum;
+            for (int i = binNum; i < binNum + ionNum; ++i) {
+                if (i == binNum || peptideBinArray[i] != peptideBinArray[end - 1]) {
+                    peptideBinArray[end++] = peptideBinArray[i];
+                }
+            }
+            binNum = end;
+            if (end > peptideOffsetArray[rank]) {
+                maxBin = Math.max(maxBin, peptideBinArray[end - 1]);
+            }
+        }
+        peptideOffsetArray[peptideNum] = binNum;
+
+        // transpose
+        binOffsetArray = new int[maxBin + 2];
+        for (int i = 0; i < binNum; ++i) {
+            ++binOffsetArray[peptideBinArray[i] + 1];
+        }
+        for (int bin = 0; bin <= maxBin; ++bin) {
+            binOffsetArray[bin + 1] += binOffsetArray[bin];
+        }
+        postingArray = new int[binNum];
+        int[] cursorArray = Arrays.copyOf(binOffsetArray, maxBin + 1);
+        for (int rank = 0; rank < peptideNum; ++rank) {
+            for (int i = peptideOffsetArray[rank]; i < peptideOffsetArray[rank + 1]; ++i) {
+                postingArray[cursorArray[peptideBinArray[i]]++] = rank;
+            }
+        }
+    }
+
+    public PeptideMassIndex getPeptideMassIndex() {
+        return peptideMassIndex;
+    }
+
+    public int getPostingNum(int bin) {
+        if (bin < 0 || bin + 1 >= binOffsetArray.length) {
+            return 0;
+        }
+        return binOffsetArray[bin + 1] - binOffsetArray[bin];
+    }
+
+    public int query(SparseVector digitizedPL, int startRank, int endRank, int[] sharedPeakNumArray, double[] summedIntensityArray) { // digitizedPL is from PrepareSpectrum.digitizePL(). The results of rank r are in the arrays[r - startRank], which are cleared first. Returns the number of candidates sharing at least one peak.
+        int candidateNum = endRank - startRank;
+        Arrays.fill(sharedPeakNumArray, 0, candidateNum, 0);
+        Arrays.fill(summedIntensityArray, 0, candidateNum, 0);
+        int matchedNum = 0;
+        for (Map.Entry<Integer, Double> entry : digitizedPL.getVectorMap().entrySet()) {
+            int bin = entry.getKey();
+            if (bin < 0 || bin + 1 >= binOffsetArray.length) {
+                continue;
+            }
+            double intensity = entry.getValue();
+            int end = binOffsetArray[bin + 1];
+            for (int i = lowerBound(binOffsetArray[bin], end, startRank); i < end && postingArray[i] < endRank; ++i) {
+                int idx = postingArray[i] - startRank;
+                if (sharedPeakNumArray[idx] == 0) {
+                    ++matchedNum;
+                }
+                ++sharedPeakNumArray[idx];
+                summedIntensityArray[idx] += intensity;
+            }
+        }
+        return matchedNum;
+    }
+
+    public int query(SparseVector digitizedPL, double minPrecursorMass, double maxPrecursorMass, int[] sharedPeakNumArray, double[] summedIntensityArray) { // the same as above with the ranks of [minPrecursorMass, maxPrecursorMass]. The results start from peptideMassIndex.lowerBound(minPrecursorMass).
+        return query(digitizedPL, peptideMassIndex.lowerBound(minPrecursorMass), peptideMassIndex.upperBound(maxPrecursorMass), sharedPeakNumArray, summedIntensityArray);
+    }
+
+    private int lowerBound(int low, int high, int rank) { // the first posting in [low, high) whose rank >= rank.
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (postingArray[middle] < rank) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -17,7 +17,10 @@
 package ProteomicsLibrary;
 
 import ProteomicsLibrary.Types.AA;
-import ProteomicsLibrary.Types.SparseVector;
+import ProteomicsLibrary.Types.BinVector;
+import ProteomicsLibrary.Types.CompiledPeptide;
+import ProteomicsLibrary.Types.IonArrayBuffer;
+import ProteomicsLibrary.Types.PackedPeptideSet;
 
 import java.util.*;
 import java.util.regex.Matcher;
@@ -25,7 +28,9 @@ import java.util.regex.Pattern;
 
 public class MassTool {
 
-    private static final Pattern modAAPattern = Pattern.compile("([A-Znc])(([(\\[])?([0-9.\\-+]+)([)\\]])?)?");
+    private static final ThreadLocal<IonArrayBuffer> batchBuffer = ThreadLocal.withInitial(IonArrayBuffer::new); // not shared with IonArrayBuffer.forCurrentThread() so that the caller's buffer stays untouched.
+    private static final double[] defaultInverseChargeArray = new double[]{1, (double) 1 / 2, (double) 1 / 3, (double) 1 / 4, (double) 1 / 5, (double) 1 / 6, (double) 1 / 7, (double) 1 / 8};
+    private static final double[] pow10Array = new double[]{1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
     private static final Pattern leftFlankPattern = Pattern.compile("^[A-Z-]\\.");
     private static final Pattern rightFlankPattern = Pattern.compile("\\.[A-Z-]$");
 
@@ -69,6 +74,9 @@ public class MassTool {
 
     private final Map<String, Double> elementTable = new HashMap<>();
     private final Map<Character, Double> massTable = new HashMap<>(30, 1);
+    private final Map<Character, Double> massTableView = Collections.unmodifiableMap(massTable);
+    private final double[] massArray = new double[128]; // the same as massTable, but indexed by the AA char to avoid boxing in the hot paths.
+    private final double[] fixModArray = new double[128];
     private final int missedCleavage;
     private final double ms2Tolerance;
     private final double inverse2Ms2Tolerance;
@@ -77,6 +85,8 @@ public class MassTool {
     private final Pattern digestSitePattern2;
     private final Boolean cleavageFromCTerm1;
     private final Boolean cleavageFromCTerm2;
+    private final CleavageRule cleavageRule1;
+    private final CleavageRule cleavageRule2;
     private final Pattern digestSitePatternForLinkSiteChecking1; // this is for removing the digest site form cross-linking
     private final Pattern digestSitePatternForLinkSiteChecking2; // this is for removing the digest site form cross-linking
     private final String labelling;
@@ -255,13 +265,18 @@ public class MassTool {
 
         digestSitePattern1 = getDigestSitePattern(cleavageSite1, protectionSite1, cleavageFromCTerm1);
         digestSitePatternForLinkSiteChecking1 = getDigestSitePatternForLinkSiteChecking(cleavageSite1, protectionSite1, cleavageFromCTerm1);
+        cleavageRule1 = new CleavageRule(cleavageSite1, protectionSite1, cleavageFromCTerm1);
         if (cleavageSite2 != null) {
             digestSitePattern2 = getDigestSitePattern(cleavageSite2, protectionSite2, cleavageFromCTerm2);
             digestSitePatternForLinkSiteChecking2 = getDigestSitePatternForLinkSiteChecking(cleavageSite2, protectionSite2, cleavageFromCTerm2);
+            cleavageRule2 = new CleavageRule(cleavageSite2, protectionSite2, cleavageFromCTerm2);
         } else {
             digestSitePattern2 = null;
             digestSitePatternForLinkSiteChecking2 = null;
+            cleavageRule2 = null;
         }
+
+        buildMassArray();
     }
 
     public MassTool(int missedCleavage, String cleavageSite1, String protectionSite1, boolean cleavageFromCTerm1, String cleavageSite2, String protectionSite2, Boolean cleavageFromCTerm2, double ms2Tolerance, double oneMinusBinOffset, String labelling) {
@@ -469,13 +484,18 @@ public class MassTool {
 
         digestSitePattern1 = getDigestSitePattern(cleavageSite1, protectionSite1, cleavageFromCTerm1);
         digestSitePatternForLinkSiteChecking1 = getDigestSitePatternForLinkSiteChecking(cleavageSite1, protectionSite1, cleavageFromCTerm1);
+        cleavageRule1 = new CleavageRule(cleavageSite1, protectionSite1, cleavageFromCTerm1);
         if (cleavageSite2 != null) {
             digestSitePattern2 = getDigestSitePattern(cleavageSite2, protectionSite2, cleavageFromCTerm2);
             digestSitePatternForLinkSiteChecking2 = getDigestSitePatternForLinkSiteChecking(cleavageSite2, protectionSite2, cleavageFromCTerm2);
+            cleavageRule2 = new CleavageRule(cleavageSite2, protectionSite2, cleavageFromCTerm2);
         } else {
             digestSitePattern2 = null;
             digestSitePatternForLinkSiteChecking2 = null;
+            cleavageRule2 = null;
         }
+
+        buildMassArray();
     }
 
     public static boolean isAA(char aa) {
@@ -492,95 +512,163 @@ public class MassTool {
     }
 
     public double calResidueMass(String sequence) { // n and c are also AA. Consider fixed modification automatically
+        return calResidueMass(compilePeptide(sequence));
+    }
+
+    public double calResidueMass(CompiledPeptide peptide) { // n and c are also AA. Consider fixed modification automatically
         double totalMass = 0;
-        Matcher matcher = modAAPattern.matcher(sequence);
-        while (matcher.find()) {
-            char aa = matcher.group(1).charAt(0);
-            double deltaMass = 0;
-            if (matcher.group(4) != null) {
-                deltaMass = Double.valueOf(matcher.group(4));
-            }
-            totalMass += massTable.get(aa) + deltaMass;
+        for (int i = 0; i < peptide.aaArray.length; ++i) {
+            totalMass += massArray[peptide.aaArray[i]] + peptide.deltaMassArray[i];
         }
 
         return totalMass;
     }
 
+    public double calPeptideMass(CharSequence sequence, int start, int end) { // the same as calResidueMass("n" + sequence[start, end) + "c") + H2O without compiling the peptide.
+        double totalMass = massArray['n'] + massArray['c'] + H2O;
+        for (int i = start; i < end; ++i) {
+            char aa = sequence.charAt(i);
+            totalMass += aa < massArray.length ? massArray[aa] : 0;
+        }
+        return totalMass;
+    }
+
     public double calResidueMass2(String sequence) { // n and c are also AA. Don't consider fixed modification automatically
+        return calResidueMass2(compilePeptide(sequence));
+    }
+
+    public double calResidueMass2(CompiledPeptide peptide) { // n and c are also AA. Don't consider fixed modification automatically
         double totalMass = 0;
-        Matcher matcher = modAAPattern.matcher(sequence);
-        while (matcher.find()) {
-            char aa = matcher.group(1).charAt(0);
-            double deltaMass = 0;
-            if (matcher.group(4) != null) {
-                deltaMass = Double.valueOf(matcher.group(4));
-            }
-            totalMass += massTable.get(aa) - fixModMap.get(aa) + deltaMass;
+        for (int i = 0; i < peptide.aaArray.length; ++i) {
+            char aa = peptide.aaArray[i];
+            totalMass += massArray[aa] - fixModArray[aa] + peptide.deltaMassArray[i];
         }
 
         return totalMass;
     }
 
     public static AA[] seqToAAList(String sequence) { // n and c are also AA.
-        Matcher matcher = modAAPattern.matcher(sequence);
-        List<AA> temp = new LinkedList<>();
-        while (matcher.find()) {
-            char aa = matcher.group(1).charAt(0);
-            double deltaMass = 0;
-            if (matcher.group(4) != null) {
-                deltaMass = Double.valueOf(matcher.group(4));
+        return compilePeptide(sequence).toAAArray();
+    }
+
+    public static CompiledPeptide compilePeptide(String sequence) { // n and c are also AA. It accepts the same grammar as ([A-Znc])(([(\[])?([0-9.\-+]+)([)\]])?)?
+        int length = sequence.length();
+        char[] aaArray = new char[length];
+        double[] deltaMassArray = new double[length];
+        int aaNum = 0;
+        int i = 0;
+        while (i < length) {
+            char aa = sequence.charAt(i++);
+            if ((aa >= 'A' && aa <= 'Z') || aa == 'n' || aa == 'c') {
+                aaArray[aaNum] = aa;
+                int numStart = i;
+                if (numStart < length && (sequence.charAt(numStart) == '(' || sequence.charAt(numStart) == '[')) {
+                    ++numStart;
+                }
+                int numEnd = numStart;
+                while (numEnd < length && isDeltaMassChar(sequence.charAt(numEnd))) {
+                    ++numEnd;
+                }
+                if (numEnd > numStart) {
+                    deltaMassArray[aaNum] = parseDeltaMass(sequence, numStart, numEnd);
+                    i = numEnd;
+                    if (i < length && (sequence.charAt(i) == ')' || sequence.charAt(i) == ']')) {
+                        ++i;
+                    }
+                } // else the bracket (if any) doesn't belong to this AA, which is the same as the regex backtracking.
+                ++aaNum;
             }
-            temp.add(new AA(aa, deltaMass));
         }
-        return temp.toArray(new AA[0]);
+
+        if (aaNum == length) {
+            return new CompiledPeptide(aaArray, deltaMassArray);
+        } else {
+            return new CompiledPeptide(Arrays.copyOf(aaArray, aaNum), Arrays.copyOf(deltaMassArray, aaNum));
+        }
     }
 
     public Set<String> buildPeptideSet(String proteinSequence) {
-        Map<Integer, List<int[]>> digestRangeMap = digest(proteinSequence, digestSitePattern1, cleavageFromCTerm1, missedCleavage);
         Set<String> peptideSeqSet = new HashSet<>();
+        digestProtein(null, proteinSequence, (protein, sequence, start, end) -> peptideSeqSet.add("n" + sequence.substring(start, end) + "c"));
+        return peptideSeqSet;
+    }
 
-        for (int i : digestRangeMap.keySet()) {
-            for (int[] digestRange : digestRangeMap.get(i)) {
-                String subString = proteinSequence.substring(digestRange[0], digestRange[1]);
-                if (digestSitePattern2 == null) {
-                    peptideSeqSet.add("n" + subString + "c");
-                } else {
-                    // it needs to be further digested.
-                    Map<Integer, List<int[]>> digestRangeMap2 = digest(subString, digestSitePattern2, cleavageFromCTerm2, missedCleavage - i);
-                    for (int j : digestRangeMap2.keySet()) {
-                        for (int[] digestRange2 : digestRangeMap2.get(j)) {
-                            peptideSeqSet.add("n" + subString.substring(digestRange2[0], digestRange2[1]) + "c");
-                        }
-                    }
+    public Set<String> buildPeptideSet(String proteinSequence, int minLength, int maxLength, double minMass, double maxMass) { // the peptides of buildPeptideSet() in the bounds. The length doesn't include n and c. The mass includes H2O.
+        Set<String> peptideSeqSet = new HashSet<>();
+        digestProtein(null, proteinSequence, 0, minLength, maxLength, minMass, maxMass, (protein, sequence, start, end) -> peptideSeqSet.add("n" + sequence.substring(start, end) + "c"));
+        return peptideSeqSet;
+    }
+
+    public PackedPeptideSet buildPackedPeptideSet(String proteinSequence) { // the same peptides as buildPeptideSet() without creating a String for each peptide.
+        PackedPeptideSet peptideSet = new PackedPeptideSet();
+        digestProtein(null, proteinSequence, (protein, sequence, start, end) -> peptideSet.add(sequence, start, end));
+        return peptideSet;
+    }
+
+    public void digestProtein(String protein, String proteinSequence, PeptideVisitor visitor) { // streams the peptides of buildPeptideSet() without collecting them. The same peptide may be visited more than once.
+        digestProtein(protein, proteinSequence, 0, visitor);
+    }
+
+    public void digestProtein(String protein, String proteinSequence, int from, PeptideVisitor visitor) { // digests proteinSequence[from, length) as if it was the whole protein. The visited ranges are in the coordinates of proteinSequence.
+        int length = proteinSequence.length();
+        cleavageRule1.digest(proteinSequence, from, length, missedCleavage, (start, end, missedCleavageNum) -> acceptDigestRange(protein, proteinSequence, start, end, missedCleavageNum, visitor));
+
+        // consider first "M" situation
+        if (from < length && proteinSequence.charAt(from) == 'M') {
+            cleavageRule1.digest(proteinSequence, from + 1, length, missedCleavage, (start, end, missedCleavageNum) -> {
+                if (start == from + 1) {
+                    acceptDigestRange(protein, proteinSequence, start, end, missedCleavageNum, visitor);
                 }
-            }
+            });
         }
+    }
+
+    public void digestProtein(String protein, String proteinSequence, int from, int minLength, int maxLength, double minMass, double maxMass, PeptideVisitor visitor) { // only visits peptides whose length (without n and c) and mass (calResidueMass() + H2O) are in [min, max]. A peptide is not extended any more once it is too long or too heavy.
+        int length = proteinSequence.length();
+        BoundedDigestion boundedDigestion = new BoundedDigestion(protein, proteinSequence, minLength, maxLength, minMass, maxMass, visitor);
+        digestRange(proteinSequence, from, length, minLength, boundedDigestion);
 
         // consider first "M" situation
-        if (proteinSequence.startsWith("M")) {
-            String newSequence = proteinSequence.substring(1);
-            digestRangeMap = digest(newSequence, digestSitePattern1, cleavageFromCTerm1, missedCleavage);
-            for (int i : digestRangeMap.keySet()) {
-                int[] digestRange = digestRangeMap.get(i).get(0);
-                String subString = newSequence.substring(digestRange[0], digestRange[1]);
-                if (digestSitePattern2 == null) {
-                    peptideSeqSet.add("n" + subString + "c");
-                } else {
-                    // it needs to be further digested.
-                    Map<Integer, List<int[]>> digestRangeMap2 = digest(subString, digestSitePattern2, cleavageFromCTerm2, missedCleavage - i);
-                    for (int j : digestRangeMap2.keySet()) {
-                        for (int[] digestRange2 : digestRangeMap2.get(j)) {
-                            peptideSeqSet.add("n" + subString.substring(digestRange2[0], digestRange2[1]) + "c");
-                        }
+        if (from < length && proteinSequence.charAt(from) == 'M') {
+            if (cleavageRule2 == null) {
+                cleavageRule1.digestByStart(proteinSequence, from + 1, length, missedCleavage, (start, end, missedCleavageNum) -> start == from + 1 && boundedDigestion.accept(start, end, missedCleavageNum));
+            } else {
+                cleavageRule1.digestByStart(proteinSequence, from + 1, length, missedCleavage, (start, end, missedCleavageNum) -> {
+                    if (start != from + 1) {
+                        return false;
                     }
-                }
+                    if (end - start >= minLength) {
+                        cleavageRule2.digestByStart(proteinSequence, start, end, missedCleavage - missedCleavageNum, boundedDigestion);
+                    }
+                    return true;
+                });
             }
         }
-        return peptideSeqSet;
+    }
+
+    public void digestRange(String protein, String proteinSequence, int from, int to, int minLength, int maxLength, double minMass, double maxMass, PeptideVisitor visitor) { // the same as above for proteinSequence[from, to) without the first "M" situation.
+        digestRange(proteinSequence, from, to, minLength, new BoundedDigestion(protein, proteinSequence, minLength, maxLength, minMass, maxMass, visitor));
+    }
+
+    private void digestRange(String proteinSequence, int from, int to, int minLength, BoundedDigestion boundedDigestion) {
+        if (cleavageRule2 == null) {
+            cleavageRule1.digestByStart(proteinSequence, from, to, missedCleavage, boundedDigestion);
+        } else {
+            cleavageRule1.digest(proteinSequence, from, to, missedCleavage, (start, end, missedCleavageNum) -> {
+                if (end - start >= minLength) { // shorter ranges cannot contain any long enough peptide.
+                    cleavageRule2.digestByStart(proteinSequence, start, end, missedCleavage - missedCleavageNum, boundedDigestion);
+                }
+            });
+        }
     }
 
     public double[][] buildIonArray(String sequence, int maxCharge) { // there are n and c in the sequence
-        AA[] aaArray = seqToAAList(sequence);
+        return buildIonArray(compilePeptide(sequence), maxCharge);
+    }
+
+    public double[][] buildIonArray(CompiledPeptide peptide, int maxCharge) { // there are n and c in the peptide
+        char[] aaArray = peptide.aaArray;
+        double[] deltaMassArray = peptide.deltaMassArray;
 
         double[] inverseChargeArray = new double[maxCharge];
         for (int charge = 1; charge <= maxCharge; ++charge) {
@@ -589,15 +677,15 @@ public class MassTool {
 
         double[][] peptideIonArray = new double[2 * maxCharge][aaArray.length - 2];
         // traverse the sequence to get b-ion
-        double bIonMass = massTable.get(aaArray[0].aa) + aaArray[0].ptmDeltaMass; // add N-term modification
+        double bIonMass = massArray[aaArray[0]] + deltaMassArray[0]; // add N-term modification
         for (int i = 1; i < aaArray.length - 2; ++i) {
-            bIonMass += massTable.get(aaArray[i].aa) + aaArray[i].ptmDeltaMass;
+            bIonMass += massArray[aaArray[i]] + deltaMassArray[i];
             for (int charge = 1; charge <= maxCharge; ++charge) {
                 peptideIonArray[2 * (charge - 1)][i - 1]  = bIonMass * inverseChargeArray[charge - 1] + PROTON;
             }
         }
         // calculate the last b-ion with C-term modification
-        bIonMass +=  massTable.get(aaArray[aaArray.length - 2].aa) + aaArray[aaArray.length - 2].ptmDeltaMass + massTable.get(aaArray[aaArray.length - 1].aa) + aaArray[aaArray.length - 1].ptmDeltaMass;
+        bIonMass +=  massArray[aaArray[aaArray.length - 2]] + deltaMassArray[aaArray.length - 2] + massArray[aaArray[aaArray.length - 1]] + deltaMassArray[aaArray.length - 1];
         for (int charge = 1; charge <= maxCharge; ++charge) {
             peptideIonArray[2 * (charge - 1)][aaArray.length - 3] = bIonMass * inverseChargeArray[charge - 1] + PROTON;
         }
@@ -609,14 +697,14 @@ public class MassTool {
             peptideIonArray[2 * (charge - 1) + 1][0] = yIonMass * inverseChargeArray[charge - 1] + PROTON;
         }
         // delete the first amino acid and N-term modification
-        yIonMass -= massTable.get(aaArray[0].aa) + aaArray[0].ptmDeltaMass + massTable.get(aaArray[1].aa) + aaArray[1].ptmDeltaMass;
+        yIonMass -= massArray[aaArray[0]] + deltaMassArray[0] + massArray[aaArray[1]] + deltaMassArray[1];
         for (int charge = 1; charge <= maxCharge; ++charge) {
             peptideIonArray[2 * (charge - 1) + 1][1] = yIonMass * inverseChargeArray[charge - 1] + PROTON;
         }
 
         // rest of the sequence
         for (int i = 2; i < aaArray.length - 2; ++i) {
-            yIonMass -= massTable.get(aaArray[i].aa) + aaArray[i].ptmDeltaMass;
+            yIonMass -= massArray[aaArray[i]] + deltaMassArray[i];
             for (int charge = 1; charge <= maxCharge; ++charge) {
                 peptideIonArray[2 * (charge - 1) + 1][i] = yIonMass * inverseChargeArray[charge - 1] + PROTON;
             }
@@ -625,7 +713,135 @@ public class MassTool {
         return peptideIonArray;
     }
 
-    public double buildVectorAndCalXCorr(double[][] ionMatrix, int precursorCharge, SparseVector xcorrPL) {
+    public double calXCorr(String sequence, int maxCharge, int precursorCharge, BinVector xcorrPL) { // there are n and c in the sequence
+        return calXCorr(compilePeptide(sequence), maxCharge, precursorCharge, xcorrPL);
+    }
+
+    public double calXCorr(CompiledPeptide peptide, int maxCharge, int precursorCharge, BinVector xcorrPL) { // the same as buildVectorAndCalXCorr(buildIonArray(peptide, maxCharge), precursorCharge, xcorrPL), but without building the ion matrix.
+        int localMaxCharge = precursorCharge == 1 ? 1 : Math.min(maxCharge, precursorCharge - 1);
+        double[] inverseChargeArray = getInverseChargeArray(localMaxCharge);
+        char[] aaArray = peptide.aaArray;
+        double[] deltaMassArray = peptide.deltaMassArray;
+
+        double xcorr = 0;
+
+        // traverse the sequence to get b-ion
+        double bIonMass = massArray[aaArray[0]] + deltaMassArray[0]; // add N-term modification
+        for (int i = 1; i < aaArray.length - 2; ++i) {
+            bIonMass += massArray[aaArray[i]] + deltaMassArray[i];
+            for (int charge = 1; charge <= localMaxCharge; ++charge) {
+                xcorr += xcorrPL.get(mzToBin(bIonMass * inverseChargeArray[charge - 1] + PROTON));
+            }
+        }
+        // calculate the last b-ion with C-term modification
+        bIonMass +=  massArray[aaArray[aaArray.length - 2]] + deltaMassArray[aaArray.length - 2] + massArray[aaArray[aaArray.length - 1]] + deltaMassArray[aaArray.length - 1];
+        for (int charge = 1; charge <= localMaxCharge; ++charge) {
+            xcorr += xcorrPL.get(mzToBin(bIonMass * inverseChargeArray[charge - 1] + PROTON));
+        }
+
+        // traverse the sequence with reversed order to get y-ion
+        // the whole sequence
+        double yIonMass = bIonMass + H2O;
+        for (int charge = 1; charge <= localMaxCharge; ++charge) {
+            xcorr += xcorrPL.get(mzToBin(yIonMass * inverseChargeArray[charge - 1] + PROTON));
+        }
+        // delete the first amino acid and N-term modification
+        if (aaArray.length > 3) {
+            yIonMass -= massArray[aaArray[0]] + deltaMassArray[0] + massArray[aaArray[1]] + deltaMassArray[1];
+            for (int charge = 1; charge <= localMaxCharge; ++charge) {
+                xcorr += xcorrPL.get(mzToBin(yIonMass * inverseChargeArray[charge - 1] + PROTON));
+            }
+        }
+
+        // rest of the sequence
+        for (int i = 2; i < aaArray.length - 2; ++i) {
+            yIonMass -= massArray[aaArray[i]] + deltaMassArray[i];
+            for (int charge = 1; charge <= localMaxCharge; ++charge) {
+                xcorr += xcorrPL.get(mzToBin(yIonMass * inverseChargeArray[charge - 1] + PROTON));
+            }
+        }
+
+        return xcorr * 0.25;
+    }
+
+    public double[] calXCorr(CompiledPeptide peptide, int maxCharge, int[] precursorChargeArray, BinVector[] xcorrPLArray) { // score one peptide against many spectra. The fragment bins are only calculated once.
+        if (precursorChargeArray.length != xcorrPLArray.length) {
+            throw new IllegalArgumentException(String.format(Locale.US, "The precursor charge number (%d) is different from the spectrum number (%d).", precursorChargeArray.length, xcorrPLArray.length));
+        }
+        int ionNum = 2 * (peptide.length() - 2);
+        int[] binArray = calFragmentBins(peptide, maxCharge, batchBuffer.get());
+        double[] xcorrArray = new double[xcorrPLArray.length];
+        for (int k = 0; k < xcorrPLArray.length; ++k) {
+            int localMaxCharge = precursorChargeArray[k] == 1 ? 1 : Math.min(maxCharge, precursorChargeArray[k] - 1);
+            BinVector xcorrPL = xcorrPLArray[k];
+            double xcorr = 0;
+            for (int i = 0; i < localMaxCharge * ionNum; ++i) {
+                xcorr += xcorrPL.get(binArray[i]);
+            }
+            xcorrArray[k] = xcorr * 0.25;
+        }
+        return xcorrArray;
+    }
+
+    private int[] calFragmentBins(CompiledPeptide peptide, int maxCharge, IonArrayBuffer buffer) { // the bins of all b- and y-ions with charge 1, then all with charge 2...
+        buildIonArray(peptide, Math.max(1, maxCharge), buffer);
+        int colNum = buffer.getColNum();
+        double[] ionArray = buffer.getIonArray();
+        int[] binArray = buffer.getBinArray(buffer.getRowNum() * colNum);
+        for (int i = 0; i < buffer.getRowNum() * colNum; ++i) { // the rows of one charge are already adjacent.
+            binArray[i] = mzToBin(ionArray[i]);
+        }
+        return binArray;
+    }
+
+    public IonArrayBuffer buildIonArray(CompiledPeptide peptide, int maxCharge, IonArrayBuffer buffer) { // the same as buildIonArray(peptide, maxCharge), but writes the ions into the reusable buffer.
+        char[] aaArray = peptide.aaArray;
+        double[] deltaMassArray = peptide.deltaMassArray;
+        int colNum = aaArray.length - 2;
+        buffer.reset(2 * maxCharge, colNum);
+        double[] ionArray = buffer.getIonArray();
+        double[] inverseChargeArray = buffer.getInverseChargeArray(maxCharge);
+
+        // traverse the sequence to get b-ion
+        double bIonMass = massArray[aaArray[0]] + deltaMassArray[0]; // add N-term modification
+        for (int i = 1; i < aaArray.length - 2; ++i) {
+            bIonMass += massArray[aaArray[i]] + deltaMassArray[i];
+            for (int charge = 1; charge <= maxCharge; ++charge) {
+                ionArray[2 * (charge - 1) * colNum + i - 1] = bIonMass * inverseChargeArray[charge - 1] + PROTON;
+            }
+        }
+        // calculate the last b-ion with C-term modification
+        bIonMass +=  massArray[aaArray[aaArray.length - 2]] + deltaMassArray[aaArray.length - 2] + massArray[aaArray[aaArray.length - 1]] + deltaMassArray[aaArray.length - 1];
+        for (int charge = 1; charge <= maxCharge; ++charge) {
+            ionArray[2 * (charge - 1) * colNum + colNum - 1] = bIonMass * inverseChargeArray[charge - 1] + PROTON;
+        }
+
+        // traverse the sequence with reversed order to get y-ion
+        // the whole sequence
+        double yIonMass = bIonMass + H2O;
+        for (int charge = 1; charge <= maxCharge; ++charge) {
+            ionArray[(2 * (charge - 1) + 1) * colNum] = yIonMass * inverseChargeArray[charge - 1] + PROTON;
+        }
+        // delete the first amino acid and N-term modification
+        if (colNum > 1) { // otherwise, it would write into the next row.
+            yIonMass -= massArray[aaArray[0]] + deltaMassArray[0] + massArray[aaArray[1]] + deltaMassArray[1];
+            for (int charge = 1; charge <= maxCharge; ++charge) {
+                ionArray[(2 * (charge - 1) + 1) * colNum + 1] = yIonMass * inverseChargeArray[charge - 1] + PROTON;
+            }
+        }
+
+        // rest of the sequence
+        for (int i = 2; i < aaArray.length - 2; ++i) {
+            yIonMass -= massArray[aaArray[i]] + deltaMassArray[i];
+            for (int charge = 1; charge <= maxCharge; ++charge) {
+                ionArray[(2 * (charge - 1) + 1) * colNum + i] = yIonMass * inverseChargeArray[charge - 1] + PROTON;
+            }
+        }
+
+        return buffer;
+    }
+
+    public double buildVectorAndCalXCorr(double[][] ionMatrix, int precursorCharge, BinVector xcorrPL) {
         int colNum = ionMatrix[0].length;
         int rowNum = Math.min(ionMatrix.length / 2, precursorCharge - 1) * 2;
         if (precursorCharge == 1) {
@@ -642,8 +858,24 @@ public class MassTool {
         return xcorr * 0.25;
     }
 
+    public double buildVectorAndCalXCorr(IonArrayBuffer ionBuffer, int precursorCharge, BinVector xcorrPL) {
+        int colNum = ionBuffer.getColNum();
+        int rowNum = Math.min(ionBuffer.getRowNum() / 2, precursorCharge - 1) * 2;
+        if (precursorCharge == 1) {
+            rowNum = 2;
+        }
+
+        double[] ionArray = ionBuffer.getIonArray();
+        double xcorr = 0;
+        for (int i = 0; i < rowNum * colNum; ++i) {
+            xcorr += xcorrPL.get(mzToBin(ionArray[i]));
+        }
+
+        return xcorr * 0.25;
+    }
+
     public Map<Character, Double> getMassTable() {
-        return massTable;
+        return massTableView;
     }
 
     public Map<String, Double> getElementTable() {
@@ -670,6 +902,18 @@ public class MassTool {
         return digestSitePattern2;
     }
 
+    public CleavageRule getCleavageRule1() {
+        return cleavageRule1;
+    }
+
+    public CleavageRule getCleavageRule2() { // null if there is no second enzyme.
+        return cleavageRule2;
+    }
+
+    public int getMissedCleavage() {
+        return missedCleavage;
+    }
+
     public static String aaListToSeq(AA[] aaArray) {
         StringBuilder sb = new StringBuilder();
         for (AA aa : aaArray) {
@@ -697,10 +941,10 @@ public class MassTool {
         char[] tempArray = new char[]{'H', 'I', 'L', 'K', 'M', 'F', 'T', 'W', 'V', 'R', 'C', 'Q', 'G', 'P', 'Y', 'A', 'D', 'N', 'E', 'S'};
         for (AA aa : aaArray) {
             if (Math.abs(aa.ptmDeltaMass) > 0.1) {
-                double temp = massTable.get(aa.aa) + aa.ptmDeltaMass;
+                double temp = massArray[aa.aa] + aa.ptmDeltaMass;
                 boolean ok = false;
                 for (char aa2 : tempArray) {
-                    if (Math.abs(temp - massTable.get(aa2)) <= ms2Tolerance) {
+                    if (Math.abs(temp - massArray[aa2]) <= ms2Tolerance) {
                         sb.append(aa2);
                         ok = true;
                         break;
@@ -716,6 +960,17 @@ public class MassTool {
         return sb.toString();
     }
 
+    private void buildMassArray() {
+        for (char aa : massTable.keySet()) {
+            massArray[aa] = massTable.get(aa);
+        }
+        for (char aa : fixModMap.keySet()) {
+            if (aa < fixModArray.length) {
+                fixModArray[aa] = fixModMap.get(aa);
+            }
+        }
+    }
+
     static Pattern getDigestSitePattern(String cleavageSite, String protectionSite, boolean cleavageFromCTerm) {
         Pattern digestSitePattern;
         if (cleavageFromCTerm) {
@@ -754,8 +1009,19 @@ public class MassTool {
 
     // Cross-linking part
     public Set<String> buildChainSet(String proteinSequence, short linkerType) {
-        Map<Integer, List<int[]>> digestRangeMap = digest(proteinSequence, digestSitePattern1, cleavageFromCTerm1, missedCleavage);
         Set<String> chainSequenceSet = new HashSet<>();
+        digestChain(null, proteinSequence, linkerType, (protein, sequence, start, end) -> chainSequenceSet.add("n" + sequence.substring(start, end) + "c"));
+        return chainSequenceSet;
+    }
+
+    public PackedPeptideSet buildPackedChainSet(String proteinSequence, short linkerType) { // the same chains as buildChainSet() without creating a String for each chain.
+        PackedPeptideSet chainSet = new PackedPeptideSet();
+        digestChain(null, proteinSequence, linkerType, (protein, sequence, start, end) -> chainSet.add(sequence, start, end));
+        return chainSet;
+    }
+
+    public void digestChain(String protein, String proteinSequence, short linkerType, PeptideVisitor visitor) { // streams the chains of buildChainSet() without collecting them. The same chain may be visited more than once.
+        Map<Integer, List<int[]>> digestRangeMap = digest(proteinSequence, cleavageRule1, missedCleavage);
 
         for (int i : digestRangeMap.keySet()) {
             for (int[] digestRange : digestRangeMap.get(i)) {
@@ -764,28 +1030,28 @@ public class MassTool {
                 String tempString = tempMatcher.replaceAll("");
                 if (linkerType == 1 && (digestRange[0] == 0 || tempString.contains("K"))) {
                     if (digestSitePattern2 == null) {
-                        chainSequenceSet.add("n" + subString + "c");
+                        visitor.visit(protein, proteinSequence, digestRange[0], digestRange[1]);
                     } else {
-                        Map<Integer, List<int[]>> digestRangeMap2 = digest(subString, digestSitePattern2, cleavageFromCTerm2, missedCleavage - i);
+                        Map<Integer, List<int[]>> digestRangeMap2 = digest(subString, cleavageRule2, missedCleavage - i);
                         for (int j : digestRangeMap2.keySet()) {
                             for (int[] digestRange2 : digestRangeMap2.get(j)) {
                                 String subString2 = subString.substring(digestRange2[0], digestRange2[1]);
                                 if ((digestRange[0] == 0 && digestRange2[0] == 0) || digestSitePatternForLinkSiteChecking2.matcher(digestSitePatternForLinkSiteChecking1.matcher(subString2).replaceAll("")).replaceAll("").contains("K")) {
-                                    chainSequenceSet.add("n" + subString2 + "c");
+                                    visitor.visit(protein, proteinSequence, digestRange[0] + digestRange2[0], digestRange[0] + digestRange2[1]);
                                 }
                             }
                         }
                     }
                 } else if (linkerType == 2 && tempString.contains("C")) {
                     if (digestSitePattern2 == null) {
-                        chainSequenceSet.add("n" + subString + "c");
+                        visitor.visit(protein, proteinSequence, digestRange[0], digestRange[1]);
                     } else {
-                        Map<Integer, List<int[]>> digestRangeMap2 = digest(subString, digestSitePattern2, cleavageFromCTerm2, missedCleavage - i);
+                        Map<Integer, List<int[]>> digestRangeMap2 = digest(subString, cleavageRule2, missedCleavage - i);
                         for (int j : digestRangeMap2.keySet()) {
                             for (int[] digestRange2 : digestRangeMap2.get(j)) {
                                 String subString2 = subString.substring(digestRange2[0], digestRange2[1]);
                                 if (digestSitePatternForLinkSiteChecking2.matcher(digestSitePatternForLinkSiteChecking1.matcher(subString2).replaceAll("")).replaceAll("").contains("C")) {
-                                    chainSequenceSet.add("n" + subString2 + "c");
+                                    visitor.visit(protein, proteinSequence, digestRange[0] + digestRange2[0], digestRange[0] + digestRange2[1]);
                                 }
                             }
                         }
@@ -796,28 +1062,28 @@ public class MassTool {
                     // This is the end of the protein. No digestion site, so the link-sites in any position including C-term can be linked.
                     if (linkerType == 1 && subString.contains("K")) {
                         if (digestSitePattern2 == null) {
-                            chainSequenceSet.add("n" + subString + "c");
+                            visitor.visit(protein, proteinSequence, digestRange[0], digestRange[1]);
                         } else {
-                            Map<Integer, List<int[]>> digestRangeMap2 = digest(subString, digestSitePattern2, cleavageFromCTerm2, missedCleavage - i);
+                            Map<Integer, List<int[]>> digestRangeMap2 = digest(subString, cleavageRule2, missedCleavage - i);
                             for (int j : digestRangeMap2.keySet()) {
                                 for (int[] digestRange2 : digestRangeMap2.get(j)) {
                                     String subString2 = subString.substring(digestRange2[0], digestRange2[1]);
                                     if ((digestRange2[1] == subString.length() && subString2.contains("K")) || digestSitePatternForLinkSiteChecking2.matcher(digestSitePatternForLinkSiteChecking1.matcher(subString2).replaceAll("")).replaceAll("").contains("K")) {
-                                        chainSequenceSet.add("n" + subString2 + "c");
+                                        visitor.visit(protein, proteinSequence, digestRange[0] + digestRange2[0], digestRange[0] + digestRange2[1]);
                                     }
                                 }
                             }
                         }
                     } else if (linkerType == 2 && subString.contains("C")) {
                         if (digestSitePattern2 == null) {
-                            chainSequenceSet.add("n" + subString + "c");
+                            visitor.visit(protein, proteinSequence, digestRange[0], digestRange[1]);
                         } else {
-                            Map<Integer, List<int[]>> digestRangeMap2 = digest(subString, digestSitePattern2, cleavageFromCTerm2, missedCleavage - i);
+                            Map<Integer, List<int[]>> digestRangeMap2 = digest(subString, cleavageRule2, missedCleavage - i);
                             for (int j : digestRangeMap2.keySet()) {
                                 for (int[] digestRange2 : digestRangeMap2.get(j)) {
                                     String subString2 = subString.substring(digestRange2[0], digestRange2[1]);
                                     if ((digestRange2[1] == subString.length() && subString2.contains("C")) || digestSitePatternForLinkSiteChecking2.matcher(digestSitePatternForLinkSiteChecking1.matcher(subString2).replaceAll("")).replaceAll("").contains("C")) {
-                                        chainSequenceSet.add("n" + subString2 + "c");
+                                        visitor.visit(protein, proteinSequence, digestRange[0] + digestRange2[0], digestRange[0] + digestRange2[1]);
                                     }
                                 }
                             }
@@ -829,7 +1095,7 @@ public class MassTool {
 
         if (proteinSequence.startsWith("M")) {
             String newSequence = proteinSequence.substring(1);
-            digestRangeMap = digest(newSequence, digestSitePattern1, cleavageFromCTerm1, missedCleavage);
+            digestRangeMap = digest(newSequence, cleavageRule1, missedCleavage);
 
             for (int i : digestRangeMap.keySet()) {
                 int[] digestRange = digestRangeMap.get(i).get(0);
@@ -838,28 +1104,28 @@ public class MassTool {
                 String tempString = tempMatcher.replaceAll("");
                 if (linkerType == 1 && (digestRange[0] == 0 || tempString.contains("K"))) {
                     if (digestSitePattern2 == null) {
-                        chainSequenceSet.add("n" + subString + "c");
+                        visitor.visit(protein, proteinSequence, 1 + digestRange[0], 1 + digestRange[1]);
                     } else {
-                        Map<Integer, List<int[]>> digestRangeMap2 = digest(subString, digestSitePattern2, cleavageFromCTerm2, missedCleavage - i);
+                        Map<Integer, List<int[]>> digestRangeMap2 = digest(subString, cleavageRule2, missedCleavage - i);
                         for (int j : digestRangeMap2.keySet()) {
                             for (int[] digestRange2 : digestRangeMap2.get(j)) {
                                 String subString2 = subString.substring(digestRange2[0], digestRange2[1]);
                                 if ((digestRange[0] == 0 && digestRange2[0] == 0) || digestSitePatternForLinkSiteChecking2.matcher(digestSitePatternForLinkSiteChecking1.matcher(subString2).replaceAll("")).replaceAll("").contains("K")) {
-                                    chainSequenceSet.add("n" + subString2 + "c");
+                                    visitor.visit(protein, proteinSequence, 1 + digestRange[0] + digestRange2[0], 1 + digestRange[0] + digestRange2[1]);
                                 }
                             }
                         }
                     }
                 } else if (linkerType == 2 && tempString.contains("C")) {
                     if (digestSitePattern2 == null) {
-                        chainSequenceSet.add("n" + subString + "c");
+                        visitor.visit(protein, proteinSequence, 1 + digestRange[0], 1 + digestRange[1]);
                     } else {
-                        Map<Integer, List<int[]>> digestRangeMap2 = digest(subString, digestSitePattern2, cleavageFromCTerm2, missedCleavage - i);
+                        Map<Integer, List<int[]>> digestRangeMap2 = digest(subString, cleavageRule2, missedCleavage - i);
                         for (int j : digestRangeMap2.keySet()) {
                             for (int[] digestRange2 : digestRangeMap2.get(j)) {
                                 String subString2 = subString.substring(digestRange2[0], digestRange2[1]);
                                 if (digestSitePatternForLinkSiteChecking2.matcher(digestSitePatternForLinkSiteChecking1.matcher(subString2).replaceAll("")).replaceAll("").contains("C")) {
-                                    chainSequenceSet.add("n" + subString2 + "c");
+                                    visitor.visit(protein, proteinSequence, 1 + digestRange[0] + digestRange2[0], 1 + digestRange[0] + digestRange2[1]);
                                 }
                             }
                         }
@@ -870,28 +1136,28 @@ public class MassTool {
                     // This is the end of the protein. No digestion site, so the link-sites in any position including C-term can be linked.
                     if (linkerType == 1 && subString.contains("K")) {
                         if (digestSitePattern2 == null) {
-                            chainSequenceSet.add("n" + subString + "c");
+                            visitor.visit(protein, proteinSequence, 1 + digestRange[0], 1 + digestRange[1]);
                         } else {
-                            Map<Integer, List<int[]>> digestRangeMap2 = digest(subString, digestSitePattern2, cleavageFromCTerm2, missedCleavage - i);
+                            Map<Integer, List<int[]>> digestRangeMap2 = digest(subString, cleavageRule2, missedCleavage - i);
                             for (int j : digestRangeMap2.keySet()) {
                                 for (int[] digestRange2 : digestRangeMap2.get(j)) {
                                     String subString2 = subString.substring(digestRange2[0], digestRange2[1]);
                                     if ((digestRange2[1] == subString.length() && subString2.contains("K")) || digestSitePatternForLinkSiteChecking2.matcher(digestSitePatternForLinkSiteChecking1.matcher(subString2).replaceAll("")).replaceAll("").contains("K")) {
-                                        chainSequenceSet.add("n" + subString2 + "c");
+                                        visitor.visit(protein, proteinSequence, 1 + digestRange[0] + digestRange2[0], 1 + digestRange[0] + digestRange2[1]);
                                     }
                                 }
                             }
                         }
                     } else if (linkerType == 2 && subString.contains("C")) {
                         if (digestSitePattern2 == null) {
-                            chainSequenceSet.add("n" + subString + "c");
+                            visitor.visit(protein, proteinSequence, 1 + digestRange[0], 1 + digestRange[1]);
                         } else {
-                            Map<Integer, List<int[]>> digestRangeMap2 = digest(subString, digestSitePattern2, cleavageFromCTerm2, missedCleavage - i);
+                            Map<Integer, List<int[]>> digestRangeMap2 = digest(subString, cleavageRule2, missedCleavage - i);
                             for (int j : digestRangeMap2.keySet()) {
                                 for (int[] digestRange2 : digestRangeMap2.get(j)) {
                                     String subString2 = subString.substring(digestRange2[0], digestRange2[1]);
                                     if ((digestRange2[0] == subString.length() && subString2.contains("C")) || digestSitePatternForLinkSiteChecking2.matcher(digestSitePatternForLinkSiteChecking1.matcher(subString2).replaceAll("")).replaceAll("").contains("C")) {
-                                        chainSequenceSet.add("n" + subString2 + "c");
+                                        visitor.visit(protein, proteinSequence, 1 + digestRange[0] + digestRange2[0], 1 + digestRange[0] + digestRange2[1]);
                                     }
                                 }
                             }
@@ -900,10 +1166,13 @@ public class MassTool {
                 }
             }
         }
-        return chainSequenceSet;
     }
 
-    public double generateTheoFragmentAndCalXCorr(String sequence, short linkSite, double additionalMass, int precursorCharge, SparseVector xcorrPL) { // there are n and c in the sequence
+    public double generateTheoFragmentAndCalXCorr(String sequence, short linkSite, double additionalMass, int precursorCharge, BinVector xcorrPL) { // there are n and c in the sequence
+        return generateTheoFragmentAndCalXCorr(compilePeptide(sequence), linkSite, additionalMass, precursorCharge, xcorrPL);
+    }
+
+    public double generateTheoFragmentAndCalXCorr(CompiledPeptide peptide, short linkSite, double additionalMass, int precursorCharge, BinVector xcorrPL) { // there are n and c in the peptide
         linkSite = (short) Math.max(1, linkSite);
 
         int localMaxCharge = Math.min(6, Math.max(precursorCharge - 1, 1));
@@ -912,14 +1181,15 @@ public class MassTool {
             inverseChargeArray[charge - 1] = (double) 1 / (double) charge;
         }
 
-        AA[] aaArray = seqToAAList(sequence);
+        char[] aaArray = peptide.aaArray;
+        double[] deltaMassArray = peptide.deltaMassArray;
 
         double xcorr = 0;
 
         // traverse the sequence to get b-ion
-        double bIonMass = massTable.get(aaArray[0].aa) + aaArray[0].ptmDeltaMass; // add N-term modification
+        double bIonMass = massArray[aaArray[0]] + deltaMassArray[0]; // add N-term modification
         for (int i = 1; i < aaArray.length - 2; ++i) {
-            bIonMass += massTable.get(aaArray[i].aa) + aaArray[i].ptmDeltaMass;
+            bIonMass += massArray[aaArray[i]] + deltaMassArray[i];
             if (i < linkSite) {
                 for (double inverseCharge : inverseChargeArray) {
                     xcorr += xcorrPL.get(mzToBin(bIonMass * inverseCharge + PROTON));
@@ -931,7 +1201,7 @@ public class MassTool {
             }
         }
         // calculate the last b-ion with C-term modification
-        bIonMass +=  massTable.get(aaArray[aaArray.length - 2].aa) + aaArray[aaArray.length - 2].ptmDeltaMass + massTable.get(aaArray[aaArray.length - 1].aa) + aaArray[aaArray.length - 1].ptmDeltaMass;
+        bIonMass +=  massArray[aaArray[aaArray.length - 2]] + deltaMassArray[aaArray.length - 2] + massArray[aaArray[aaArray.length - 1]] + deltaMassArray[aaArray.length - 1];
         for (double inverseCharge : inverseChargeArray) {
             xcorr += xcorrPL.get(mzToBin((bIonMass + additionalMass) * inverseCharge + PROTON)); // for the fragment containing all amino acids, the additional mass is always included.
         }
@@ -943,7 +1213,7 @@ public class MassTool {
             xcorr += xcorrPL.get(mzToBin((yIonMass + additionalMass) * inverseCharge + PROTON)); // for the fragment containing all amino acids, the additional mass is always included.
         }
         // delete the first amino acid and N-term modification
-        yIonMass -= massTable.get(aaArray[0].aa) + aaArray[0].ptmDeltaMass + massTable.get(aaArray[1].aa) + aaArray[1].ptmDeltaMass;
+        yIonMass -= massArray[aaArray[0]] + deltaMassArray[0] + massArray[aaArray[1]] + deltaMassArray[1];
         if (1 >= linkSite) {
             for (double inverseCharge : inverseChargeArray) {
                 xcorr += xcorrPL.get(mzToBin(yIonMass * inverseCharge + PROTON));
@@ -955,7 +1225,7 @@ public class MassTool {
         }
         // rest of the sequence
         for (int i = 2; i < aaArray.length - 2; ++i) {
-            yIonMass -= massTable.get(aaArray[i].aa) + aaArray[i].ptmDeltaMass;
+            yIonMass -= massArray[aaArray[i]] + deltaMassArray[i];
             if (i >= linkSite) { // caution: here, it is different from b-ion
                 for (double inverseCharge : inverseChargeArray) {
                     xcorr += xcorrPL.get(mzToBin(yIonMass * inverseCharge + PROTON));
@@ -969,50 +1239,141 @@ public class MassTool {
 
         return xcorr * 0.005;
     }
-    // End of cross-linking part
 
-    static private Map<Integer, List<int[]>> digest(String proteinSequence, Pattern digestSitePattern, boolean cleavageFromCTerm, int missedCleavage) {
-        // Cut a protein
-        TreeSet<Integer> cutPointSet = new TreeSet<>();
-        int length = proteinSequence.length();
-        int idxStart = 0;
-        Matcher matchObj = digestSitePattern.matcher(proteinSequence);
-        cutPointSet.add(0);
-        while (idxStart < length) {
-            if (matchObj.find()) {
-                int cutPoint;
-                if (cleavageFromCTerm) {
-                    cutPoint = matchObj.end();
-                } else {
-                    cutPoint = matchObj.start();
-                }
-                cutPointSet.add(cutPoint);
-                idxStart = cutPoint;
-            } else {
-                cutPointSet.add(length);
-                break;
+    public double[] generateTheoFragmentAndCalXCorrForAllLinkSites(String sequence, double additionalMass, int precursorCharge, BinVector xcorrPL) { // there are n and c in the sequence
+        return generateTheoFragmentAndCalXCorrForAllLinkSites(compilePeptide(sequence), additionalMass, precursorCharge, xcorrPL);
+    }
+
+    public double[] generateTheoFragmentAndCalXCorrForAllLinkSites(CompiledPeptide peptide, double additionalMass, int precursorCharge, BinVector xcorrPL) { // the element i equals generateTheoFragmentAndCalXCorr(peptide, i, additionalMass, precursorCharge, xcorrPL).
+        int localMaxCharge = Math.min(6, Math.max(precursorCharge - 1, 1));
+        double[] inverseChargeArray = getInverseChargeArray(localMaxCharge);
+        char[] aaArray = peptide.aaArray;
+        double[] deltaMassArray = peptide.deltaMassArray;
+
+        // output[i + 1] temporarily holds the score change when moving the link site from i to i + 1.
+        double[] output = new double[aaArray.length];
+        double linkSite1Score = 0;
+
+        // traverse the sequence to get b-ion. The b-ion i is shifted if i >= linkSite.
+        double bIonMass = massArray[aaArray[0]] + deltaMassArray[0]; // add N-term modification
+        for (int i = 1; i < aaArray.length - 2; ++i) {
+            bIonMass += massArray[aaArray[i]] + deltaMassArray[i];
+            for (int charge = 1; charge <= localMaxCharge; ++charge) {
+                double unshifted = xcorrPL.get(mzToBin(bIonMass * inverseChargeArray[charge - 1] + PROTON));
+                double shifted = xcorrPL.get(mzToBin((bIonMass + additionalMass) * inverseChargeArray[charge - 1] + PROTON));
+                linkSite1Score += shifted;
+                output[i + 1] += unshifted - shifted;
+            }
+        }
+        // calculate the last b-ion with C-term modification
+        bIonMass +=  massArray[aaArray[aaArray.length - 2]] + deltaMassArray[aaArray.length - 2] + massArray[aaArray[aaArray.length - 1]] + deltaMassArray[aaArray.length - 1];
+        for (int charge = 1; charge <= localMaxCharge; ++charge) {
+            linkSite1Score += xcorrPL.get(mzToBin((bIonMass + additionalMass) * inverseChargeArray[charge - 1] + PROTON)); // for the fragment containing all amino acids, the additional mass is always included.
+        }
+
+        // traverse the sequence with reversed order to get y-ion. The y-ion i is unshifted if i >= linkSite.
+        // the whole sequence
+        double yIonMass = bIonMass + H2O;
+        for (int charge = 1; charge <= localMaxCharge; ++charge) {
+            linkSite1Score += xcorrPL.get(mzToBin((yIonMass + additionalMass) * inverseChargeArray[charge - 1] + PROTON)); // for the fragment containing all amino acids, the additional mass is always included.
+        }
+        // delete the first amino acid and N-term modification
+        yIonMass -= massArray[aaArray[0]] + deltaMassArray[0] + massArray[aaArray[1]] + deltaMassArray[1];
+        for (int charge = 1; charge <= localMaxCharge; ++charge) {
+            double unshifted = xcorrPL.get(mzToBin(yIonMass * inverseChargeArray[charge - 1] + PROTON));
+            double shifted = xcorrPL.get(mzToBin((yIonMass + additionalMass) * inverseChargeArray[charge - 1] + PROTON));
+            linkSite1Score += unshifted;
+            output[2] += shifted - unshifted;
+        }
+        // rest of the sequence
+        for (int i = 2; i < aaArray.length - 2; ++i) {
+            yIonMass -= massArray[aaArray[i]] + deltaMassArray[i];
+            for (int charge = 1; charge <= localMaxCharge; ++charge) {
+                double unshifted = xcorrPL.get(mzToBin(yIonMass * inverseChargeArray[charge - 1] + PROTON));
+                double shifted = xcorrPL.get(mzToBin((yIonMass + additionalMass) * inverseChargeArray[charge - 1] + PROTON));
+                linkSite1Score += unshifted;
+                output[i + 1] += shifted - unshifted;
             }
         }
 
-        Integer[] cutPointArray = cutPointSet.toArray(new Integer[0]);
+        // accumulate the changes. The link site 0 is treated as 1.
+        output[1] = linkSite1Score;
+        for (int i = 2; i < output.length; ++i) {
+            output[i] += output[i - 1];
+        }
+        output[0] = output[1];
+        for (int i = 0; i < output.length; ++i) {
+            output[i] *= 0.005;
+        }
+        return output;
+    }
+
+    // End of cross-linking part
+
+    private void acceptDigestRange(String protein, String proteinSequence, int start, int end, int missedCleavageNum, PeptideVisitor visitor) {
+        if (cleavageRule2 == null) {
+            visitor.visit(protein, proteinSequence, start, end);
+        } else {
+            // it needs to be further digested.
+            cleavageRule2.digest(proteinSequence, start, end, missedCleavage - missedCleavageNum, (start2, end2, missedCleavageNum2) -> visitor.visit(protein, proteinSequence, start2, end2));
+        }
+    }
 
-        // Deal with missed cleavage
+    static private Map<Integer, List<int[]>> digest(String proteinSequence, CleavageRule cleavageRule, int missedCleavage) {
         Map<Integer, List<int[]>> digestRangeMap = new HashMap<>();
-        for (int time = 0; time <= missedCleavage; ++time) {
-            List<int[]> temp = new LinkedList<>();
-            int leftPoint;
-            int rightPoint;
-            for (int i = 0; i + 1 + time < cutPointSet.size(); ++i) {
-                leftPoint = cutPointArray[i];
-                rightPoint = cutPointArray[i + 1 + time];
-                temp.add(new int[]{leftPoint, rightPoint});
-            }
-            if (!temp.isEmpty()) {
-                digestRangeMap.put(time, temp);
+        cleavageRule.digest(proteinSequence, 0, proteinSequence.length(), missedCleavage, (start, end, missedCleavageNum) -> digestRangeMap.computeIfAbsent(missedCleavageNum, k -> new ArrayList<>()).add(new int[]{start, end}));
+        return digestRangeMap;
+    }
+
+    private static double[] getInverseChargeArray(int maxCharge) { // the returned array may be longer than maxCharge. Don't modify it.
+        if (maxCharge <= defaultInverseChargeArray.length) {
+            return defaultInverseChargeArray;
+        } else {
+            double[] inverseChargeArray = new double[maxCharge];
+            for (int charge = 1; charge <= maxCharge; ++charge) {
+                inverseChargeArray[charge - 1] = (double) 1 / (double) charge;
             }
+            return inverseChargeArray;
         }
+    }
 
-        return digestRangeMap;
+    private static boolean isDeltaMassChar(char c) {
+        return (c >= '0' && c <= '9') || c == '.' || c == '-' || c == '+';
+    }
+
+    private static double parseDeltaMass(String sequence, int start, int end) {
+        // fast path for plain decimals. A mantissa below 2^53 divided by an exact power of ten is correctly rounded, so it equals Double.valueOf.
+        int i = start;
+        boolean negative = false;
+        if (sequence.charAt(i) == '-' || sequence.charAt(i) == '+') {
+            negative = sequence.charAt(i) == '-';
+            ++i;
+        }
+        long mantissa = 0;
+        int digitNum = 0;
+        int fractionDigitNum = 0;
+        boolean dot = false;
+        for (; i < end; ++i) {
+            char c = sequence.charAt(i);
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                ++digitNum;
+                if (dot) {
+                    ++fractionDigitNum;
+                }
+            } else if (c == '.' && !dot) {
+                dot = true;
+            } else {
+                digitNum = -1; // malformed or unusual
+                break;
+            }
+        }
+        if (digitNum > 0 && digitNum <= 15 && fractionDigitNum < pow10Array.length) {
+            double value = mantissa / pow10Array[fractionDigitNum];
+            return negative ? -value : value;
+        } else {
+            return Double.valueOf(sequence.substring(start, end)); // keep the exact behavior (including exceptions) of the old regex based parser
+        }
     }
 
     private static String deleteLeftRightFlankingAddNC(String peptide) {
@@ -1026,4 +1387,58 @@ public class MassTool {
         }
         return peptide;
     }
+
+    public interface PeptideVisitor {
+        void visit(String protein, String proteinSequence, int start, int end); // the peptide is proteinSequence[start, end) without n and c.
+    }
+
+    private final class BoundedDigestion implements CleavageRule.ExtensionConsumer { // keeps a running mass along the extensions of the same start.
+
+        private final String protein;
+        private final String proteinSequence;
+        private final int minLength;
+        private final int maxLength;
+        private final double minMass;
+        private final double maxMass;
+        private final PeptideVisitor visitor;
+        private final double terminalMass;
+        private int currentStart = -1;
+        private int currentEnd = -1;
+        private double currentMass = 0;
+
+        private BoundedDigestion(String protein, String proteinSequence, int minLength, int maxLength, double minMass, double maxMass, PeptideVisitor visitor) {
+            this.protein = protein;
+            this.proteinSequence = proteinSequence;
+            this.minLength = minLength;
+            this.maxLength = maxLength;
+            this.minMass = minMass;
+            this.maxMass = maxMass;
+            this.visitor = visitor;
+            terminalMass = massArray['n'] + massArray['c'] + H2O;
+        }
+
+        @Override
+        public boolean accept(int start, int end, int missedCleavageNum) {
+            if (end - start > maxLength) {
+                return false;
+            }
+            if (start != currentStart || end < currentEnd) { // a new start, or the same start in another range of the first enzyme
+                currentStart = start;
+                currentEnd = start;
+                currentMass = terminalMass;
+            }
+            for (int i = currentEnd; i < end; ++i) {
+                char aa = proteinSequence.charAt(i);
+                currentMass += aa < massArray.length ? massArray[aa] : 0;
+            }
+            currentEnd = end;
+            if (currentMass > maxMass) {
+                return false;
+            }
+            if (end - start >= minLength && currentMass >= minMass) {
+                visitor.visit(protein, proteinSequence, start, end);
+            }
+            return true;
+        }
+    }
 }
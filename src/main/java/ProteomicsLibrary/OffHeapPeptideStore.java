@@ -0,0 +1,351 @@
+/*
+ * Copyright 2018-2019 The Hong Kong University of Science and Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ProteomicsLibrary;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.function.IntConsumer;
+
+public class OffHeapPeptideStore { // peptides (without n and c) with their masses and proteins in direct ByteBuffers, so that a database with 10^8 peptides neither holds 10^8 Strings nor burdens the GC. A peptide is referred to by an int handle in the adding order. Only the protein names are on the heap. Strings are created only by getPeptide() and the other String-returning methods. It is not thread-safe for add(), and can be read from multiple threads once built.
+
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 26; // 64 MB
+
+    // a record is {sequence address (long), mass (double), length (int), hash (int), head reference (int), reference num (int)}. A reference is {protein idx (int), next reference (int)}, newest first.
+    private static final int RECORD_SIZE = 32;
+    private static final int REFERENCE_SIZE = 8;
+    private static final int SEQUENCE_ADDRESS = 0;
+    private static final int MASS = 8;
+    private static final int LENGTH = 16;
+    private static final int HASH = 20;
+    private static final int HEAD_REFERENCE = 24;
+    private static final int REFERENCE_NUM = 28;
+    private static final int NO_REFERENCE = -1;
+    private static final double MAX_LOAD_FACTOR = 0.5;
+
+    private final Segments recordSegments;
+    private final Segments sequenceSegments; // ASCII bytes of all peptides back to back
+    private final Segments referenceSegments;
+    private final Segments tableSegments; // an open addressing table of handle + 1. 0 means empty.
+    private final List<String> proteinList = new ArrayList<>();
+    private final Map<String, Integer> proteinIdxMap = new HashMap<>();
+    private int peptideNum = 0;
+    private long sequenceByteNum = 0;
+    private int referenceNum = 0;
+    private int tableCapacity = 16;
+
+    public OffHeapPeptideStore() {
+        this(DEFAULT_SEGMENT_SIZE);
+    }
+
+    public OffHeapPeptideStore(int segmentSize) { // segmentSize must be a power of 2 and at least RECORD_SIZE. Each kind of data grows by one segment at a time.
+        if (segmentSize < RECORD_SIZE || Integer.bitCount(segmentSize) != 1) {
+            throw new IllegalArgumentException(String.format(Locale.US, "The segment size %d is not a power of 2 no less than %d.", segmentSize, RECORD_SIZE));
+        }
+        recordSegments = new Segments(segmentSize);
+        sequenceSegments = new Segments(segmentSize);
+        referenceSegments = new Segments(segmentSize);
+        tableSegments = new Segments(segmentSize);
+        tableSegments.ensureCapacity((long) tableCapacity * 4);
+    }
+
+    public int add(CharSequence sequence, int start, int end, double mass, String protein) { // adds sequence[start, end) to the protein and returns its handle. The mass is only kept for a new peptide. A protein is kept once per peptide as long as the peptides of one protein are added together, which is the case for BuildIndex.digestProtein().
+        int hash = calHash(sequence, start, end);
+        int handle = find(sequence, start, end, hash);
+        if (handle < 0) {
+            if ((long) (peptideNum + 1) > tableCapacity * MAX_LOAD_FACTOR) {
+                rehash(tableCapacity << 1);
+            }
+            handle = peptideNum;
+            long address = (long) handle * RECORD_SIZE;
+            recordSegments.ensureCapacity(address + RECORD_SIZE);
+            sequenceSegments.ensureCapacity(sequenceByteNum + (end - start));
+            recordSegments.putLong(address + SEQUENCE_ADDRESS, sequenceByteNum);
+            recordSegments.putDouble(address + MASS, mass);
+            recordSegments.putInt(address + LENGTH, end - start);
+            recordSegments.putInt(address + HASH, hash);
+            recordSegments.putInt(address + HEAD_REFERENCE, NO_REFERENCE);
+            recordSegments.putInt(address + REFERENCE_NUM, 0);
+            for (int i = start; i < end; ++i) {
+                sequenceSegments.put(sequenceByteNum++, (byte) sequence.charAt(i));
+            }
+            insert(handle, hash);
+            ++peptideNum;
+        }
+
+        Integer proteinIdx = proteinIdxMap.get(protein);
+        if (proteinIdx == null) {
+            proteinIdx = proteinList.size();
+            proteinIdxMap.put(protein, proteinIdx);
+            proteinList.add(protein);
+        }
+        long address = (long) handle * RECORD_SIZE;
+        int headReference = recordSegments.getInt(address + HEAD_REFERENCE);
+        if (headReference == NO_REFERENCE || referenceSegments.getInt((long) headReference * REFERENCE_SIZE) != proteinIdx) {
+            long referenceAddress = (long) referenceNum * REFERENCE_SIZE;
+            referenceSegments.ensureCapacity(referenceAddress + REFERENCE_SIZE);
+            referenceSegments.putInt(referenceAddress, proteinIdx);
+            referenceSegments.putInt(referenceAddress + 4, headReference);
+            recordSegments.putInt(address + HEAD_REFERENCE, referenceNum);
+            recordSegments.putInt(address + REFERENCE_NUM, recordSegments.getInt(address + REFERENCE_NUM) + 1);
+            ++referenceNum;
+        }
+        return handle;
+    }
+
+    public int getHandle(CharSequence sequence, int start, int end) { // -1 if sequence[start, end) is not in the store.
+        return find(sequence, start, end, calHash(sequence, start, end));
+    }
+
+    public int getHandle(String peptide) { // the leading n and the trailing c are optional.
+        int start = peptide.startsWith("n") ? 1 : 0;
+        int end = peptide.length() > 1 && peptide.endsWith("c") ? peptide.length() - 1 : peptide.length();
+        return getHandle(peptide, start, end);
+    }
+
+    public int size() {
+        return peptideNum;
+    }
+
+    public int getLength(int handle) {
+        return recordSegments.getInt((long) handle * RECORD_SIZE + LENGTH);
+    }
+
+    public char charAt(int handle, int idx) {
+        return (char) sequenceSegments.get(recordSegments.getLong((long) handle * RECORD_SIZE + SEQUENCE_ADDRESS) + idx);
+    }
+
+    public CharSequence getSequence(int handle) { // a view reading the off-heap bytes, e.g. for MassTool.calPeptideMass() or PeptideHashSet.contains().
+        return new SequenceView(recordSegments.getLong((long) handle * RECORD_SIZE + SEQUENCE_ADDRESS), getLength(handle));
+    }
+
+    public String getPeptide(int handle) { // in the same format as BuildIndex.getTargetPeptideProteinMap(), i.e. with n and c.
+        int length = getLength(handle);
+        long sequenceAddress = recordSegments.getLong((long) handle * RECORD_SIZE + SEQUENCE_ADDRESS);
+        char[] array = new char[length + 2];
+        array[0] = 'n';
+        for (int i = 0; i < length; ++i) {
+            array[i + 1] = (char) sequenceSegments.get(sequenceAddress + i);
+        }
+        array[length + 1] = 'c';
+        return String.valueOf(array);
+    }
+
+    public double getMass(int handle) {
+        return recordSegments.getDouble((long) handle * RECORD_SIZE + MASS);
+    }
+
+    public int getProteinNum(int handle) {
+        return recordSegments.getInt((long) handle * RECORD_SIZE + REFERENCE_NUM);
+    }
+
+    public void forEachProteinIdx(int handle, IntConsumer consumer) { // the newest protein first.
+        for (int reference = recordSegments.getInt((long) handle * RECORD_SIZE + HEAD_REFERENCE); reference != NO_REFERENCE; reference = referenceSegments.getInt((long) reference * REFERENCE_SIZE + 4)) {
+            consumer.accept(referenceSegments.getInt((long) reference * REFERENCE_SIZE));
+        }
+    }
+
+    public List<String> getProteinList(int handle) {
+        List<String> output = new ArrayList<>(getProteinNum(handle));
+        forEachProteinIdx(handle, proteinIdx -> output.add(proteinList.get(proteinIdx)));
+        return output;
+    }
+
+    public int getProteinNum() {
+        return proteinList.size();
+    }
+
+    public String getProteinName(int proteinIdx) {
+        return proteinList.get(proteinIdx);
+    }
+
+    public boolean contentEquals(int handle, CharSequence sequence, int start, int end) {
+        long address = (long) handle * RECORD_SIZE;
+        if (recordSegments.getInt(address + LENGTH) != end - start) {
+            return false;
+        }
+        long sequenceAddress = recordSegments.getLong(address + SEQUENCE_ADDRESS);
+        for (int i = start; i < end; ++i) {
+            if (sequenceSegments.get(sequenceAddress + i - start) != (byte) sequence.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Multimap<String, String> toPeptideProteinMap() { // the same format as BuildIndex.getTargetPeptideProteinMap(). It creates all Strings.
+        Multimap<String, String> peptideProteinMap = HashMultimap.create(peptideNum, 2);
+        for (int handle = 0; handle < peptideNum; ++handle) {
+            String peptide = getPeptide(handle);
+            forEachProteinIdx(handle, proteinIdx -> peptideProteinMap.put(peptide, proteinList.get(proteinIdx)));
+        }
+        return peptideProteinMap;
+    }
+
+    public long getOffHeapByteNum() { // the allocated direct memory.
+        return recordSegments.getCapacity() + sequenceSegments.getCapacity() + referenceSegments.getCapacity() + tableSegments.getCapacity();
+    }
+
+    private int find(CharSequence sequence, int start, int end, int hash) {
+        int mask = tableCapacity - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int handle = tableSegments.getInt((long) slot * 4) - 1;
+            if (handle < 0) {
+                return -1;
+            }
+            if (recordSegments.getInt((long) handle * RECORD_SIZE + HASH) == hash && contentEquals(handle, sequence, start, end)) {
+                return handle;
+            }
+        }
+    }
+
+    private void insert(int handle, int hash) {
+        int mask = tableCapacity - 1;
+        int slot = hash & mask;
+        while (tableSegments.getInt((long) slot * 4) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        tableSegments.putInt((long) slot * 4, handle + 1);
+    }
+
+    private void rehash(int capacity) {
+        tableCapacity = capacity;
+        tableSegments.ensureCapacity((long) capacity * 4);
+        tableSegments.clear((long) capacity * 4);
+        for (int handle = 0; handle < peptideNum; ++handle) {
+            insert(handle, recordSegments.getInt((long) handle * RECORD_SIZE + HASH));
+        }
+    }
+
+    private static int calHash(CharSequence sequence, int start, int end) { // 64-bit FNV-1a folded to an int.
+        long hash = Utilities.calFnv1aHash(sequence, start, end, false);
+        hash ^= hash >>> 32;
+        return (int) hash;
+    }
+
+    private class SequenceView implements CharSequence {
+
+        private final long sequenceAddress;
+        private final int length;
+
+        private SequenceView(long sequenceAddress, int length) {
+            this.sequenceAddress = sequenceAddress;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException(String.format(Locale.US, "The index %d is out of [0, %d).", index, length));
+            }
+            return (char) sequenceSegments.get(sequenceAddress + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException(String.format(Locale.US, "The range [%d, %d) is out of [0, %d).", start, end, length));
+            }
+            return new SequenceView(sequenceAddress + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            char[] array = new char[length];
+            for (int i = 0; i < length; ++i) {
+                array[i] = (char) sequenceSegments.get(sequenceAddress + i);
+            }
+            return String.valueOf(array);
+        }
+    }
+
+    private static class Segments { // a long address space over direct ByteBuffers of the same size. Ints, longs and doubles must be aligned to their sizes so that none of them spans two segments.
+
+        private final int segmentSize;
+        private final int shift;
+        private final int mask;
+        private final List<ByteBuffer> segmentList = new ArrayList<>();
+
+        private Segments(int segmentSize) {
+            this.segmentSize = segmentSize;
+            shift = Integer.numberOfTrailingZeros(segmentSize);
+            mask = segmentSize - 1;
+        }
+
+        private void ensureCapacity(long capacity) {
+            while (getCapacity() < capacity) {
+                segmentList.add(ByteBuffer.allocateDirect(segmentSize));
+            }
+        }
+
+        private long getCapacity() {
+            return (long) segmentList.size() * segmentSize;
+        }
+
+        private void clear(long byteNum) {
+            for (int i = 0; (long) i * segmentSize < byteNum; ++i) {
+                ByteBuffer segment = segmentList.get(i);
+                int num = (int) Math.min(segmentSize, byteNum - (long) i * segmentSize);
+                for (int j = 0; j + 8 <= num; j += 8) {
+                    segment.putLong(j, 0);
+                }
+                for (int j = num & ~7; j < num; ++j) {
+                    segment.put(j, (byte) 0);
+                }
+            }
+        }
+
+        private byte get(long address) {
+            return segmentList.get((int) (address >>> shift)).get((int) (address & mask));
+        }
+
+        private void put(long address, byte value) {
+            segmentList.get((int) (address >>> shift)).put((int) (address & mask), value);
+        }
+
+        private int getInt(long address) {
+            return segmentList.get((int) (address >>> shift)).getInt((int) (address & mask));
+        }
+
+        private void putInt(long address, int value) {
+            segmentList.get((int) (address >>> shift)).putInt((int) (address & mask), value);
+        }
+
+        private long getLong(long address) {
+            return segmentList.get((int) (address >>> shift)).getLong((int) (address & mask));
+        }
+
+        private void putLong(long address, long value) {
+            segmentList.get((int) (address >>> shift)).putLong((int) (address & mask), value);
+        }
+
+        private double getDouble(long address) {
+            return segmentList.get((int) (address >>> shift)).getDouble((int) (address & mask));
+        }
+
+        private void putDouble(long address, double value) {
+            segmentList.get((int) (address >>> shift)).putDouble((int) (address & mask), value);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2018-2019 The Hong Kong University of Science and Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ProteomicsLibrary;
+
+import java.util.Collection;
+
+public class PeptideHashSet { // a compact set of peptide sequences, storing a 64-bit hash per peptide in an open-addressing long array instead of the Strings. Two different peptides share a hash with a probability around size / 2^64, so contains() may rarely report a false positive but never a false negative. It is not thread-safe for add().
+
+    private static final long EMPTY = 0;
+    private static final double MAX_LOAD_FACTOR = 0.5;
+
+    private final boolean l2i;
+    private long[] hashArray;
+    private int size = 0;
+
+    public PeptideHashSet(int expectedSize, boolean l2i) { // l2i: treat I and L as the same amino acid.
+        this.l2i = l2i;
+        int capacity = 16;
+        while (capacity * MAX_LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        hashArray = new long[capacity];
+    }
+
+    public PeptideHashSet(Collection<String> peptides, boolean l2i) { // the peptides may have the "n" and "c" of BuildIndex.getTargetPeptideProteinMap().
+        this(peptides.size(), l2i);
+        for (String peptide : peptides) {
+            add(peptide);
+        }
+    }
+
+    public boolean add(String peptide) { // the "n" and "c" are ignored.
+        return add(peptide, peptideStart(peptide), peptideEnd(peptide));
+    }
+
+    public boolean add(CharSequence sequence, int start, int end) { // adds sequence[start, end).
+        if ((size + 1) > hashArray.length * MAX_LOAD_FACTOR) {
+            resize(hashArray.length << 1);
+        }
+        if (insert(hashArray, calHash(sequence, start, end))) {
+            ++size;
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    public boolean contains(String peptide) { // the "n" and "c" are ignored.
+        return contains(peptide, peptideStart(peptide), peptideEnd(peptide));
+    }
+
+    public boolean contains(CharSequence sequence, int start, int end) { // checks sequence[start, end) without creating a String.
+        long hash = calHash(sequence, start, end);
+        int mask = hashArray.length - 1;
+        for (int idx = (int) hash & mask; hashArray[idx] != EMPTY; idx = (idx + 1) & mask) {
+            if (hashArray[idx] == hash) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isL2i() {
+        return l2i;
+    }
+
+    private long calHash(CharSequence sequence, int start, int end) { // 64-bit FNV-1a followed by the MurmurHash3 finalizer to spread the low bits used as the slot.
+        long hash = Utilities.calFnv1aHash(sequence, start, end, l2i);
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == EMPTY ? 1 : hash;
+    }
+
+    private static int peptideStart(String peptide) {
+        return !peptide.isEmpty() && peptide.charAt(0) == 'n' ? 1 : 0;
+    }
+
+    private static int peptideEnd(String peptide) {
+        return peptide.length() > 1 && peptide.charAt(peptide.length() - 1) == 'c' ? peptide.length() - 1 : peptide.length();
+    }
+
+    private void resize(int capacity) {
+        long[] newHashArray = new long[capacity];
+        for (long hash : hashArray) {
+            if (hash != EMPTY) {
+                insert(newHashArray, hash);
+            }
+        }
+        hashArray = newHashArray;
+    }
+
+    private static boolean insert(long[] hashArray, long hash) {
+        int mask = hashArray.length - 1;
+        int idx = (int) hash & mask;
+        while (hashArray[idx] != EMPTY) {
+            if (hashArray[idx] == hash) {
+                return false;
+            }
+            idx = (idx + 1) & mask;
+        }
+        hashArray[idx] = hash;
+        return true;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018-2019 The Hong Kong University of Science and Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ProteomicsLibrary;
+
+import java.util.*;
+
+public class PeptideMapper { // an Aho-Corasick automaton of many peptides so that each protein is scanned once for all of them. It is immutable and thread-safe.
+
+    private static final int ALPHABET_SIZE = 26; // A-Z. Other residues go back to the root.
+
+    private final boolean l2i;
+    private final int[] gotoArray; // state * ALPHABET_SIZE + residue -> the next state. It is a complete DFA, i.e. the failure links are folded in.
+    private final int[] outputArray; // state -> the sequence ending at the state, or -1
+    private final int[] outputLinkArray; // state -> the nearest proper suffix state with an output, or -1
+    private final int[] sequenceLengthArray;
+    private final String[][] sequencePeptideArray; // sequence -> the query peptides with the sequence
+
+    public PeptideMapper(Collection<String> peptideCollection, boolean l2i) { // peptides may have modifications, n, and c, which are removed by DbTool.getSequenceOnly(). If l2i is true, I and L are the same, which is the same as MassTool.L2I().
+        this.l2i = l2i;
+        Map<String, List<String>> sequencePeptideMap = new LinkedHashMap<>();
+        for (String peptide : peptideCollection) {
+            String sequence = DbTool.getSequenceOnly(peptide);
+            if (l2i) {
+                sequence = MassTool.L2I(sequence);
+            }
+            if (!sequence.isEmpty()) {
+                sequencePeptideMap.computeIfAbsent(sequence, k -> new ArrayList<>(1)).add(peptide);
+            }
+        }
+
+        // trie
+        int maxStateNum = 1;
+        for (String sequence : sequencePeptideMap.keySet()) {
+            maxStateNum += sequence.length();
+        }
+        int[] trieArray = new int[maxStateNum * ALPHABET_SIZE];
+        Arrays.fill(trieArray, -1);
+        int[] tempOutputArray = new int[maxStateNum];
+        Arrays.fill(tempOutputArray, -1);
+        sequenceLengthArray = new int[sequencePeptideMap.size()];
+        sequencePeptideArray = new String[sequencePeptideMap.size()][];
+        int stateNum = 1;
+        int sequenceIdx = 0;
+        for (Map.Entry<String, List<String>> entry : sequencePeptideMap.entrySet()) {
+            String sequence = entry.getKey();
+            int state = 0;
+            for (int i = 0; i < sequence.length(); ++i) {
+                int idx = state * ALPHABET_SIZE + (sequence.charAt(i) - 'A');
+                if (trieArray[idx] < 0) {
+                    trieArray[idx] = stateNum++;
+                }
+                state = trieArray[idx];
+            }
+            tempOutputArray[state] = sequenceIdx;
+            sequenceLengthArray[sequenceIdx] = sequence.length();
+            sequencePeptideArray[sequenceIdx] = entry.getValue().toArray(new String[0]);
+            ++sequenceIdx;
+        }
+
+        // breadth-first: fill the missing transitions with those of the failure state and link the outputs.
+        gotoArray = Arrays.copyOf(trieArray, stateNum * ALPHABET_SIZE);
+        outputArray = Arrays.copyOf(tempOutputArray, stateNum);
+        outputLinkArray = new int[stateNum];
+        int[] failArray = new int[stateNum];
+        int[] queue = new int[stateNum];
+        int head = 0;
+        int tail = 0;
+        outputLinkArray[0] = -1;
+        for (int c = 0; c < ALPHABET_SIZE; ++c) {
+            int next = gotoArray[c];
+            if (next < 0) {
+                gotoArray[c] = 0;
+            } else {
+                failArray[next] = 0;
+                outputLinkArray[next] = -1;
+                queue[tail++] = next;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            for (int c = 0; c < ALPHABET_SIZE; ++c) {
+                int idx = state * ALPHABET_SIZE + c;
+                int next = gotoArray[idx];
+                int failNext = gotoArray[failArray[state] * ALPHABET_SIZE + c];
+                if (next < 0) {
+                    gotoArray[idx] = failNext;
+                } else {
+                    failArray[next] = failNext;
+                    outputLinkArray[next] = outputArray[failNext] >= 0 ? failNext : outputLinkArray[failNext];
+                    queue[tail++] = next;
+                }
+            }
+        }
+    }
+
+    public void map(String protein, String proteinSequence, String cutSite, String protectSite, MatchConsumer consumer) { // reports each occurrence passing the same terminus checks as DbTool.findPeptideLocation(). The flanks are checked in the original sequence.
+        int state = 0;
+        for (int i = 0; i < proteinSequence.length(); ++i) {
+            char aa = proteinSequence.charAt(i);
+            if (l2i && aa == 'L') {
+                aa = 'I';
+            }
+            if (aa < 'A' || aa > 'Z') {
+                state = 0;
+                continue;
+            }
+            state = gotoArray[state * ALPHABET_SIZE + (aa - 'A')];
+            for (int outputState = outputArray[state] >= 0 ? state : outputLinkArray[state]; outputState >= 0; outputState = outputLinkArray[outputState]) {
+                int sequenceIdx = outputArray[outputState];
+                int start = i + 1 - sequenceLengthArray[sequenceIdx];
+                if (DbTool.isPeptideLocation(proteinSequence, start, sequenceLengthArray[sequenceIdx], cutSite, protectSite)) {
+                    for (String peptide : sequencePeptideArray[sequenceIdx]) {
+                        consumer.accept(peptide, protein, start);
+                    }
+                }
+            }
+        }
+    }
+
+    public Map<String, Map<String, Set<Integer>>> map(Map<String, String> proteinSequenceMap, String cutSite, String protectSite) { // peptide -> protein -> locations. Each location set is the same as DbTool.findPeptideLocation() of the protein. Peptides or proteins without a location are absent.
+        Map<String, Map<String, Set<Integer>>> output = new HashMap<>();
+        for (Map.Entry<String, String> entry : proteinSequenceMap.entrySet()) {
+            map(entry.getKey(), entry.getValue(), cutSite, protectSite, (peptide, protein, start) -> output.computeIfAbsent(peptide, k -> new HashMap<>()).computeIfAbsent(protein, k -> new HashSet<>()).add(start));
+        }
+        return output;
+    }
+
+    public interface MatchConsumer {
+        void accept(String peptide, String protein, int start);
+    }
+}
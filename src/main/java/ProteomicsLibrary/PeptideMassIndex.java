@@ -0,0 +1,497 @@
+/*
+ * Copyright 2018-2019 The Hong Kong University of Science and Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ProteomicsLibrary;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Supplier;
+
+public class PeptideMassIndex { // peptides sorted by the precursor mass (calResidueMass() + H2O) in primitive columns. A rank is the position in the mass order. An ordinal is the position in the alphabetical order of the peptides. The columns are either on the heap or memory-mapped from a file written by write(). It is immutable and thread-safe.
+
+    private static final int MAGIC = 0x504C4958; // "PLIX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 40; // magic, version, parameter hash, peptide num, protein num, mapping num, peptide byte num, protein byte num, parameter byte num
+
+    static int maxRegionSize = Integer.MAX_VALUE; // the largest region mapped at once. Each column is mapped as its own region, so the file may be larger than 2 GB. Smaller in the tests.
+
+    private final long parameterHash; // 0 if it is not from a file.
+    private final int peptideNum;
+    private final int proteinNum;
+    private final DoubleBuffer massBuffer; // rank -> mass, ascending
+    private final IntBuffer ordinalBuffer; // rank -> ordinal
+    private final IntBuffer peptideOffsetBuffer; // the peptide of ordinal i is peptideByteBuffer[peptideOffsetBuffer[i], peptideOffsetBuffer[i + 1]) in ASCII
+    private final ByteBuffer peptideByteBuffer;
+    private final IntBuffer proteinOffsetBuffer; // the proteins of ordinal i are proteinIdxBuffer[proteinOffsetBuffer[i], proteinOffsetBuffer[i + 1])
+    private final IntBuffer proteinIdxBuffer;
+    private final IntBuffer proteinNameOffsetBuffer; // the name of protein i is proteinNameByteBuffer[proteinNameOffsetBuffer[i], proteinNameOffsetBuffer[i + 1]) in UTF-8, alphabetical
+    private final ByteBuffer proteinNameByteBuffer;
+
+    public PeptideMassIndex(Multimap<String, String> peptideProteinMap, MassTool massTool) {
+        parameterHash = 0;
+        String[] peptideArray = peptideProteinMap.keySet().toArray(new String[0]);
+        Arrays.sort(peptideArray);
+        peptideNum = peptideArray.length;
+
+        Set<String> proteinSet = new HashSet<>(peptideProteinMap.values());
+        String[] proteinArray = proteinSet.toArray(new String[0]);
+        Arrays.sort(proteinArray);
+        proteinNum = proteinArray.length;
+        Map<String, Integer> proteinIdxMap = new HashMap<>(proteinNum * 2);
+        int[] proteinNameOffsetArray = new int[proteinNum + 1];
+        byte[][] proteinNameArray = new byte[proteinNum][];
+        for (int i = 0; i < proteinNum; ++i) {
+            proteinIdxMap.put(proteinArray[i], i);
+            proteinNameArray[i] = proteinArray[i].getBytes(StandardCharsets.UTF_8);
+            proteinNameOffsetArray[i + 1] = proteinNameOffsetArray[i] + proteinNameArray[i].length;
+        }
+        byte[] proteinNameByteArray = new byte[proteinNameOffsetArray[proteinNum]];
+        for (int i = 0; i < proteinNum; ++i) {
+            System.arraycopy(proteinNameArray[i], 0, proteinNameByteArray, proteinNameOffsetArray[i], proteinNameArray[i].length);
+        }
+
+        int[] peptideOffsetArray = new int[peptideNum + 1];
+        for (int i = 0; i < peptideNum; ++i) {
+            peptideOffsetArray[i + 1] = peptideOffsetArray[i] + peptideArray[i].length();
+        }
+        byte[] peptideByteArray = new byte[peptideOffsetArray[peptideNum]];
+        int[] proteinOffsetArray = new int[peptideNum + 1];
+        int[] proteinIdxArray = new int[peptideProteinMap.size()];
+        int offset = 0;
+        for (int i = 0; i < peptideNum; ++i) {
+            String peptide = peptideArray[i];
+            for (int j = 0; j < peptide.length(); ++j) {
+                char aa = peptide.charAt(j);
+                if (aa > 127) {
+                    throw new IllegalArgumentException(String.format(Locale.US, "The peptide %s contains a non-ASCII character.", peptide));
+                }
+                peptideByteArray[peptideOffsetArray[i] + j] = (byte) aa;
+            }
+            proteinOffsetArray[i] = offset;
+            for (String protein : peptideProteinMap.get(peptide)) {
+                proteinIdxArray[offset++] = proteinIdxMap.get(protein);
+            }
+            Arrays.sort(proteinIdxArray, proteinOffsetArray[i], offset);
+        }
+        proteinOffsetArray[peptideNum] = offset;
+
+        double[] ordinalMassArray = new double[peptideNum];
+        Integer[] tempArray = new Integer[peptideNum];
+        for (int i = 0; i < peptideNum; ++i) {
+            ordinalMassArray[i] = massTool.calResidueMass(peptideArray[i]) + massTool.H2O;
+            tempArray[i] = i;
+        }
+        Arrays.sort(tempArray, Comparator.comparingDouble((Integer i) -> ordinalMassArray[i]).thenComparingInt(i -> i)); // ties are broken by the ordinal to keep the order deterministic.
+        double[] massArray = new double[peptideNum];
+        int[] ordinalArray = new int[peptideNum];
+        for (int rank = 0; rank < peptideNum; ++rank) {
+            ordinalArray[rank] = tempArray[rank];
+            massArray[rank] = ordinalMassArray[tempArray[rank]];
+        }
+
+        massBuffer = DoubleBuffer.wrap(massArray);
+        ordinalBuffer = IntBuffer.wrap(ordinalArray);
+        peptideOffsetBuffer = IntBuffer.wrap(peptideOffsetArray);
+        peptideByteBuffer = ByteBuffer.wrap(peptideByteArray);
+        proteinOffsetBuffer = IntBuffer.wrap(proteinOffsetArray);
+        proteinIdxBuffer = IntBuffer.wrap(proteinIdxArray);
+        proteinNameOffsetBuffer = IntBuffer.wrap(proteinNameOffsetArray);
+        proteinNameByteBuffer = ByteBuffer.wrap(proteinNameByteArray);
+    }
+
+    private PeptideMassIndex(FileChannel fileChannel, Path path) throws IOException { // the columns are separately mapped regions of the file.
+        ByteBuffer header = readHeader(fileChannel);
+        if (header == null || header.getInt(0) != MAGIC) {
+            throw new IOException(String.format(Locale.US, "%s is not a peptide index file or it is incomplete.", path));
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new IOException(String.format(Locale.US, "The version (%d) of %s is not supported. The supported version is %d.", header.getInt(4), path, VERSION));
+        }
+        parameterHash = header.getLong(8);
+        peptideNum = header.getInt(16);
+        proteinNum = header.getInt(20);
+        int mappingNum = header.getInt(24);
+        int peptideByteNum = header.getInt(28);
+        int proteinByteNum = header.getInt(32);
+        int parameterByteNum = header.getInt(36);
+        if (fileChannel.size() != calFileSize(peptideNum, proteinNum, mappingNum, peptideByteNum, proteinByteNum, parameterByteNum)) {
+            throw new IOException(String.format(Locale.US, "The size of %s doesn't match its header.", path));
+        }
+
+        long offset = HEADER_SIZE;
+        massBuffer = mapRegion(fileChannel, FileChannel.MapMode.READ_ONLY, offset, peptideNum * 8L).asDoubleBuffer();
+        offset += peptideNum * 8L;
+        ordinalBuffer = mapRegion(fileChannel, FileChannel.MapMode.READ_ONLY, offset, peptideNum * 4L).asIntBuffer();
+        offset += peptideNum * 4L;
+        peptideOffsetBuffer = mapRegion(fileChannel, FileChannel.MapMode.READ_ONLY, offset, (peptideNum + 1) * 4L).asIntBuffer();
+        offset += (peptideNum + 1) * 4L;
+        proteinOffsetBuffer = mapRegion(fileChannel, FileChannel.MapMode.READ_ONLY, offset, (peptideNum + 1) * 4L).asIntBuffer();
+        offset += (peptideNum + 1) * 4L;
+        proteinIdxBuffer = mapRegion(fileChannel, FileChannel.MapMode.READ_ONLY, offset, mappingNum * 4L).asIntBuffer();
+        offset += mappingNum * 4L;
+        proteinNameOffsetBuffer = mapRegion(fileChannel, FileChannel.MapMode.READ_ONLY, offset, (proteinNum + 1) * 4L).asIntBuffer();
+        offset += (proteinNum + 1) * 4L;
+        peptideByteBuffer = mapRegion(fileChannel, FileChannel.MapMode.READ_ONLY, offset, peptideByteNum);
+        offset += peptideByteNum;
+        proteinNameByteBuffer = mapRegion(fileChannel, FileChannel.MapMode.READ_ONLY, offset, proteinByteNum);
+    }
+
+    public static PeptideMassIndex open(Path path) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new PeptideMassIndex(fileChannel, path); // the mappings stay valid after closing the channel.
+        }
+    }
+
+    public static PeptideMassIndex openOrBuild(Path path, String parameters, Supplier<PeptideMassIndex> builder) throws IOException { // reuses the file if its parameter hash matches. Otherwise, builds the index and writes it to the file. The parameters should come from buildParameterString() with the manifest so that a changed database is not reused.
+        long parameterHash = calParameterHash(parameters);
+        if (Files.isRegularFile(path) && readParameterHash(path) == parameterHash) {
+            try {
+                return open(path);
+            } catch (IOException ex) {
+                // the file is broken. Rebuild it.
+            }
+        }
+        builder.get().write(path, parameters);
+        return open(path);
+    }
+
+    public static long readParameterHash(Path path) throws IOException { // 0 if the file is not a complete index file of the current version.
+        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = readHeader(fileChannel);
+            if (header == null || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                return 0;
+            }
+            return header.getLong(8);
+        }
+    }
+
+    public static long calParameterHash(String parameters) { // 64-bit FNV-1a of the UTF-8 bytes. Never 0.
+        String byteString = new String(parameters.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1); // one char per byte.
+        long hash = Utilities.calFnv1aHash(byteString, 0, byteString.length(), false);
+        return hash == 0 ? 1 : hash;
+    }
+
+    public static String buildParameterString(String cleavageSite1, String protectionSite1, boolean cleavageFromCTerm1, String cleavageSite2, String protectionSite2, Boolean cleavageFromCTerm2, int missedCleavage, int minPeptideLength, int maxPeptideLength, double minPeptideMass, double maxPeptideMass, Map<Character, Double> fixModMap, String labelling, Map<String, Long> manifest) { // everything which changes the content of an index: the settings below and the database. The manifest is BuildIndex.buildManifest() of the proteins.
+        return buildParameterString(cleavageSite1, protectionSite1, cleavageFromCTerm1, cleavageSite2, protectionSite2, cleavageFromCTerm2, missedCleavage, minPeptideLength, maxPeptideLength, minPeptideMass, maxPeptideMass, fixModMap, labelling) + String.format(Locale.US, "database=%016x\n", calDatabaseHash(manifest));
+    }
+
+    public static String buildParameterString(String cleavageSite1, String protectionSite1, boolean cleavageFromCTerm1, String cleavageSite2, String protectionSite2, Boolean cleavageFromCTerm2, int missedCleavage, int minPeptideLength, int maxPeptideLength, double minPeptideMass, double maxPeptideMass, Map<Character, Double> fixModMap, String labelling) { // the digestion and mass settings without the database, e.g. for BuildIndex.writeManifest(). The peptides after each leading M are always digested (BuildIndex.digestProtein()), so it is not a setting.
+        StringBuilder sb = new StringBuilder();
+        sb.append("enzyme1=").append(cleavageSite1).append(';').append(protectionSite1).append(';').append(cleavageFromCTerm1).append('\n');
+        sb.append("enzyme2=").append(cleavageSite2).append(';').append(protectionSite2).append(';').append(cleavageFromCTerm2).append('\n');
+        sb.append("missed_cleavage=").append(missedCleavage).append('\n');
+        sb.append("peptide_length=").append(minPeptideLength).append(';').append(maxPeptideLength).append('\n');
+        sb.append("peptide_mass=").append(Double.toString(minPeptideMass)).append(';').append(Double.toString(maxPeptideMass)).append('\n');
+        sb.append("fix_mod=");
+        if (fixModMap != null) {
+            for (Map.Entry<Character, Double> entry : new TreeMap<>(fixModMap).entrySet()) {
+                if (Math.abs(entry.getValue()) > 1e-6) {
+                    sb.append(entry.getKey()).append(':').append(Double.toString(entry.getValue())).append(';');
+                }
+            }
+        }
+        sb.append('\n');
+        sb.append("labelling=").append(labelling).append('\n');
+        return sb.toString();
+    }
+
+    private static long calDatabaseHash(Map<String, Long> manifest) { // the same for the same proteins in any order.
+        StringBuilder sb = new StringBuilder(manifest.size() * 32);
+        for (Map.Entry<String, Long> entry : new TreeMap<>(manifest).entrySet()) {
+            sb.append(String.format(Locale.US, "%016x", entry.getValue())).append('\t').append(entry.getKey()).append('\n');
+        }
+        return calParameterHash(sb.toString());
+    }
+
+    public void write(Path path, String parameters) throws IOException { // the magic number is written last so that an incomplete file is never opened.
+        byte[] parameterByteArray = parameters.getBytes(StandardCharsets.UTF_8);
+        int mappingNum = proteinIdxBuffer.limit();
+        int peptideByteNum = peptideByteBuffer.limit();
+        int proteinByteNum = proteinNameByteBuffer.limit();
+        long fileSize = calFileSize(peptideNum, proteinNum, mappingNum, peptideByteNum, proteinByteNum, parameterByteArray.length);
+        // written to a temporary file and moved to the path at last, so that an index mapping the old file and other processes reading it are not affected.
+        Path absolutePath = path.toAbsolutePath();
+        Path tempPath = Files.createTempFile(absolutePath.getParent(), absolutePath.getFileName().toString(), ".tmp");
+        boolean moved = false;
+        try {
+            try (FileChannel fileChannel = FileChannel.open(tempPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long offset = writeRegion(fileChannel, HEADER_SIZE, massBuffer);
+                offset = writeRegion(fileChannel, offset, ordinalBuffer);
+                offset = writeRegion(fileChannel, offset, peptideOffsetBuffer);
+                offset = writeRegion(fileChannel, offset, proteinOffsetBuffer);
+                offset = writeRegion(fileChannel, offset, proteinIdxBuffer);
+                offset = writeRegion(fileChannel, offset, proteinNameOffsetBuffer);
+                offset = writeRegion(fileChannel, offset, peptideByteBuffer);
+                offset = writeRegion(fileChannel, offset, proteinNameByteBuffer);
+                offset = writeRegion(fileChannel, offset, ByteBuffer.wrap(parameterByteArray));
+                if (offset != fileSize) {
+                    throw new IllegalStateException(String.format(Locale.US, "%d bytes are written, which is different from the file size %d.", offset, fileSize));
+                }
+
+                MappedByteBuffer buffer = mapRegion(fileChannel, FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+                buffer.putInt(4, VERSION);
+                buffer.putLong(8, calParameterHash(parameters));
+                buffer.putInt(16, peptideNum);
+                buffer.putInt(20, proteinNum);
+                buffer.putInt(24, mappingNum);
+                buffer.putInt(28, peptideByteNum);
+                buffer.putInt(32, proteinByteNum);
+                buffer.putInt(36, parameterByteArray.length);
+                buffer.force();
+                buffer.putInt(0, MAGIC);
+                buffer.force();
+                fileChannel.force(true);
+            }
+            Files.move(tempPath, absolutePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            moved = true;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(tempPath);
+            }
+        }
+    }
+
+    public long getParameterHash() {
+        return parameterHash;
+    }
+
+    public int size() {
+        return peptideNum;
+    }
+
+    public int getProteinNum() {
+        return proteinNum;
+    }
+
+    public double getMass(int rank) {
+        return massBuffer.get(rank);
+    }
+
+    public int getOrdinal(int rank) {
+        return ordinalBuffer.get(rank);
+    }
+
+    public String getPeptide(int ordinal) {
+        int start = peptideOffsetBuffer.get(ordinal);
+        int end = peptideOffsetBuffer.get(ordinal + 1);
+        char[] charArray = new char[end - start];
+        for (int i = start; i < end; ++i) {
+            charArray[i - start] = (char) peptideByteBuffer.get(i);
+        }
+        return new String(charArray);
+    }
+
+    public int getOrdinal(String peptide) { // -1 if the peptide is not in the index.
+        int low = 0;
+        int high = peptideNum - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int compare = comparePeptide(middle, peptide);
+            if (compare < 0) {
+                low = middle + 1;
+            } else if (compare > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    public int getProteinStart(int ordinal) {
+        return proteinOffsetBuffer.get(ordinal);
+    }
+
+    public int getProteinEnd(int ordinal) {
+        return proteinOffsetBuffer.get(ordinal + 1);
+    }
+
+    public int getProteinIdx(int offset) { // offset is in [getProteinStart(ordinal), getProteinEnd(ordinal)).
+        return proteinIdxBuffer.get(offset);
+    }
+
+    public String getProtein(int offset) {
+        return getProteinName(getProteinIdx(offset));
+    }
+
+    public String getProteinName(int proteinIdx) {
+        int start = proteinNameOffsetBuffer.get(proteinIdx);
+        int end = proteinNameOffsetBuffer.get(proteinIdx + 1);
+        byte[] byteArray = new byte[end - start];
+        for (int i = start; i < end; ++i) {
+            byteArray[i - start] = proteinNameByteBuffer.get(i);
+        }
+        return new String(byteArray, StandardCharsets.UTF_8);
+    }
+
+    public List<String> getProteinList(int ordinal) {
+        List<String> output = new ArrayList<>(getProteinEnd(ordinal) - getProteinStart(ordinal));
+        for (int offset = getProteinStart(ordinal); offset < getProteinEnd(ordinal); ++offset) {
+            output.add(getProtein(offset));
+        }
+        return output;
+    }
+
+    public Multimap<String, String> toPeptideProteinMap() { // e.g. the previous index of an incremental BuildIndex.
+        Multimap<String, String> peptideProteinMap = HashMultimap.create(peptideNum, 2);
+        String[] proteinArray = new String[proteinNum];
+        for (int i = 0; i < proteinNum; ++i) {
+            proteinArray[i] = getProteinName(i);
+        }
+        for (int ordinal = 0; ordinal < peptideNum; ++ordinal) {
+            String peptide = getPeptide(ordinal);
+            for (int offset = getProteinStart(ordinal); offset < getProteinEnd(ordinal); ++offset) {
+                peptideProteinMap.put(peptide, proteinArray[getProteinIdx(offset)]);
+            }
+        }
+        return peptideProteinMap;
+    }
+
+    public int lowerBound(double mass) { // the first rank whose mass >= mass.
+        int low = 0;
+        int high = peptideNum;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (massBuffer.get(middle) < mass) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    public int upperBound(double mass) { // the first rank whose mass > mass.
+        int low = 0;
+        int high = peptideNum;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (massBuffer.get(middle) <= mass) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    public int query(double precursorMass, double tolerance, int toleranceUnit, int[] isotopeCorrectionArray, int[] rankBuffer) { // toleranceUnit: 0 = Da, 1 = ppm. The monoisotopic mass of isotope correction n is precursorMass + n * C13_DIFF, which is the same as IsotopeDistribution.getIsotopeCorrectionNum(). Ascending ranks are written to rankBuffer without duplicates. Returns the candidate number, which may be larger than rankBuffer.length; only the first rankBuffer.length ranks are written in that case.
+        if (isotopeCorrectionArray.length > 64) {
+            throw new IllegalArgumentException(String.format(Locale.US, "There are %d isotope corrections, which is larger than 64.", isotopeCorrectionArray.length));
+        }
+        int num = 0;
+        int lastEnd = 0;
+        long doneMask = 0;
+        for (int round = 0; round < isotopeCorrectionArray.length; ++round) {
+            // pick the lightest window which hasn't been done so that the ranks are ascending.
+            int idx = -1;
+            for (int i = 0; i < isotopeCorrectionArray.length; ++i) {
+                if ((doneMask & (1L << i)) == 0 && (idx < 0 || isotopeCorrectionArray[i] < isotopeCorrectionArray[idx])) {
+                    idx = i;
+                }
+            }
+            doneMask |= 1L << idx;
+
+            double mass = precursorMass + isotopeCorrectionArray[idx] * MassTool.C13_DIFF;
+            double leftMass;
+            double rightMass;
+            if (toleranceUnit == 1) {
+                leftMass = mass / (1 + tolerance * 1e-6);
+                rightMass = mass / (1 - tolerance * 1e-6);
+            } else {
+                leftMass = mass - tolerance;
+                rightMass = mass + tolerance;
+            }
+            int start = Math.max(lowerBound(leftMass), lastEnd);
+            int end = upperBound(rightMass);
+            for (int rank = start; rank < end; ++rank) {
+                if (num < rankBuffer.length) {
+                    rankBuffer[num] = rank;
+                }
+                ++num;
+            }
+            lastEnd = Math.max(lastEnd, end);
+        }
+        return num;
+    }
+
+    private int comparePeptide(int ordinal, String peptide) { // the same order as String.compareTo() for ASCII.
+        int start = peptideOffsetBuffer.get(ordinal);
+        int length = peptideOffsetBuffer.get(ordinal + 1) - start;
+        int minLength = Math.min(length, peptide.length());
+        for (int i = 0; i < minLength; ++i) {
+            int diff = (peptideByteBuffer.get(start + i) & 0xff) - peptide.charAt(i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length - peptide.length();
+    }
+
+    private static long calFileSize(int peptideNum, int proteinNum, int mappingNum, int peptideByteNum, int proteinByteNum, int parameterByteNum) {
+        return HEADER_SIZE + peptideNum * 8L + peptideNum * 4L + (peptideNum + 1) * 8L + mappingNum * 4L + (proteinNum + 1) * 4L + peptideByteNum + proteinByteNum + parameterByteNum;
+    }
+
+    private static ByteBuffer readHeader(FileChannel fileChannel) throws IOException { // null if the file is shorter than the header.
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && fileChannel.read(header, header.position()) >= 0) {
+            // keep reading
+        }
+        return header.hasRemaining() ? null : header;
+    }
+
+    private static MappedByteBuffer mapRegion(FileChannel fileChannel, FileChannel.MapMode mode, long offset, long length) throws IOException {
+        if (length > maxRegionSize) {
+            throw new IOException(String.format(Locale.US, "A column of the index (%d bytes) is larger than %d bytes, which cannot be mapped at once.", length, maxRegionSize));
+        }
+        return fileChannel.map(mode, offset, length);
+    }
+
+    private static long writeRegion(FileChannel fileChannel, long offset, DoubleBuffer doubleBuffer) throws IOException { // returns the offset after the region.
+        MappedByteBuffer buffer = mapRegion(fileChannel, FileChannel.MapMode.READ_WRITE, offset, doubleBuffer.limit() * 8L);
+        for (int i = 0; i < doubleBuffer.limit(); ++i) {
+            buffer.putDouble(doubleBuffer.get(i));
+        }
+        buffer.force();
+        return offset + buffer.capacity();
+    }
+
+    private static long writeRegion(FileChannel fileChannel, long offset, IntBuffer intBuffer) throws IOException { // returns the offset after the region.
+        MappedByteBuffer buffer = mapRegion(fileChannel, FileChannel.MapMode.READ_WRITE, offset, intBuffer.limit() * 4L);
+        for (int i = 0; i < intBuffer.limit(); ++i) {
+            buffer.putInt(intBuffer.get(i));
+        }
+        buffer.force();
+        return offset + buffer.capacity();
+    }
+
+    private static long writeRegion(FileChannel fileChannel, long offset, ByteBuffer byteBuffer) throws IOException { // returns the offset after the region.
+        MappedByteBuffer buffer = mapRegion(fileChannel, FileChannel.MapMode.READ_WRITE, offset, byteBuffer.limit());
+        buffer.put(byteBuffer.duplicate());
+        buffer.force();
+        return offset + buffer.capacity();
+    }
+}
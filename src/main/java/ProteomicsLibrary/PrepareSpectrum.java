@@ -16,6 +16,7 @@
 
 package ProteomicsLibrary;
 
+import ProteomicsLibrary.Types.DenseVector;
 import ProteomicsLibrary.Types.SparseVector;
 
 import java.util.*;
@@ -68,24 +69,63 @@ public class PrepareSpectrum {
         }
     }
 
+    public DenseVector preSpectrumCometStyleDense (Map<Double, Double> inputPL, double precursorMass, int precursorCharge, double minClear, double maxClear, boolean flankingPeak) {
+        TreeMap<Double, Double> outputPL = removeCertainPeaks(inputPL, precursorMass, precursorCharge, minClear, maxClear);
+        if (outputPL.subMap(0d, precursorMass).isEmpty()) {
+            return new DenseVector(0);
+        } else {
+            return prepareXCorrDense(cometStyleNormalization(sqrtPL(new TreeMap<>(outputPL.subMap(0d, precursorMass)))), flankingPeak);
+        }
+    }
+
+    public DenseVector preSpectrumCometStyleDense (Map<Double, Double> inputPL, double precursorMass, boolean flankingPeak) {
+        TreeMap<Double, Double> outputPL = new TreeMap<>(inputPL);
+        if (outputPL.subMap(0d, precursorMass).isEmpty()) {
+            return new DenseVector(0);
+        } else {
+            return prepareXCorrDense(cometStyleNormalization(sqrtPL(new TreeMap<>(outputPL.subMap(0d, precursorMass)))), flankingPeak);
+        }
+    }
+
     public SparseVector prepareXCorr(TreeMap<Double, Double> plMap, boolean flankingPeaks) {
         if (plMap.isEmpty()) {
             return new SparseVector();
         } else {
-            // digitize peak list
-            double[] plArray = new double[massTool.mzToBin(plMap.lastKey()) + 1];
-            for (double mz : plMap.keySet()) {
-                if (Math.abs(plMap.get(mz)) > 1e-6) {
-                    int idx = massTool.mzToBin(mz);
-                    plArray[idx] = Math.max(plMap.get(mz), plArray[idx]);
-                }
-            }
-            return prepareXCorr(plArray, flankingPeaks);
+            return prepareXCorr(digitize(plMap), flankingPeaks);
         }
     }
 
     public SparseVector prepareXCorr(double[] plArray, boolean flankingPeaks) {
         SparseVector xcorrPL = new SparseVector();
+        double[] xcorrArray = calXCorrArray(plArray, flankingPeaks);
+        for (int i = 1; i < xcorrArray.length; ++i) {
+            if (Math.abs(xcorrArray[i]) > 1e-6) {
+                xcorrPL.put(i, xcorrArray[i]);
+            }
+        }
+        return xcorrPL;
+    }
+
+    public DenseVector prepareXCorrDense(TreeMap<Double, Double> plMap, boolean flankingPeaks) {
+        if (plMap.isEmpty()) {
+            return new DenseVector(0);
+        } else {
+            return prepareXCorrDense(digitize(plMap), flankingPeaks);
+        }
+    }
+
+    public DenseVector prepareXCorrDense(double[] plArray, boolean flankingPeaks) { // the same as prepareXCorr, but O(1) to look up a bin.
+        double[] xcorrArray = calXCorrArray(plArray, flankingPeaks);
+        float[] denseArray = new float[xcorrArray.length];
+        for (int i = 1; i < xcorrArray.length; ++i) {
+            if (Math.abs(xcorrArray[i]) > 1e-6) {
+                denseArray[i] = (float) xcorrArray[i];
+            }
+        }
+        return new DenseVector(denseArray);
+    }
+
+    private double[] calXCorrArray(double[] plArray, boolean flankingPeaks) { // the element 0 is not used.
         int offsetRange = 2 * xcorrOffset + 1;
         double factor = 1 / (double) (offsetRange - 1); // caution: 1/150 rather than 1/151
         double mySum = 0;
@@ -104,6 +144,7 @@ public class PrepareSpectrum {
             tempArray[i - xcorrOffset] = (mySum - plArray[i - xcorrOffset]) * factor;
         }
 
+        double[] xcorrArray = new double[plArray.length];
         for (int i = 1; i < plArray.length; ++i) {
             double temp = plArray[i] - tempArray[i];
             if (flankingPeaks) {
@@ -112,12 +153,21 @@ public class PrepareSpectrum {
                     temp += (plArray[i + 1] - tempArray[i + 1]) * 0.5;
                 }
             }
-            if (Math.abs(temp) > 1e-6) {
-                xcorrPL.put(i, temp);
-            }
+            xcorrArray[i] = temp;
         }
 
-        return xcorrPL;
+        return xcorrArray;
+    }
+
+    private double[] digitize(TreeMap<Double, Double> plMap) {
+        double[] plArray = new double[massTool.mzToBin(plMap.lastKey()) + 1];
+        for (double mz : plMap.keySet()) {
+            if (Math.abs(plMap.get(mz)) > 1e-6) {
+                int idx = massTool.mzToBin(mz);
+                plArray[idx] = Math.max(plMap.get(mz), plArray[idx]);
+            }
+        }
+        return plArray;
     }
 
     public SparseVector digitizePL(TreeMap<Double, Double> plMap) {
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2018-2019 The Hong Kong University of Science and Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ProteomicsLibrary;
+
+import java.util.*;
+
+public class ProteomeIndex { // a suffix array over the concatenated protein sequences. Each sequence is followed by '\0' so that no match crosses two proteins. It is immutable and thread-safe.
+
+    private static final char SEPARATOR = '\0';
+
+    private final String[] proteinArray; // alphabetical
+    private final String[] proteinSequenceArray;
+    private final int[] proteinStartArray; // protein i is text[proteinStartArray[i], proteinStartArray[i + 1] - 1)
+    private final char[] text;
+    private final int[] suffixArray;
+
+    public ProteomeIndex(Map<String, String> proteinSequenceMap) {
+        proteinArray = proteinSequenceMap.keySet().toArray(new String[0]);
+        Arrays.sort(proteinArray);
+        proteinSequenceArray = new String[proteinArray.length];
+        proteinStartArray = new int[proteinArray.length + 1];
+        long length = 0;
+        for (int i = 0; i < proteinArray.length; ++i) {
+            proteinSequenceArray[i] = proteinSequenceMap.get(proteinArray[i]);
+            if (proteinSequenceArray[i].indexOf(SEPARATOR) >= 0) {
+                throw new IllegalArgumentException(String.format(Locale.US, "The sequence of %s contains \\0.", proteinArray[i]));
+            }
+            length += proteinSequenceArray[i].length() + 1;
+            if (length > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException(String.format(Locale.US, "The proteome is longer than %d.", Integer.MAX_VALUE - 8));
+            }
+            proteinStartArray[i + 1] = (int) length;
+        }
+        text = new char[(int) length];
+        for (int i = 0; i < proteinArray.length; ++i) {
+            proteinSequenceArray[i].getChars(0, proteinSequenceArray[i].length(), text, proteinStartArray[i]);
+            text[proteinStartArray[i + 1] - 1] = SEPARATOR;
+        }
+        suffixArray = buildSuffixArray(text);
+    }
+
+    public int getProteinNum() {
+        return proteinArray.length;
+    }
+
+    public String getProtein(int proteinIdx) {
+        return proteinArray[proteinIdx];
+    }
+
+    public String getProteinSequence(int proteinIdx) {
+        return proteinSequenceArray[proteinIdx];
+    }
+
+    public int getProteinIdx(String protein) { // -1 if it is absent.
+        int idx = Arrays.binarySearch(proteinArray, protein);
+        return idx >= 0 ? idx : -1;
+    }
+
+    public int count(CharSequence sequence) { // the number of occurrences of a sequence without modifications, n, or c.
+        if (sequence.length() == 0) {
+            return 0;
+        }
+        return upperBound(sequence) - lowerBound(sequence);
+    }
+
+    public void forEachOccurrence(CharSequence sequence, OccurrenceConsumer consumer) { // ordered by the protein index and then by the offset.
+        if (sequence.length() == 0) {
+            return;
+        }
+        int low = lowerBound(sequence);
+        int high = upperBound(sequence);
+        int[] positionArray = Arrays.copyOfRange(suffixArray, low, high);
+        Arrays.sort(positionArray);
+        int proteinIdx = 0;
+        for (int position : positionArray) {
+            while (proteinStartArray[proteinIdx + 1] <= position) {
+                ++proteinIdx;
+            }
+            consumer.accept(proteinIdx, position - proteinStartArray[proteinIdx]);
+        }
+    }
+
+    public Set<String> getProteinSet(String peptide) { // the proteins containing the peptide, which may have modifications, n, and c.
+        Set<String> proteinSet = new HashSet<>();
+        forEachOccurrence(DbTool.getSequenceOnly(peptide), (proteinIdx, offset) -> proteinSet.add(proteinArray[proteinIdx]));
+        return proteinSet;
+    }
+
+    public Character[] getLeftRightFlank(String peptide, Collection<String> proteinCollection, String cleavageSite, String protectionSite, boolean cleavageFromCTerm) { // the same as DbTool.getLeftRightFlank() with peptideProteinMap.get(peptide) being proteinCollection.
+        String peptideString = DbTool.getSequenceOnly(peptide);
+        Map<Integer, List<Integer>> proteinOffsetMap = new HashMap<>();
+        forEachOccurrence(peptideString, (proteinIdx, offset) -> proteinOffsetMap.computeIfAbsent(proteinIdx, k -> new ArrayList<>(2)).add(offset));
+        for (String protein : proteinCollection) {
+            int proteinIdx = getProteinIdx(protein);
+            List<Integer> offsetList = proteinOffsetMap.get(proteinIdx);
+            if (offsetList != null) {
+                for (int offset : offsetList) {
+                    Character[] leftRightFlank = DbTool.getLeftRightFlank(proteinSequenceArray[proteinIdx], offset, peptideString.length(), cleavageSite, protectionSite, cleavageFromCTerm);
+                    if (leftRightFlank != null) {
+                        return leftRightFlank;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    public Character[] getLeftRightFlank(String peptide, String cleavageSite, String protectionSite, boolean cleavageFromCTerm) { // the same as above with all proteins in the alphabetical order.
+        String peptideString = DbTool.getSequenceOnly(peptide);
+        Character[][] leftRightFlank = new Character[1][];
+        forEachOccurrence(peptideString, (proteinIdx, offset) -> {
+            if (leftRightFlank[0] == null) {
+                leftRightFlank[0] = DbTool.getLeftRightFlank(proteinSequenceArray[proteinIdx], offset, peptideString.length(), cleavageSite, protectionSite, cleavageFromCTerm);
+            }
+        });
+        return leftRightFlank[0];
+    }
+
+    public Set<Integer> findPeptideLocation(String protein, String peptide, String cutSite, String protectSite) { // the same as DbTool.findPeptideLocation() with the sequence of the protein.
+        String peptideString = DbTool.getSequenceOnly(peptide.trim());
+        int targetIdx = getProteinIdx(protein);
+        Set<Integer> output = new HashSet<>();
+        if (targetIdx >= 0) {
+            forEachOccurrence(peptideString, (proteinIdx, offset) -> {
+                if (proteinIdx == targetIdx && DbTool.isPeptideLocation(proteinSequenceArray[proteinIdx], offset, peptideString.length(), cutSite, protectSite)) {
+                    output.add(offset);
+                }
+            });
+        }
+        return output;
+    }
+
+    public Map<String, Set<Integer>> findPeptideLocation(String peptide, String cutSite, String protectSite) { // the same as above over all proteins. Proteins without a location are absent.
+        String peptideString = DbTool.getSequenceOnly(peptide.trim());
+        Map<String, Set<Integer>> output = new HashMap<>();
+        forEachOccurrence(peptideString, (proteinIdx, offset) -> {
+            if (DbTool.isPeptideLocation(proteinSequenceArray[proteinIdx], offset, peptideString.length(), cutSite, protectSite)) {
+                output.computeIfAbsent(proteinArray[proteinIdx], k -> new HashSet<>()).add(offset);
+            }
+        });
+        return output;
+    }
+
+    private int lowerBound(CharSequence sequence) { // the first suffix whose prefix >= sequence. The common prefix lengths of both bounds are kept to skip the known part of each comparison.
+        int low = 0;
+        int high = suffixArray.length;
+        int lowLcp = 0;
+        int highLcp = 0;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int lcp = calLcp(sequence, suffixArray[middle], Math.min(lowLcp, highLcp));
+            if (lcp < sequence.length() && text[suffixArray[middle] + lcp] < sequence.charAt(lcp)) {
+                low = middle + 1;
+                lowLcp = lcp;
+            } else {
+                high = middle;
+                highLcp = lcp;
+            }
+        }
+        return low;
+    }
+
+    private int upperBound(CharSequence sequence) { // the first suffix whose prefix > sequence.
+        int low = 0;
+        int high = suffixArray.length;
+        int lowLcp = 0;
+        int highLcp = 0;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int lcp = calLcp(sequence, suffixArray[middle], Math.min(lowLcp, highLcp));
+            if (lcp == sequence.length() || text[suffixArray[middle] + lcp] < sequence.charAt(lcp)) {
+                low = middle + 1;
+                lowLcp = lcp;
+            } else {
+                high = middle;
+                highLcp = lcp;
+            }
+        }
+        return low;
+    }
+
+    private int calLcp(CharSequence sequence, int position, int lcp) { // every suffix ends with the separator, which never matches, so the text is never overrun.
+        while (lcp < sequence.length() && text[position + lcp] == sequence.charAt(lcp)) {
+            ++lcp;
+        }
+        return lcp;
+    }
+
+    private static int[] buildSuffixArray(char[] text) { // prefix doubling with radix sort, O(n log(n)).
+        int n = text.length;
+        int[] suffixArray = new int[n];
+        if (n == 0) {
+            return suffixArray;
+        }
+        int[] rankArray = new int[n];
+        int[] tempArray = new int[n];
+        int alphabetSize = 0;
+        for (char c : text) {
+            alphabetSize = Math.max(alphabetSize, c + 1);
+        }
+        int[] countArray = new int[Math.max(alphabetSize, n) + 1];
+        for (int i = 0; i < n; ++i) {
+            rankArray[i] = text[i];
+            ++countArray[text[i] + 1];
+        }
+        for (int i = 0; i < alphabetSize; ++i) {
+            countArray[i + 1] += countArray[i];
+        }
+        for (int i = 0; i < n; ++i) {
+            suffixArray[countArray[text[i]]++] = i;
+        }
+
+        int maxRank = alphabetSize;
+        for (int k = 1; ; k <<= 1) {
+            // order by the second key: suffixes shorter than k first, then the others by the rank of i + k.
+            int idx = 0;
+            for (int i = n - k; i < n; ++i) {
+                if (i >= 0) {
+                    tempArray[idx++] = i;
+                }
+            }
+            for (int i = 0; i < n; ++i) {
+                if (suffixArray[i] >= k) {
+                    tempArray[idx++] = suffixArray[i] - k;
+                }
+            }
+
+            // stable counting sort by the first key.
+            Arrays.fill(countArray, 0, maxRank + 1, 0);
+            for (int i = 0; i < n; ++i) {
+                ++countArray[rankArray[i] + 1];
+            }
+            for (int i = 0; i < maxRank; ++i) {
+                countArray[i + 1] += countArray[i];
+            }
+            for (int i = 0; i < n; ++i) {
+                suffixArray[countArray[rankArray[tempArray[i]]]++] = tempArray[i];
+            }
+
+            // new ranks
+            tempArray[suffixArray[0]] = 0;
+            int rank = 0;
+            for (int i = 1; i < n; ++i) {
+                int current = suffixArray[i];
+                int previous = suffixArray[i - 1];
+                if (rankArray[current] != rankArray[previous] || (current + k < n ? rankArray[current + k] : -1) != (previous + k < n ? rankArray[previous + k] : -1)) {
+                    ++rank;
+                }
+                tempArray[current] = rank;
+            }
+            int[] swap = rankArray;
+            rankArray = tempArray;
+            tempArray = swap;
+            maxRank = rank + 1;
+            if (maxRank == n) {
+                break;
+            }
+        }
+        return suffixArray;
+    }
+
+    public interface OccurrenceConsumer {
+        void accept(int proteinIdx, int offset);
+    }
+}
@@ -17,19 +17,133 @@
 package ProteomicsLibrary;
 
 import ProteomicsLibrary.Types.Coordinate;
+import ProteomicsLibrary.Types.IonAccessor;
+import ProteomicsLibrary.Types.IonArrayBuffer;
 
 import java.util.*;
 
 public class Score {
 
     public static double calIonFraction(double[][] ionMatrix, int precursorCharge, Map<Double, Double> plMap, double ms2Tolerance) {
+        return calIonFraction(toIonAccessor(ionMatrix), precursorCharge, plMap, ms2Tolerance);
+    }
+
+    public static double calIonFraction(IonArrayBuffer ionBuffer, int precursorCharge, Map<Double, Double> plMap, double ms2Tolerance) {
+        return calIonFraction((IonAccessor) ionBuffer, precursorCharge, plMap, ms2Tolerance);
+    }
+
+    public static double calMatchedHighestIntensityFraction(double[][] ionMatrix, int precursorCharge, Map<Double, Double> plMap, double ms2Tolerance) {
+        return calMatchedHighestIntensityFraction(toIonAccessor(ionMatrix), precursorCharge, plMap, ms2Tolerance);
+    }
+
+    public static double calMatchedHighestIntensityFraction(IonArrayBuffer ionBuffer, int precursorCharge, Map<Double, Double> plMap, double ms2Tolerance) {
+        return calMatchedHighestIntensityFraction((IonAccessor) ionBuffer, precursorCharge, plMap, ms2Tolerance);
+    }
+
+    public static double calExplainedAAFraction(double[][] ionMatrix, int precursorCharge, Map<Double, Double> plMap, double ms2Tolerance) {
+        return calExplainedAAFraction(toIonAccessor(ionMatrix), precursorCharge, plMap, ms2Tolerance);
+    }
+
+    public static double calExplainedAAFraction(IonArrayBuffer ionBuffer, int precursorCharge, Map<Double, Double> plMap, double ms2Tolerance) {
+        return calExplainedAAFraction((IonAccessor) ionBuffer, precursorCharge, plMap, ms2Tolerance);
+    }
+
+    public static double calBinomialScorePValue(TreeMap<Double, Double> plMap, int topN, Binomial binomial, int localMaxMs2Charge, double[][] ionMatrix, double ms2Tolerance, int peptideLengthWithNC) throws Exception { // calculate a p-value as Andromeda.s
+        return calBinomialScorePValue(plMap, topN, binomial, localMaxMs2Charge, toIonAccessor(ionMatrix), ms2Tolerance, peptideLengthWithNC);
+    }
+
+    public static double calBinomialScorePValue(TreeMap<Double, Double> plMap, int topN, Binomial binomial, int localMaxMs2Charge, IonArrayBuffer ionBuffer, double ms2Tolerance, int peptideLengthWithNC) throws Exception {
+        return calBinomialScorePValue(plMap, topN, binomial, localMaxMs2Charge, (IonAccessor) ionBuffer, ms2Tolerance, peptideLengthWithNC);
+    }
+
+    public static double calBinomialScorePValueSub(TreeMap<Double, Double> localPLMap, int localTopN, Binomial binomial, int localMaxMs2Charge, double[][] ionMatrix, double ms2Tolerance, int peptideLengthWithNC) throws Exception {
+        return calBinomialScorePValueSub(localPLMap, localTopN, binomial, localMaxMs2Charge, toIonAccessor(ionMatrix), ms2Tolerance, peptideLengthWithNC);
+    }
+
+    public static double calBinomialScorePValueSub(TreeMap<Double, Double> localPLMap, int localTopN, Binomial binomial, int localMaxMs2Charge, IonArrayBuffer ionBuffer, double ms2Tolerance, int peptideLengthWithNC) throws Exception {
+        return calBinomialScorePValueSub(localPLMap, localTopN, binomial, localMaxMs2Charge, (IonAccessor) ionBuffer, ms2Tolerance, peptideLengthWithNC);
+    }
+
+    public static double calAScore(TreeMap<Double, Double> plMap, int topN, Binomial binomial, TreeMap<Coordinate, Double> varPTMMap1, double[][] ionMatrix1, TreeMap<Coordinate, Double> varPTMMap2, double[][] ionMatrix2, double ms2Tolerance, int peptideLengthWithNC) throws Exception {
+        double finalAScore = -9999;
+        for (int localTopN = 1; localTopN <= topN; ++localTopN) {
+            TreeMap<Double, Double> localPLMap = PrepareSpectrum.topNStyleNormalization(plMap, localTopN);
+            double aScore = calAScoreSub(localPLMap, localTopN, binomial, varPTMMap1, ionMatrix1, varPTMMap2, ionMatrix2, ms2Tolerance, peptideLengthWithNC);
+            if (aScore > finalAScore) {
+                finalAScore = aScore;
+            }
+        }
+       return finalAScore;
+    }
+
+    public static double calAScoreSub(TreeMap<Double, Double> localPLMap, int localTopN, Binomial binomial, TreeMap<Coordinate, Double> varPTMMap1, double[][] ionMatrix1, TreeMap<Coordinate, Double> varPTMMap2, double[][] ionMatrix2, double ms2Tolerance, int peptideLengthWithNC) throws Exception {
+        TreeSet<Integer> totalAffectedBIonSet = new TreeSet<>();
+        TreeSet<Integer> totalAffectedYIonSet = new TreeSet<>();
+        if (varPTMMap2 == null) {
+            getAffectedIonSet(varPTMMap1, peptideLengthWithNC - 2, totalAffectedBIonSet, totalAffectedYIonSet); // don't delete two most outside ions because they are used to fix the location when there is no second peptide
+            Set<String> topMatchedPeakSet = getMatchedIonSet(ionMatrix1, localPLMap, ms2Tolerance, totalAffectedBIonSet, totalAffectedYIonSet);
+            return  -10 * Math.log10(binomial.calProbLargerThanOrEqualTo(totalAffectedBIonSet.size() + totalAffectedYIonSet.size(), topMatchedPeakSet.size(), localTopN * 0.01)); // todo: the p is not accurate, but we don't have a perfect solution.
+        } else {
+            getAffectedIonSet(varPTMMap1, peptideLengthWithNC - 2, totalAffectedBIonSet, totalAffectedYIonSet);
+            getAffectedIonSet(varPTMMap2, peptideLengthWithNC - 2, totalAffectedBIonSet, totalAffectedYIonSet);
+
+            // delete two most outside ions because they are not effected by the different PTM locations.
+            if (!totalAffectedBIonSet.contains(1)) {
+                totalAffectedBIonSet.pollFirst();
+            }
+            if (!totalAffectedBIonSet.contains(peptideLengthWithNC - 3)) {
+                totalAffectedBIonSet.pollLast();
+            }
+            if (!totalAffectedYIonSet.contains(1)) {
+                totalAffectedYIonSet.pollFirst();
+            }
+            if (!totalAffectedYIonSet.contains(peptideLengthWithNC - 3)) {
+                totalAffectedYIonSet.pollLast();
+            }
+
+            Set<String> topMatchedPeakSet = getMatchedIonSet(ionMatrix1, localPLMap, ms2Tolerance, totalAffectedBIonSet, totalAffectedYIonSet);
+            Set<String> secondMatchedPeakSet = getMatchedIonSet(ionMatrix2, localPLMap, ms2Tolerance, totalAffectedBIonSet, totalAffectedYIonSet);
+            return -10 * Math.log10(binomial.calProbLargerThanOrEqualTo(totalAffectedBIonSet.size() + totalAffectedYIonSet.size(), topMatchedPeakSet.size(), localTopN * 0.01)) + 10 * Math.log10(binomial.calProbLargerThanOrEqualTo(totalAffectedBIonSet.size() + totalAffectedYIonSet.size(), secondMatchedPeakSet.size(), localTopN * 0.01)); // todo: the p is not accurate, but we don't have a perfect solution.
+        }
+    }
+
+    public static int getMatchedIonNum(TreeMap<Double, Double> plMap, int localMaxMs2Charge, double[][] ionMatrix, double ms2Tolerance) {
+        return getMatchedIonNum(plMap, localMaxMs2Charge, toIonAccessor(ionMatrix), ms2Tolerance);
+    }
+
+    public static int getMatchedIonNum(TreeMap<Double, Double> plMap, int localMaxMs2Charge, IonArrayBuffer ionBuffer, double ms2Tolerance) {
+        return getMatchedIonNum(plMap, localMaxMs2Charge, (IonAccessor) ionBuffer, ms2Tolerance);
+    }
+
+    private static IonAccessor toIonAccessor(double[][] ionMatrix) {
+        return new IonAccessor() {
+            @Override
+            public int getRowNum() {
+                return ionMatrix.length;
+            }
+
+            @Override
+            public int getColNum() {
+                return ionMatrix[0].length;
+            }
+
+            @Override
+            public double get(int row, int col) {
+                return ionMatrix[row][col];
+            }
+        };
+    }
+
+    private static double calIonFraction(IonAccessor ions, int precursorCharge, Map<Double, Double> plMap, double ms2Tolerance) {
         int matchedPeakNum = 0;
-        int maxRow = Math.max(2, Math.min(ionMatrix.length, 2 * (precursorCharge - 1)));
-        int totalIonNum = ionMatrix[0].length * maxRow;
+        int colNum = ions.getColNum();
+        int maxRow = Math.max(2, Math.min(ions.getRowNum(), 2 * (precursorCharge - 1)));
+        int totalIonNum = colNum * maxRow;
         for (int i = 0; i < maxRow; ++i) {
-            for (int j = 0; j < ionMatrix[0].length; ++j) {
+            for (int j = 0; j < colNum; ++j) {
+                double ion = ions.get(i, j);
                 for (double mz : plMap.keySet()) {
-                    if (Math.abs(mz - ionMatrix[i][j]) <= ms2Tolerance) {
+                    if (Math.abs(mz - ion) <= ms2Tolerance) {
                         ++matchedPeakNum;
                         break;
                     }
@@ -40,10 +154,11 @@ public class Score {
         return (double) matchedPeakNum / (double) totalIonNum;
     }
 
-    public static double calMatchedHighestIntensityFraction(double[][] ionMatrix, int precursorCharge, Map<Double, Double> plMap, double ms2Tolerance) {
+    private static double calMatchedHighestIntensityFraction(IonAccessor ions, int precursorCharge, Map<Double, Double> plMap, double ms2Tolerance) {
         int matchedPeakNum = 0;
-        int maxRow = Math.max(2, Math.min(ionMatrix.length, 2 * (precursorCharge - 1)));
-        int totalIonNum = ionMatrix[0].length * maxRow;
+        int colNum = ions.getColNum();
+        int maxRow = Math.max(2, Math.min(ions.getRowNum(), 2 * (precursorCharge - 1)));
+        int totalIonNum = colNum * maxRow;
         Double[] intensityArray = plMap.values().toArray(new Double[0]);
         Arrays.sort(intensityArray, Collections.reverseOrder());
         double intensityT = 0;
@@ -52,9 +167,10 @@ public class Score {
         }
         int matchedHighestPeakNum = 0;
         for (int i = 0; i < maxRow; ++i) {
-            for (int j = 0; j < ionMatrix[0].length; ++j) {
+            for (int j = 0; j < colNum; ++j) {
+                double ion = ions.get(i, j);
                 for (double mz : plMap.keySet()) {
-                    if (Math.abs(mz - ionMatrix[i][j]) <= ms2Tolerance) {
+                    if (Math.abs(mz - ion) <= ms2Tolerance) {
                         if (plMap.get(mz) > intensityT) {
                             ++matchedHighestPeakNum;
                         }
@@ -72,15 +188,17 @@ public class Score {
         }
     }
 
-    public static double calExplainedAAFraction(double[][] ionMatrix, int precursorCharge, Map<Double, Double> plMap, double ms2Tolerance) {
+    private static double calExplainedAAFraction(IonAccessor ions, int precursorCharge, Map<Double, Double> plMap, double ms2Tolerance) {
+        int colNum = ions.getColNum();
         Set<Integer> matchedIdxSet = new HashSet<>(); // 0 if the mz = 0 peak; 1 is the peak generated by b1 ion...
         matchedIdxSet.add(0); // Add N-term automatically.
-        matchedIdxSet.add(ionMatrix[0].length); // Add C-term automatically because there is no need to observe the peak so that the last amino acid can be inferred.
-        int maxRow = Math.max(2, Math.min(ionMatrix.length, 2 * (precursorCharge - 1)));
+        matchedIdxSet.add(colNum); // Add C-term automatically because there is no need to observe the peak so that the last amino acid can be inferred.
+        int maxRow = Math.max(2, Math.min(ions.getRowNum(), 2 * (precursorCharge - 1)));
         for (int i = 0; i < maxRow; ++i) {
-            for (int j = 0; j < ionMatrix[0].length; ++j) {
+            for (int j = 0; j < colNum; ++j) {
+                double ion = ions.get(i, j);
                 for (double mz : plMap.keySet()) {
-                    if (Math.abs(mz - ionMatrix[i][j]) <= ms2Tolerance) {
+                    if (Math.abs(mz - ion) <= ms2Tolerance) {
                         if (i % 2 == 0) {
                             matchedIdxSet.add(j + 1);
                         } else {
@@ -105,14 +223,14 @@ public class Score {
                 }
             }
         }
-        return (double) explainedAaNum / (double) ionMatrix[0].length;
+        return (double) explainedAaNum / (double) colNum;
     }
 
-    public static double calBinomialScorePValue(TreeMap<Double, Double> plMap, int topN, Binomial binomial, int localMaxMs2Charge, double[][] ionMatrix, double ms2Tolerance, int peptideLengthWithNC) throws Exception { // calculate a p-value as Andromeda.s
+    private static double calBinomialScorePValue(TreeMap<Double, Double> plMap, int topN, Binomial binomial, int localMaxMs2Charge, IonAccessor ions, double ms2Tolerance, int peptideLengthWithNC) throws Exception {
         double finalPValue = 2;
         for (int localTopN = 1; localTopN <= topN; ++localTopN) {
             TreeMap<Double, Double> localPLMap = PrepareSpectrum.topNStyleNormalization(plMap, localTopN);
-            double pValue = calBinomialScorePValueSub(localPLMap, localTopN, binomial, localMaxMs2Charge, ionMatrix, ms2Tolerance, peptideLengthWithNC);
+            double pValue = calBinomialScorePValueSub(localPLMap, localTopN, binomial, localMaxMs2Charge, ions, ms2Tolerance, peptideLengthWithNC);
             if (pValue < finalPValue) {
                 finalPValue = pValue;
             }
@@ -120,60 +238,21 @@ public class Score {
         return finalPValue;
     }
 
-    public static double calBinomialScorePValueSub(TreeMap<Double, Double> localPLMap, int localTopN, Binomial binomial, int localMaxMs2Charge, double[][] ionMatrix, double ms2Tolerance, int peptideLengthWithNC) throws Exception {
-        int matchedIonNum = getMatchedIonNum(localPLMap, localMaxMs2Charge, ionMatrix, ms2Tolerance);
+    private static double calBinomialScorePValueSub(TreeMap<Double, Double> localPLMap, int localTopN, Binomial binomial, int localMaxMs2Charge, IonAccessor ions, double ms2Tolerance, int peptideLengthWithNC) throws Exception {
+        int matchedIonNum = getMatchedIonNum(localPLMap, localMaxMs2Charge, ions, ms2Tolerance);
         return binomial.calProbLargerThanOrEqualTo((peptideLengthWithNC - 2) * 2 * localMaxMs2Charge, matchedIonNum, localTopN * 0.01); // todo: the p is not accurate, but we don't have a perfect solution.
     }
 
-    public static double calAScore(TreeMap<Double, Double> plMap, int topN, Binomial binomial, TreeMap<Coordinate, Double> varPTMMap1, double[][] ionMatrix1, TreeMap<Coordinate, Double> varPTMMap2, double[][] ionMatrix2, double ms2Tolerance, int peptideLengthWithNC) throws Exception {
-        double finalAScore = -9999;
-        for (int localTopN = 1; localTopN <= topN; ++localTopN) {
-            TreeMap<Double, Double> localPLMap = PrepareSpectrum.topNStyleNormalization(plMap, localTopN);
-            double aScore = calAScoreSub(localPLMap, localTopN, binomial, varPTMMap1, ionMatrix1, varPTMMap2, ionMatrix2, ms2Tolerance, peptideLengthWithNC);
-            if (aScore > finalAScore) {
-                finalAScore = aScore;
-            }
+    private static int getMatchedIonNum(TreeMap<Double, Double> plMap, int localMaxMs2Charge, IonAccessor ions, double ms2Tolerance) {
+        if (localMaxMs2Charge * 2 > ions.getRowNum()) { // a reused IonArrayBuffer would give the ions of a previous peptide.
+            throw new IllegalArgumentException(String.format(Locale.US, "The max MS2 charge (%d) is larger than that of the ions (%d).", localMaxMs2Charge, ions.getRowNum() / 2));
         }
-       return finalAScore;
-    }
-
-    public static double calAScoreSub(TreeMap<Double, Double> localPLMap, int localTopN, Binomial binomial, TreeMap<Coordinate, Double> varPTMMap1, double[][] ionMatrix1, TreeMap<Coordinate, Double> varPTMMap2, double[][] ionMatrix2, double ms2Tolerance, int peptideLengthWithNC) throws Exception {
-        TreeSet<Integer> totalAffectedBIonSet = new TreeSet<>();
-        TreeSet<Integer> totalAffectedYIonSet = new TreeSet<>();
-        if (varPTMMap2 == null) {
-            getAffectedIonSet(varPTMMap1, peptideLengthWithNC - 2, totalAffectedBIonSet, totalAffectedYIonSet); // don't delete two most outside ions because they are used to fix the location when there is no second peptide
-            Set<String> topMatchedPeakSet = getMatchedIonSet(ionMatrix1, localPLMap, ms2Tolerance, totalAffectedBIonSet, totalAffectedYIonSet);
-            return  -10 * Math.log10(binomial.calProbLargerThanOrEqualTo(totalAffectedBIonSet.size() + totalAffectedYIonSet.size(), topMatchedPeakSet.size(), localTopN * 0.01)); // todo: the p is not accurate, but we don't have a perfect solution.
-        } else {
-            getAffectedIonSet(varPTMMap1, peptideLengthWithNC - 2, totalAffectedBIonSet, totalAffectedYIonSet);
-            getAffectedIonSet(varPTMMap2, peptideLengthWithNC - 2, totalAffectedBIonSet, totalAffectedYIonSet);
-
-            // delete two most outside ions because they are not effected by the different PTM locations.
-            if (!totalAffectedBIonSet.contains(1)) {
-                totalAffectedBIonSet.pollFirst();
-            }
-            if (!totalAffectedBIonSet.contains(peptideLengthWithNC - 3)) {
-                totalAffectedBIonSet.pollLast();
-            }
-            if (!totalAffectedYIonSet.contains(1)) {
-                totalAffectedYIonSet.pollFirst();
-            }
-            if (!totalAffectedYIonSet.contains(peptideLengthWithNC - 3)) {
-                totalAffectedYIonSet.pollLast();
-            }
-
-            Set<String> topMatchedPeakSet = getMatchedIonSet(ionMatrix1, localPLMap, ms2Tolerance, totalAffectedBIonSet, totalAffectedYIonSet);
-            Set<String> secondMatchedPeakSet = getMatchedIonSet(ionMatrix2, localPLMap, ms2Tolerance, totalAffectedBIonSet, totalAffectedYIonSet);
-            return -10 * Math.log10(binomial.calProbLargerThanOrEqualTo(totalAffectedBIonSet.size() + totalAffectedYIonSet.size(), topMatchedPeakSet.size(), localTopN * 0.01)) + 10 * Math.log10(binomial.calProbLargerThanOrEqualTo(totalAffectedBIonSet.size() + totalAffectedYIonSet.size(), secondMatchedPeakSet.size(), localTopN * 0.01)); // todo: the p is not accurate, but we don't have a perfect solution.
-        }
-    }
-
-    public static int getMatchedIonNum(TreeMap<Double, Double> plMap, int localMaxMs2Charge, double[][] ionMatrix, double ms2Tolerance) {
         int K1 = 0;
         for (int i = 0; i < localMaxMs2Charge * 2; ++i) {
-            for (int j = 0; j < ionMatrix[0].length; ++j) {
+            for (int j = 0; j < ions.getColNum(); ++j) {
+                double ion = ions.get(i, j);
                 for (double mz : plMap.keySet()) {
-                    if (Math.abs(mz - ionMatrix[i][j]) <= ms2Tolerance) {
+                    if (Math.abs(mz - ion) <= ms2Tolerance) {
                         ++K1;
                         break;
                     }
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018-2019 The Hong Kong University of Science and Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ProteomicsLibrary.Types;
+
+import java.util.Locale;
+
+public class CompiledPeptide {
+
+    public final char[] aaArray; // n and c are also AA.
+    public final double[] deltaMassArray;
+
+    public CompiledPeptide(char[] aaArray, double[] deltaMassArray) {
+        if (aaArray.length != deltaMassArray.length) {
+            throw new IllegalArgumentException(String.format(Locale.US, "The residue array length (%d) is different from the delta mass array length (%d).", aaArray.length, deltaMassArray.length));
+        }
+        this.aaArray = aaArray;
+        this.deltaMassArray = deltaMassArray;
+    }
+
+    public int length() {
+        return aaArray.length;
+    }
+
+    public boolean hasMod() {
+        for (double deltaMass : deltaMassArray) {
+            if (Math.abs(deltaMass) > 0.1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public AA[] toAAArray() {
+        AA[] output = new AA[aaArray.length];
+        for (int i = 0; i < aaArray.length; ++i) {
+            output[i] = new AA(aaArray[i], deltaMassArray[i]);
+        }
+        return output;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder(aaArray.length * 2);
+        for (int i = 0; i < aaArray.length; ++i) {
+            sb.append(new AA(aaArray[i], deltaMassArray[i]).toString());
+        }
+        return sb.toString();
+    }
+}
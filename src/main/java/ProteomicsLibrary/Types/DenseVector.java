@@ -0,0 +1,71 @@
+/*
+ * Copyright 2018-2019 The Hong Kong University of Science and Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ProteomicsLibrary.Types;
+
+public class DenseVector implements BinVector { // a vector indexed by the bin. Bins outside [0, maxIdx] are zero.
+
+    private final float[] denseVector;
+
+    public DenseVector(float[] denseVector) {
+        this.denseVector = denseVector;
+    }
+
+    public DenseVector(int length) {
+        denseVector = new float[length];
+    }
+
+    public double get(int i) {
+        if (i >= 0 && i < denseVector.length) {
+            return denseVector[i];
+        } else {
+            return 0;
+        }
+    }
+
+    public void put(int i, double v) {
+        denseVector[i] = (float) v;
+    }
+
+    public int getMaxIdx() {
+        return denseVector.length - 1;
+    }
+
+    public boolean isEmpty() {
+        for (float v : denseVector) {
+            if (v != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isNonzero(int i) {
+        return get(i) != 0;
+    }
+
+    public float[] getArray() {
+        return denseVector;
+    }
+
+    public SparseVector toSparseVector() {
+        SparseVector sparseVector = new SparseVector();
+        for (int i = 0; i < denseVector.length; ++i) {
+            sparseVector.put(i, denseVector[i]);
+        }
+        return sparseVector;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018-2019 The Hong Kong University of Science and Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ProteomicsLibrary.Types;
+
+public class IonArrayBuffer implements IonAccessor { // a reusable flat ion matrix: the ion in row i and column j is ionArray[i * colNum + j]. It is not thread-safe.
+
+    private static final ThreadLocal<IonArrayBuffer> threadLocalBuffer = ThreadLocal.withInitial(IonArrayBuffer::new);
+
+    private double[] ionArray = new double[0];
+    private double[] inverseChargeArray = new double[0];
+    private int[] binArray = new int[0];
+    private int rowNum = 0;
+    private int colNum = 0;
+
+    public static IonArrayBuffer forCurrentThread() {
+        return threadLocalBuffer.get();
+    }
+
+    public void reset(int rowNum, int colNum) { // the content is undefined after resetting.
+        int size = rowNum * colNum;
+        if (ionArray.length < size) {
+            ionArray = new double[Math.max(size, ionArray.length * 2)];
+        }
+        this.rowNum = rowNum;
+        this.colNum = colNum;
+    }
+
+    public double[] getInverseChargeArray(int maxCharge) {
+        if (inverseChargeArray.length < maxCharge) {
+            inverseChargeArray = new double[maxCharge];
+            for (int charge = 1; charge <= maxCharge; ++charge) {
+                inverseChargeArray[charge - 1] = (double) 1 / (double) charge;
+            }
+        }
+        return inverseChargeArray;
+    }
+
+    public int[] getBinArray(int size) { // a scratch array for the fragment bins. The content is undefined.
+        if (binArray.length < size) {
+            binArray = new int[Math.max(size, binArray.length * 2)];
+        }
+        return binArray;
+    }
+
+    public double get(int row, int col) {
+        return ionArray[row * colNum + col];
+    }
+
+    public double[] getIonArray() { // the backing array. It may be longer than rowNum * colNum.
+        return ionArray;
+    }
+
+    public int getRowNum() {
+        return rowNum;
+    }
+
+    public int getColNum() {
+        return colNum;
+    }
+
+    public double[][] toMatrix() {
+        double[][] output = new double[rowNum][colNum];
+        for (int i = 0; i < rowNum; ++i) {
+            System.arraycopy(ionArray, i * colNum, output[i], 0, colNum);
+        }
+        return output;
+    }
+}
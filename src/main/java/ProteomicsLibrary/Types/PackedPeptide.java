@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018-2019 The Hong Kong University of Science and Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ProteomicsLibrary.Types;
+
+public class PackedPeptide { // packs a peptide sequence (without n and c) into two longs: 5 bits per AA, 12 AAs per long. 'A' is 1 and 'Z' is 26. 0 means no AA so that different lengths never collide.
+
+    public static final int AA_PER_LONG = 12;
+    public static final int MAX_LENGTH = 2 * AA_PER_LONG;
+
+    public static boolean isPackable(CharSequence sequence, int start, int end) {
+        if (end - start <= 0 || end - start > MAX_LENGTH) {
+            return false;
+        }
+        for (int i = start; i < end; ++i) {
+            char aa = sequence.charAt(i);
+            if (aa < 'A' || aa > 'Z') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static long packHigh(CharSequence sequence, int start, int end) { // the first 12 AAs. Call isPackable() first.
+        return pack(sequence, start, Math.min(end, start + AA_PER_LONG));
+    }
+
+    public static long packLow(CharSequence sequence, int start, int end) { // the 13th to the 24th AAs. Call isPackable() first.
+        return pack(sequence, Math.min(end, start + AA_PER_LONG), end);
+    }
+
+    public static String unpack(long high, long low) {
+        StringBuilder sb = new StringBuilder(MAX_LENGTH);
+        unpack(high, sb);
+        unpack(low, sb);
+        return sb.toString();
+    }
+
+    public static int length(long high, long low) {
+        return length(high) + length(low);
+    }
+
+    private static long pack(CharSequence sequence, int start, int end) {
+        long output = 0;
+        for (int i = start; i < end; ++i) {
+            output = (output << 5) | (sequence.charAt(i) - 'A' + 1);
+        }
+        return output << (5 * (AA_PER_LONG - (end - start))); // left aligned
+    }
+
+    private static void unpack(long packed, StringBuilder sb) {
+        for (int i = AA_PER_LONG - 1; i >= 0; --i) {
+            int code = (int) ((packed >>> (5 * i)) & 31);
+            if (code == 0) {
+                break;
+            }
+            sb.append((char) ('A' + code - 1));
+        }
+    }
+
+    private static int length(long packed) {
+        int length = 0;
+        for (int i = AA_PER_LONG - 1; i >= 0; --i) {
+            if (((packed >>> (5 * i)) & 31) == 0) {
+                break;
+            }
+            ++length;
+        }
+        return length;
+    }
+
+    static int hash(long high, long low) {
+        long h = high * 0x9E3779B97F4A7C15L + low;
+        h ^= h >>> 32;
+        h *= 0xD6E8FEB86659FD93L;
+        h ^= h >>> 32;
+        return (int) h;
+    }
+
+    static int sequenceStart(String peptide) { // skip n
+        return peptide.startsWith("n") ? 1 : 0;
+    }
+
+    static int sequenceEnd(String peptide) { // skip c
+        return peptide.length() > 1 && peptide.endsWith("c") ? peptide.length() - 1 : peptide.length();
+    }
+}
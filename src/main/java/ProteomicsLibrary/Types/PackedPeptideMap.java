@@ -0,0 +1,173 @@
+/*
+ * Copyright 2018-2019 The Hong Kong University of Science and Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ProteomicsLibrary.Types;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+public class PackedPeptideMap<V> { // an open addressing map keyed by packed peptides. Peptides which cannot be packed are kept as Strings. It is not thread-safe.
+
+    private static final int MAX_CAPACITY = 1 << 30; // the largest power of 2 of an array length.
+
+    private long[] highArray;
+    private long[] lowArray;
+    private Object[] valueArray;
+    private int packedSize = 0;
+    private final Map<String, V> unpackedMap = new HashMap<>();
+
+    public PackedPeptideMap() {
+        this(16);
+    }
+
+    public PackedPeptideMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity < MAX_CAPACITY && capacity < (long) expectedSize * 2) { // in long to not overflow on a huge expectedSize.
+            capacity <<= 1;
+        }
+        highArray = new long[capacity];
+        lowArray = new long[capacity];
+        valueArray = new Object[capacity];
+    }
+
+    public V get(CharSequence sequence, int start, int end) { // sequence[start, end) without n and c.
+        if (PackedPeptide.isPackable(sequence, start, end)) {
+            int idx = indexOf(PackedPeptide.packHigh(sequence, start, end), PackedPeptide.packLow(sequence, start, end));
+            return idx >= 0 ? value(idx) : null;
+        } else {
+            return unpackedMap.get(sequence.subSequence(start, end).toString());
+        }
+    }
+
+    public V get(String peptide) { // the leading n and the trailing c are optional.
+        return get(peptide, PackedPeptide.sequenceStart(peptide), PackedPeptide.sequenceEnd(peptide));
+    }
+
+    public V put(CharSequence sequence, int start, int end, V value) {
+        if (PackedPeptide.isPackable(sequence, start, end)) {
+            return insert(PackedPeptide.packHigh(sequence, start, end), PackedPeptide.packLow(sequence, start, end), value);
+        } else {
+            return unpackedMap.put(sequence.subSequence(start, end).toString(), value);
+        }
+    }
+
+    public V put(String peptide, V value) {
+        return put(peptide, PackedPeptide.sequenceStart(peptide), PackedPeptide.sequenceEnd(peptide), value);
+    }
+
+    public V getOrCreate(CharSequence sequence, int start, int end, Supplier<V> supplier) { // the supplier is only called if the peptide is absent.
+        V value = get(sequence, start, end);
+        if (value == null) {
+            value = supplier.get();
+            put(sequence, start, end, value);
+        }
+        return value;
+    }
+
+    public boolean containsKey(CharSequence sequence, int start, int end) {
+        return get(sequence, start, end) != null;
+    }
+
+    public boolean containsKey(String peptide) {
+        return get(peptide) != null;
+    }
+
+    public int size() {
+        return packedSize + unpackedMap.size();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public void forEach(BiConsumer<String, V> consumer) { // peptides are decoded in the same format as MassTool.buildPeptideSet(), i.e. with n and c.
+        for (int i = 0; i < highArray.length; ++i) {
+            if (highArray[i] != 0 || lowArray[i] != 0) {
+                consumer.accept("n" + PackedPeptide.unpack(highArray[i], lowArray[i]) + "c", value(i));
+            }
+        }
+        for (Map.Entry<String, V> entry : unpackedMap.entrySet()) {
+            consumer.accept("n" + entry.getKey() + "c", entry.getValue());
+        }
+    }
+
+    public Map<String, V> toPeptideMap() {
+        Map<String, V> output = new HashMap<>(size() * 2);
+        forEach(output::put);
+        return output;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V value(int idx) {
+        return (V) valueArray[idx];
+    }
+
+    private V insert(long high, long low, V value) {
+        if ((packedSize + 1) * 2 > highArray.length) {
+            rehash(highArray.length * 2);
+        }
+        int mask = highArray.length - 1;
+        int idx = PackedPeptide.hash(high, low) & mask;
+        while (highArray[idx] != 0 || lowArray[idx] != 0) {
+            if (highArray[idx] == high && lowArray[idx] == low) {
+                V oldValue = value(idx);
+                valueArray[idx] = value;
+                return oldValue;
+            }
+            idx = (idx + 1) & mask;
+        }
+        highArray[idx] = high;
+        lowArray[idx] = low;
+        valueArray[idx] = value;
+        ++packedSize;
+        return null;
+    }
+
+    private int indexOf(long high, long low) {
+        int mask = highArray.length - 1;
+        int idx = PackedPeptide.hash(high, low) & mask;
+        while (highArray[idx] != 0 || lowArray[idx] != 0) {
+            if (highArray[idx] == high && lowArray[idx] == low) {
+                return idx;
+            }
+            idx = (idx + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldHighArray = highArray;
+        long[] oldLowArray = lowArray;
+        Object[] oldValueArray = valueArray;
+        highArray = new long[capacity];
+        lowArray = new long[capacity];
+        valueArray = new Object[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldHighArray.length; ++i) {
+            if (oldHighArray[i] != 0 || oldLowArray[i] != 0) {
+                int idx = PackedPeptide.hash(oldHighArray[i], oldLowArray[i]) & mask;
+                while (highArray[idx] != 0 || lowArray[idx] != 0) {
+                    idx = (idx + 1) & mask;
+                }
+                highArray[idx] = oldHighArray[i];
+                lowArray[idx] = oldLowArray[i];
+                valueArray[idx] = oldValueArray[i];
+            }
+        }
+    }
+}
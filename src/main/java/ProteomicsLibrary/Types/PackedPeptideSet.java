@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018-2019 The Hong Kong University of Science and Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ProteomicsLibrary.Types;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+public class PackedPeptideSet { // an open addressing set of packed peptides. Peptides which cannot be packed are kept as Strings. It is not thread-safe.
+
+    private static final int MAX_CAPACITY = 1 << 30; // the largest power of 2 of an array length.
+
+    private long[] highArray;
+    private long[] lowArray;
+    private int packedSize = 0;
+    private final Set<String> unpackedSet = new HashSet<>();
+
+    public PackedPeptideSet() {
+        this(16);
+    }
+
+    public PackedPeptideSet(int expectedSize) {
+        int capacity = 16;
+        while (capacity < MAX_CAPACITY && capacity < (long) expectedSize * 2) { // in long to not overflow on a huge expectedSize.
+            capacity <<= 1;
+        }
+        highArray = new long[capacity];
+        lowArray = new long[capacity];
+    }
+
+    public boolean add(CharSequence sequence, int start, int end) { // sequence[start, end) without n and c.
+        if (PackedPeptide.isPackable(sequence, start, end)) {
+            if ((packedSize + 1) * 2 > highArray.length) {
+                rehash(highArray.length * 2);
+            }
+            return insert(PackedPeptide.packHigh(sequence, start, end), PackedPeptide.packLow(sequence, start, end));
+        } else {
+            return unpackedSet.add(sequence.subSequence(start, end).toString());
+        }
+    }
+
+    public boolean add(String peptide) { // the leading n and the trailing c are optional.
+        return add(peptide, PackedPeptide.sequenceStart(peptide), PackedPeptide.sequenceEnd(peptide));
+    }
+
+    public boolean contains(CharSequence sequence, int start, int end) {
+        if (PackedPeptide.isPackable(sequence, start, end)) {
+            return indexOf(PackedPeptide.packHigh(sequence, start, end), PackedPeptide.packLow(sequence, start, end)) >= 0;
+        } else {
+            return unpackedSet.contains(sequence.subSequence(start, end).toString());
+        }
+    }
+
+    public boolean contains(String peptide) {
+        return contains(peptide, PackedPeptide.sequenceStart(peptide), PackedPeptide.sequenceEnd(peptide));
+    }
+
+    public void addAll(PackedPeptideSet other) {
+        for (int i = 0; i < other.highArray.length; ++i) {
+            if (other.highArray[i] != 0 || other.lowArray[i] != 0) {
+                if ((packedSize + 1) * 2 > highArray.length) {
+                    rehash(highArray.length * 2);
+                }
+                insert(other.highArray[i], other.lowArray[i]);
+            }
+        }
+        unpackedSet.addAll(other.unpackedSet);
+    }
+
+    public int size() {
+        return packedSize + unpackedSet.size();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(highArray, 0);
+        Arrays.fill(lowArray, 0);
+        packedSize = 0;
+        unpackedSet.clear();
+    }
+
+    public void forEachPeptide(Consumer<String> consumer) { // peptides are decoded in the same format as MassTool.buildPeptideSet(), i.e. with n and c.
+        for (int i = 0; i < highArray.length; ++i) {
+            if (highArray[i] != 0 || lowArray[i] != 0) {
+                consumer.accept("n" + PackedPeptide.unpack(highArray[i], lowArray[i]) + "c");
+            }
+        }
+        for (String sequence : unpackedSet) {
+            consumer.accept("n" + sequence + "c");
+        }
+    }
+
+    public Set<String> toPeptideSet() {
+        Set<String> output = new HashSet<>(size() * 2);
+        forEachPeptide(output::add);
+        return output;
+    }
+
+    private boolean insert(long high, long low) {
+        int mask = highArray.length - 1;
+        int idx = PackedPeptide.hash(high, low) & mask;
+        while (highArray[idx] != 0 || lowArray[idx] != 0) {
+            if (highArray[idx] == high && lowArray[idx] == low) {
+                return false;
+            }
+            idx = (idx + 1) & mask;
+        }
+        highArray[idx] = high;
+        lowArray[idx] = low;
+        ++packedSize;
+        return true;
+    }
+
+    private int indexOf(long high, long low) {
+        int mask = highArray.length - 1;
+        int idx = PackedPeptide.hash(high, low) & mask;
+        while (highArray[idx] != 0 || lowArray[idx] != 0) {
+            if (highArray[idx] == high && lowArray[idx] == low) {
+                return idx;
+            }
+            idx = (idx + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldHighArray = highArray;
+        long[] oldLowArray = lowArray;
+        highArray = new long[capacity];
+        lowArray = new long[capacity];
+        packedSize = 0;
+        for (int i = 0; i < oldHighArray.length; ++i) {
+            if (oldHighArray[i] != 0 || oldLowArray[i] != 0) {
+                insert(oldHighArray[i], oldLowArray[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,488 @@
+/*
+ * Copyright 2018-2019 The Hong Kong University of Science and Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ProteomicsLibrary.Types;
+
+import com.google.common.collect.*;
+
+import java.util.*;
+
+public class PeptideProteinMapping { // peptides and proteins are interned to dense int IDs in alphabetical order. The peptide -> proteins relation is in the compressed sparse row (CSR) layout, and the protein -> peptides relation is built on demand. It is immutable and thread-safe.
+
+    private final String[] peptideArray;
+    private final String[] proteinArray;
+    private final int[] proteinOffsetArray; // the proteins of peptide i are proteinIdArray[proteinOffsetArray[i], proteinOffsetArray[i + 1]), ascending
+    private final int[] proteinIdArray;
+    private volatile int[][] inverseArray; // {peptideOffsetArray, peptideIdArray}
+
+    public PeptideProteinMapping(Multimap<String, String> peptideProteinMap) {
+        this(new ArrayList<>(peptideProteinMap.keySet()), new ArrayList<>(new HashSet<>(peptideProteinMap.values())), peptideProteinMap);
+    }
+
+    private PeptideProteinMapping(List<String> peptideList, List<String> proteinList, Multimap<String, String> peptideProteinMap) {
+        this(peptideList, proteinList, toPeptideIdArray(peptideList, peptideProteinMap), toProteinIdArray(proteinList, peptideList, peptideProteinMap), peptideProteinMap.size());
+    }
+
+    public PeptideProteinMapping(List<String> peptideList, List<String> proteinList, int[] pairPeptideIdArray, int[] pairProteinIdArray, int pairNum) { // the i-th pair is (peptideList[pairPeptideIdArray[i]], proteinList[pairProteinIdArray[i]]). Duplicated pairs are merged. The IDs are renumbered alphabetically.
+        peptideArray = peptideList.toArray(new String[0]);
+        proteinArray = proteinList.toArray(new String[0]);
+        int[] peptideIdMap = sortAndRenumber(peptideArray);
+        int[] proteinIdMap = sortAndRenumber(proteinArray);
+
+        proteinOffsetArray = new int[peptideArray.length + 1];
+        for (int i = 0; i < pairNum; ++i) {
+            ++proteinOffsetArray[peptideIdMap[pairPeptideIdArray[i]] + 1];
+        }
+        for (int i = 0; i < peptideArray.length; ++i) {
+            proteinOffsetArray[i + 1] += proteinOffsetArray[i];
+        }
+        int[] tempArray = new int[pairNum];
+        int[] cursorArray = Arrays.copyOf(proteinOffsetArray, peptideArray.length);
+        for (int i = 0; i < pairNum; ++i) {
+            tempArray[cursorArray[peptideIdMap[pairPeptideIdArray[i]]]++] = proteinIdMap[pairProteinIdArray[i]];
+        }
+
+        // sort each row and merge duplicates in place.
+        int mappingNum = 0;
+        for (int i = 0; i < peptideArray.length; ++i) {
+            int start = proteinOffsetArray[i];
+            int end = proteinOffsetArray[i + 1];
+            Arrays.sort(tempArray, start, end);
+            proteinOffsetArray[i] = mappingNum;
+            for (int j = start; j < end; ++j) {
+                if (j == start || tempArray[j] != tempArray[j - 1]) {
+                    tempArray[mappingNum++] = tempArray[j];
+                }
+            }
+        }
+        proteinOffsetArray[peptideArray.length] = mappingNum;
+        proteinIdArray = mappingNum == pairNum ? tempArray : Arrays.copyOf(tempArray, mappingNum);
+    }
+
+    public int getPeptideNum() {
+        return peptideArray.length;
+    }
+
+    public int getProteinNum() {
+        return proteinArray.length;
+    }
+
+    public int getMappingNum() {
+        return proteinIdArray.length;
+    }
+
+    public String getPeptide(int peptideId) {
+        return peptideArray[peptideId];
+    }
+
+    public String getProtein(int proteinId) {
+        return proteinArray[proteinId];
+    }
+
+    public int getPeptideId(String peptide) { // -1 if it is absent.
+        int idx = Arrays.binarySearch(peptideArray, peptide);
+        return idx >= 0 ? idx : -1;
+    }
+
+    public int getProteinId(String protein) { // -1 if it is absent.
+        int idx = Arrays.binarySearch(proteinArray, protein);
+        return idx >= 0 ? idx : -1;
+    }
+
+    public int getProteinStart(int peptideId) { // the proteins of a peptide are getProteinIdAt(offset) for offset in [getProteinStart(), getProteinEnd()).
+        return proteinOffsetArray[peptideId];
+    }
+
+    public int getProteinEnd(int peptideId) {
+        return proteinOffsetArray[peptideId + 1];
+    }
+
+    public int getProteinIdAt(int offset) {
+        return proteinIdArray[offset];
+    }
+
+    public int getPeptideStart(int proteinId) { // the peptides of a protein are getPeptideIdAt(offset) for offset in [getPeptideStart(), getPeptideEnd()). The inverse relation is built in the first call.
+        return getInverseArray()[0][proteinId];
+    }
+
+    public int getPeptideEnd(int proteinId) {
+        return getInverseArray()[0][proteinId + 1];
+    }
+
+    public int getPeptideIdAt(int offset) {
+        return getInverseArray()[1][offset];
+    }
+
+    public boolean containsMapping(int peptideId, int proteinId) {
+        return Arrays.binarySearch(proteinIdArray, proteinOffsetArray[peptideId], proteinOffsetArray[peptideId + 1], proteinId) >= 0;
+    }
+
+    public SetMultimap<String, String> asMultimap() { // a read-only view without copying the mapping.
+        return new MultimapView();
+    }
+
+    private int[][] getInverseArray() {
+        int[][] localArray = inverseArray;
+        if (localArray == null) {
+            synchronized (this) {
+                localArray = inverseArray;
+                if (localArray == null) {
+                    int[] peptideOffsetArray = new int[proteinArray.length + 1];
+                    for (int proteinId : proteinIdArray) {
+                        ++peptideOffsetArray[proteinId + 1];
+                    }
+                    for (int i = 0; i < proteinArray.length; ++i) {
+                        peptideOffsetArray[i + 1] += peptideOffsetArray[i];
+                    }
+                    int[] peptideIdArray = new int[proteinIdArray.length];
+                    int[] cursorArray = Arrays.copyOf(peptideOffsetArray, proteinArray.length);
+                    for (int peptideId = 0; peptideId < peptideArray.length; ++peptideId) { // the peptides of each protein are ascending.
+                        for (int offset = proteinOffsetArray[peptideId]; offset < proteinOffsetArray[peptideId + 1]; ++offset) {
+                            peptideIdArray[cursorArray[proteinIdArray[offset]]++] = peptideId;
+                        }
+                    }
+                    localArray = new int[][]{peptideOffsetArray, peptideIdArray};
+                    inverseArray = localArray;
+                }
+            }
+        }
+        return localArray;
+    }
+
+    private static int[] sortAndRenumber(String[] array) { // sorts the array in place and returns old ID -> new ID.
+        Integer[] orderArray = new Integer[array.length];
+        for (int i = 0; i < array.length; ++i) {
+            orderArray[i] = i;
+        }
+        String[] oldArray = array.clone();
+        Arrays.sort(orderArray, Comparator.comparing((Integer i) -> oldArray[i]));
+        int[] idMap = new int[array.length];
+        for (int i = 0; i < array.length; ++i) {
+            idMap[orderArray[i]] = i;
+            array[i] = oldArray[orderArray[i]];
+        }
+        for (int i = 1; i < array.length; ++i) {
+            if (array[i].contentEquals(array[i - 1])) {
+                throw new IllegalArgumentException(String.format(Locale.US, "%s appears more than once.", array[i]));
+            }
+        }
+        return idMap;
+    }
+
+    private static int[] toPeptideIdArray(List<String> peptideList, Multimap<String, String> peptideProteinMap) {
+        int[] pairPeptideIdArray = new int[peptideProteinMap.size()];
+        int idx = 0;
+        for (int i = 0; i < peptideList.size(); ++i) {
+            for (int j = 0; j < peptideProteinMap.get(peptideList.get(i)).size(); ++j) {
+                pairPeptideIdArray[idx++] = i;
+            }
+        }
+        return pairPeptideIdArray;
+    }
+
+    private static int[] toProteinIdArray(List<String> proteinList, List<String> peptideList, Multimap<String, String> peptideProteinMap) { // in the same order as toPeptideIdArray().
+        Map<String, Integer> proteinIdMap = new HashMap<>(proteinList.size() * 2);
+        for (int i = 0; i < proteinList.size(); ++i) {
+            proteinIdMap.put(proteinList.get(i), i);
+        }
+        int[] pairProteinIdArray = new int[peptideProteinMap.size()];
+        int idx = 0;
+        for (String peptide : peptideList) {
+            for (String protein : peptideProteinMap.get(peptide)) {
+                pairProteinIdArray[idx++] = proteinIdMap.get(protein);
+            }
+        }
+        return pairProteinIdArray;
+    }
+
+    private class MultimapView implements SetMultimap<String, String> {
+
+        @Override
+        public int size() {
+            return proteinIdArray.length;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return proteinIdArray.length == 0;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && getPeptideId((String) key) >= 0;
+        }
+
+        @Override
+        public boolean containsValue(Object value) {
+            return value instanceof String && getProteinId((String) value) >= 0;
+        }
+
+        @Override
+        public boolean containsEntry(Object key, Object value) {
+            if (key instanceof String && value instanceof String) {
+                int peptideId = getPeptideId((String) key);
+                int proteinId = getProteinId((String) value);
+                return peptideId >= 0 && proteinId >= 0 && containsMapping(peptideId, proteinId);
+            }
+            return false;
+        }
+
+        @Override
+        public Set<String> get(String key) {
+            int peptideId = key == null ? -1 : getPeptideId(key);
+            return peptideId >= 0 ? new ProteinSet(peptideId) : Collections.emptySet();
+        }
+
+        @Override
+        public Set<String> keySet() {
+            return Collections.unmodifiableSet(new AbstractSet<String>() {
+                @Override
+                public Iterator<String> iterator() {
+                    return Arrays.asList(peptideArray).iterator();
+                }
+
+                @Override
+                public int size() {
+                    return peptideArray.length;
+                }
+
+                @Override
+                public boolean contains(Object object) {
+                    return containsKey(object);
+                }
+            });
+        }
+
+        @Override
+        public Multiset<String> keys() { // the only copying view.
+            ImmutableMultiset.Builder<String> builder = ImmutableMultiset.builder();
+            for (int peptideId = 0; peptideId < peptideArray.length; ++peptideId) {
+                builder.addCopies(peptideArray[peptideId], getProteinEnd(peptideId) - getProteinStart(peptideId));
+            }
+            return builder.build();
+        }
+
+        @Override
+        public Collection<String> values() {
+            return Collections.unmodifiableCollection(new AbstractCollection<String>() {
+                @Override
+                public Iterator<String> iterator() {
+                    return new Iterator<String>() {
+                        private int offset = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return offset < proteinIdArray.length;
+                        }
+
+                        @Override
+                        public String next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            return proteinArray[proteinIdArray[offset++]];
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return proteinIdArray.length;
+                }
+            });
+        }
+
+        @Override
+        public Set<Map.Entry<String, String>> entries() {
+            return Collections.unmodifiableSet(new AbstractSet<Map.Entry<String, String>>() {
+                @Override
+                public Iterator<Map.Entry<String, String>> iterator() {
+                    return new Iterator<Map.Entry<String, String>>() {
+                        private int peptideId = 0;
+                        private int offset = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return offset < proteinIdArray.length;
+                        }
+
+                        @Override
+                        public Map.Entry<String, String> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            while (offset >= proteinOffsetArray[peptideId + 1]) {
+                                ++peptideId;
+                            }
+                            return Maps.immutableEntry(peptideArray[peptideId], proteinArray[proteinIdArray[offset++]]);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return proteinIdArray.length;
+                }
+
+                @Override
+                public boolean contains(Object object) {
+                    return object instanceof Map.Entry && containsEntry(((Map.Entry<?, ?>) object).getKey(), ((Map.Entry<?, ?>) object).getValue());
+                }
+            });
+        }
+
+        @Override
+        public Map<String, Collection<String>> asMap() {
+            return Collections.unmodifiableMap(new AbstractMap<String, Collection<String>>() {
+                @Override
+                public Set<Map.Entry<String, Collection<String>>> entrySet() {
+                    return new AbstractSet<Map.Entry<String, Collection<String>>>() {
+                        @Override
+                        public Iterator<Map.Entry<String, Collection<String>>> iterator() {
+                            return new Iterator<Map.Entry<String, Collection<String>>>() {
+                                private int peptideId = 0;
+
+                                @Override
+                                public boolean hasNext() {
+                                    return peptideId < peptideArray.length;
+                                }
+
+                                @Override
+                                public Map.Entry<String, Collection<String>> next() {
+                                    if (!hasNext()) {
+                                        throw new NoSuchElementException();
+                                    }
+                                    Map.Entry<String, Collection<String>> entry = Maps.immutableEntry(peptideArray[peptideId], new ProteinSet(peptideId));
+                                    ++peptideId;
+                                    return entry;
+                                }
+                            };
+                        }
+
+                        @Override
+                        public int size() {
+                            return peptideArray.length;
+                        }
+                    };
+                }
+
+                @Override
+                public boolean containsKey(Object key) {
+                    return MultimapView.this.containsKey(key);
+                }
+
+                @Override
+                public Collection<String> get(Object key) {
+                    int peptideId = key instanceof String ? getPeptideId((String) key) : -1;
+                    return peptideId >= 0 ? new ProteinSet(peptideId) : null;
+                }
+            });
+        }
+
+        @Override
+        public boolean put(String key, String value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean remove(Object key, Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean putAll(String key, Iterable<? extends String> values) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean putAll(Multimap<? extends String, ? extends String> multimap) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Set<String> replaceValues(String key, Iterable<? extends String> values) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Set<String> removeAll(Object key) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            return object == this || (object instanceof Multimap && asMap().equals(((Multimap<?, ?>) object).asMap()));
+        }
+
+        @Override
+        public int hashCode() {
+            return asMap().hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return asMap().toString();
+        }
+    }
+
+    private class ProteinSet extends AbstractSet<String> { // the read-only proteins of a peptide.
+
+        private final int peptideId;
+
+        private ProteinSet(int peptideId) {
+            this.peptideId = peptideId;
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return new Iterator<String>() {
+                private int offset = proteinOffsetArray[peptideId];
+
+                @Override
+                public boolean hasNext() {
+                    return offset < proteinOffsetArray[peptideId + 1];
+                }
+
+                @Override
+                public String next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return proteinArray[proteinIdArray[offset++]];
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return proteinOffsetArray[peptideId + 1] - proteinOffsetArray[peptideId];
+        }
+
+        @Override
+        public boolean contains(Object object) {
+            if (object instanceof String) {
+                int proteinId = getProteinId((String) object);
+                return proteinId >= 0 && containsMapping(peptideId, proteinId);
+            }
+            return false;
+        }
+    }
+}
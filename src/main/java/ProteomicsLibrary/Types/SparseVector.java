@@ -18,7 +18,7 @@ package ProteomicsLibrary.Types;
 
 import java.util.*;
 
-public class SparseVector {
+public class SparseVector implements BinVector {
 
     private Map<Integer, Double> sparseVector = new HashMap<>();
 
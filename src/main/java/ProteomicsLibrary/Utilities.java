@@ -79,4 +79,14 @@ public class Utilities {
             return new String[]{fileName, ""};
         }
     }
+
+    public static long calFnv1aHash(CharSequence sequence, int start, int end, boolean l2i) { // 64-bit FNV-1a of the chars in sequence[start, end). l2i: hash L as I. The callers mix the bits further if they need it.
+        long hash = 0xcbf29ce484222325L;
+        for (int i = start; i < end; ++i) {
+            char c = sequence.charAt(i);
+            hash ^= (l2i && c == 'L') ? 'I' : c;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018-2019 The Hong Kong University of Science and Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ProteomicsLibrary;
+
+import ProteomicsLibrary.Types.CompiledPeptide;
+
+import java.util.Locale;
+import java.util.Map;
+
+public class VarModEnumerator { // enumerates the variable modification forms of a peptide with at most maxModNum modifications and with the mass (MassTool.calResidueMass() + H2O) in a window. There is at most one variable modification on a residue. It is thread-safe.
+
+    private final MassTool massTool;
+    private final double[][] deltaMassTable = new double[128][]; // AA -> the delta masses of its variable modifications, n and c included
+    private final int maxModNum;
+    private final double maxPositiveDeltaMass;
+    private final double minNegativeDeltaMass;
+
+    public VarModEnumerator(MassTool massTool, Map<Character, double[]> varModMap, int maxModNum) { // varModMap: AA (n and c for the termini) -> delta masses. The fixed modifications are in massTool.
+        if (maxModNum < 0) {
+            throw new IllegalArgumentException(String.format(Locale.US, "The max modification number (%d) is negative.", maxModNum));
+        }
+        this.massTool = massTool;
+        this.maxModNum = maxModNum;
+        double maxPositive = 0;
+        double minNegative = 0;
+        for (Map.Entry<Character, double[]> entry : varModMap.entrySet()) {
+            char aa = entry.getKey();
+            if (aa >= 128) {
+                throw new IllegalArgumentException(String.format(Locale.US, "%c is not an amino acid.", aa));
+            }
+            if (entry.getValue().length > 0) {
+                deltaMassTable[aa] = entry.getValue().clone();
+                for (double deltaMass : deltaMassTable[aa]) {
+                    maxPositive = Math.max(maxPositive, deltaMass);
+                    minNegative = Math.min(minNegative, deltaMass);
+                }
+            }
+        }
+        maxPositiveDeltaMass = maxPositive;
+        minNegativeDeltaMass = minNegative;
+    }
+
+    public int enumerate(String peptide, double minMass, double maxMass, ModifiedPeptideConsumer consumer) {
+        return enumerate(MassTool.compilePeptide(peptide), minMass, maxMass, consumer);
+    }
+
+    public int enumerate(CompiledPeptide peptide, double minMass, double maxMass, ModifiedPeptideConsumer consumer) { // the unmodified form is also emitted if its mass is in the window. Residues which already have a delta mass are not modified again. All forms share peptide.aaArray. Returns the number of emitted forms.
+        int length = peptide.length();
+        double baseMass = massTool.calResidueMass(peptide) + massTool.H2O;
+
+        // the bounds of the delta mass which the residues in [i, length) can still add, ignoring maxModNum.
+        double[] suffixMaxArray = new double[length + 1];
+        double[] suffixMinArray = new double[length + 1];
+        for (int i = length - 1; i >= 0; --i) {
+            double max = 0;
+            double min = 0;
+            double[] deltaMassArray = getDeltaMassArray(peptide, i);
+            if (deltaMassArray != null) {
+                for (double deltaMass : deltaMassArray) {
+                    max = Math.max(max, deltaMass);
+                    min = Math.min(min, deltaMass);
+                }
+            }
+            suffixMaxArray[i] = suffixMaxArray[i + 1] + max;
+            suffixMinArray[i] = suffixMinArray[i + 1] + min;
+        }
+
+        double[] deltaMassArray = peptide.deltaMassArray.clone();
+        return search(peptide, 0, 0, baseMass, minMass, maxMass, deltaMassArray, suffixMaxArray, suffixMinArray, consumer);
+    }
+
+    private int search(CompiledPeptide peptide, int position, int modNum, double mass, double minMass, double maxMass, double[] deltaMassArray, double[] suffixMaxArray, double[] suffixMinArray, ModifiedPeptideConsumer consumer) {
+        int leftModNum = maxModNum - modNum;
+        if (mass + Math.min(suffixMaxArray[position], leftModNum * maxPositiveDeltaMass) < minMass || mass + Math.max(suffixMinArray[position], leftModNum * minNegativeDeltaMass) > maxMass) {
+            return 0;
+        }
+
+        // move to the next modifiable residue.
+        while (position < peptide.length() && (leftModNum == 0 || getDeltaMassArray(peptide, position) == null)) {
+            ++position;
+        }
+        if (position == peptide.length()) {
+            if (mass >= minMass && mass <= maxMass) {
+                consumer.accept(new CompiledPeptide(peptide.aaArray, deltaMassArray.clone()), mass, modNum);
+                return 1;
+            }
+            return 0;
+        }
+
+        int emittedNum = search(peptide, position + 1, modNum, mass, minMass, maxMass, deltaMassArray, suffixMaxArray, suffixMinArray, consumer);
+        for (double deltaMass : getDeltaMassArray(peptide, position)) {
+            deltaMassArray[position] = deltaMass;
+            emittedNum += search(peptide, position + 1, modNum + 1, mass + deltaMass, minMass, maxMass, deltaMassArray, suffixMaxArray, suffixMinArray, consumer);
+        }
+        deltaMassArray[position] = 0;
+        return emittedNum;
+    }
+
+    private double[] getDeltaMassArray(CompiledPeptide peptide, int position) { // null if the residue cannot be modified.
+        char aa = peptide.aaArray[position];
+        if (aa >= 128 || peptide.deltaMassArray[position] != 0) {
+            return null;
+        }
+        return deltaMassTable[aa];
+    }
+
+    public interface ModifiedPeptideConsumer {
+        void accept(CompiledPeptide peptide, double mass, int modNum);
+    }
+}
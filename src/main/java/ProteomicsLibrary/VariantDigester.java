@@ -0,0 +1,216 @@
+/*
+ * Copyright 2018-2019 The Hong Kong University of Science and Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ProteomicsLibrary;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+
+import java.util.*;
+
+public class VariantDigester { // digests the single amino acid variants of a protein (ReadNextprot.Entry.locationVariantMap) without building the variant proteins. Only the peptides containing all variants of a combination are visited, and they are the same as those of BuildIndex.digestProtein() on the variant protein. It is thread-safe.
+
+    private static final char STOP = '*';
+
+    private final MassTool massTool;
+    private final int minPeptideLength;
+    private final int maxPeptideLength;
+    private final double minPeptideMass;
+    private final double maxPeptideMass;
+    private final int maxVariantNum; // per peptide
+    private final int maxCombinationNum; // per protein
+
+    public VariantDigester(MassTool massTool, int minPeptideLength, int maxPeptideLength, double minPeptideMass, double maxPeptideMass, int maxVariantNum, int maxCombinationNum) { // the same bounds as BuildIndex. Variants closer than maxPeptideLength are combined into one peptide up to maxVariantNum. At most maxCombinationNum combinations of a protein are digested.
+        this.massTool = massTool;
+        this.minPeptideLength = minPeptideLength;
+        this.maxPeptideLength = maxPeptideLength;
+        this.minPeptideMass = minPeptideMass;
+        this.maxPeptideMass = maxPeptideMass;
+        this.maxVariantNum = maxVariantNum;
+        this.maxCombinationNum = maxCombinationNum;
+    }
+
+    public void digest(ReadNextprot.Entry entry, MassTool.PeptideVisitor visitor) {
+        digest(entry.id, entry.sequence, entry.locationVariantMap, visitor);
+    }
+
+    public void digest(String protein, String proteinSequence, Multimap<Integer, Character> locationVariantMap, MassTool.PeptideVisitor visitor) { // locations start from 1. A variant to '*' truncates the protein so that only the new C-terminal peptides are visited. The visited proteinSequence is a variant segment of the protein.
+        int length = proteinSequence.length();
+        TreeMap<Integer, char[]> positionVariantMap = new TreeMap<>();
+        for (int location : locationVariantMap.keySet()) {
+            int position = location - 1;
+            if (position >= 0 && position < length) {
+                StringBuilder sb = new StringBuilder(locationVariantMap.get(location).size());
+                for (char aa : new TreeSet<>(locationVariantMap.get(location))) {
+                    if (aa != proteinSequence.charAt(position)) {
+                        sb.append(aa);
+                    }
+                }
+                if (sb.length() > 0) {
+                    positionVariantMap.put(position, sb.toString().toCharArray());
+                }
+            }
+        }
+        if (positionVariantMap.isEmpty()) {
+            return;
+        }
+        int[] positionArray = new int[positionVariantMap.size()];
+        char[][] variantArray = new char[positionVariantMap.size()][];
+        int idx = 0;
+        for (Map.Entry<Integer, char[]> entry : positionVariantMap.entrySet()) {
+            positionArray[idx] = entry.getKey();
+            variantArray[idx] = entry.getValue();
+            ++idx;
+        }
+
+        // the cut points of the first enzyme in the reference. A variant only changes the cut points next to it.
+        CleavageRule cleavageRule1 = massTool.getCleavageRule1();
+        int[] cutPointArray = new int[length + 1];
+        int cutPointNum = 0;
+        cutPointArray[cutPointNum++] = 0;
+        for (int i = 1; i < length; ++i) {
+            if (cleavageRule1.isCutPoint(proteinSequence, 0, length, i)) {
+                cutPointArray[cutPointNum++] = i;
+            }
+        }
+        if (length > 0) {
+            cutPointArray[cutPointNum++] = length;
+        }
+
+        Combination combination = new Combination(protein, proteinSequence, positionArray, variantArray, Arrays.copyOf(cutPointArray, cutPointNum), visitor);
+        for (int i = 0; i < positionArray.length && combination.combinationNum < maxCombinationNum; ++i) {
+            combination.search(i, 0);
+        }
+    }
+
+    public Multimap<String, String> buildVariantPeptideProteinMap(Collection<ReadNextprot.Entry> entryCollection) { // in the same format as BuildIndex.getTargetPeptideProteinMap().
+        Multimap<String, String> peptideProteinMap = HashMultimap.create();
+        for (ReadNextprot.Entry entry : entryCollection) {
+            digest(entry, (protein, proteinSequence, start, end) -> peptideProteinMap.put("n" + proteinSequence.substring(start, end) + "c", protein));
+        }
+        return peptideProteinMap;
+    }
+
+    private class Combination { // the chosen variants of one protein, searched in the order of the positions.
+
+        private final String protein;
+        private final String proteinSequence;
+        private final int[] positionArray;
+        private final char[][] variantArray;
+        private final int[] cutPointArray;
+        private final MassTool.PeptideVisitor visitor;
+        private final int[] chosenIdxArray = new int[Math.max(maxVariantNum, 0)];
+        private final char[] chosenAaArray = new char[Math.max(maxVariantNum, 0)];
+        private int combinationNum = 0;
+
+        private Combination(String protein, String proteinSequence, int[] positionArray, char[][] variantArray, int[] cutPointArray, MassTool.PeptideVisitor visitor) {
+            this.protein = protein;
+            this.proteinSequence = proteinSequence;
+            this.positionArray = positionArray;
+            this.variantArray = variantArray;
+            this.cutPointArray = cutPointArray;
+            this.visitor = visitor;
+        }
+
+        private void search(int positionIdx, int chosenNum) { // chooses the variant at positionIdx and then the later ones.
+            if (chosenNum >= maxVariantNum) {
+                return;
+            }
+            chosenIdxArray[chosenNum] = positionIdx;
+            for (char aa : variantArray[positionIdx]) {
+                if (combinationNum >= maxCombinationNum) {
+                    return;
+                }
+                chosenAaArray[chosenNum] = aa;
+                ++combinationNum;
+                digestCombination(chosenNum + 1);
+                if (aa != STOP) { // nothing after a stop can be in the same peptide.
+                    for (int nextIdx = positionIdx + 1; nextIdx < positionArray.length && positionArray[nextIdx] - positionArray[chosenIdxArray[0]] < maxPeptideLength; ++nextIdx) {
+                        search(nextIdx, chosenNum + 1);
+                    }
+                }
+            }
+        }
+
+        private void digestCombination(int chosenNum) {
+            int firstPosition = positionArray[chosenIdxArray[0]];
+            int lastPosition = positionArray[chosenIdxArray[chosenNum - 1]];
+            boolean truncated = chosenAaArray[chosenNum - 1] == STOP;
+            int missedCleavage = massTool.getMissedCleavage();
+
+            // the window is bounded by unchanged cut points. There are missedCleavage + 1 of them on each side so that no peptide containing the variants crosses the window.
+            int idx = upperBound(firstPosition - 1) - 1 - missedCleavage;
+            int windowStart = idx > 0 ? cutPointArray[idx] : 0;
+            int windowEnd;
+            if (truncated) {
+                windowEnd = lastPosition;
+            } else {
+                idx = lowerBound(lastPosition + 2) + missedCleavage;
+                windowEnd = idx < cutPointArray.length ? cutPointArray[idx] : proteinSequence.length();
+            }
+            if (windowEnd <= windowStart) {
+                return;
+            }
+
+            // peptides from the leading M digestions of BuildIndex.digestProtein() start in [0, leadingMEnd] of the variant protein.
+            int leadingMEnd = 0;
+            while (leadingMEnd < windowEnd && charAt(leadingMEnd, chosenNum) == 'M') {
+                ++leadingMEnd;
+            }
+            if (windowStart <= leadingMEnd) {
+                windowStart = 0;
+            }
+
+            char[] windowArray = new char[windowEnd - windowStart];
+            for (int i = windowStart; i < windowEnd; ++i) {
+                windowArray[i - windowStart] = charAt(i, chosenNum);
+            }
+
+            String window = String.valueOf(windowArray);
+            int firstIdx = firstPosition - windowStart;
+            int lastIdx = lastPosition - windowStart;
+            MassTool.PeptideVisitor filter = (protein2, proteinSequence2, start, end) -> {
+                if (start <= firstIdx && (truncated ? end == lastIdx : end > lastIdx)) {
+                    visitor.visit(protein2, proteinSequence2, start, end);
+                }
+            };
+            if (windowStart == 0) {
+                BuildIndex.digestProtein(massTool, protein, window, minPeptideLength, maxPeptideLength, minPeptideMass, maxPeptideMass, filter);
+            } else {
+                massTool.digestRange(protein, window, 0, window.length(), minPeptideLength, maxPeptideLength, minPeptideMass, maxPeptideMass, filter);
+            }
+        }
+
+        private char charAt(int position, int chosenNum) { // in the variant protein without the truncation.
+            for (int i = 0; i < chosenNum; ++i) {
+                if (positionArray[chosenIdxArray[i]] == position && chosenAaArray[i] != STOP) {
+                    return chosenAaArray[i];
+                }
+            }
+            return proteinSequence.charAt(position);
+        }
+
+        private int lowerBound(int position) { // the first cut point >= position
+            int idx = Arrays.binarySearch(cutPointArray, position);
+            return idx >= 0 ? idx : -idx - 1;
+        }
+
+        private int upperBound(int position) { // the first cut point > position
+            int idx = Arrays.binarySearch(cutPointArray, position);
+            return idx >= 0 ? idx + 1 : -idx - 1;
+        }
+    }
+}
@@ -16,13 +16,21 @@
 
 package ProteomicsLibrary;
 
+import ProteomicsLibrary.Types.PackedPeptideMap;
+import ProteomicsLibrary.Types.PeptideProteinMapping;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.nio.file.Path;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
 import java.util.Map;
 
 import static org.junit.Assert.*;
@@ -31,6 +39,9 @@ public class BuildIndexTest {
 
     private static Map<String, String> proteinSequenceMap;
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Before
     public void setUp() {
         proteinSequenceMap = new HashMap<>();
@@ -78,4 +89,79 @@ public class BuildIndexTest {
             assertTrue(groundTruthSet.containsAll(resultSet));
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void buildPackedTargetPeptideProteinMap() {
+        Multimap<String, String> groundTruth = new BuildIndex(proteinSequenceMap, "KR", "P", true, null, null, null, 1).getTargetPeptideProteinMap();
+        PackedPeptideMap<List<String>> results = BuildIndex.buildPackedTargetPeptideProteinMap(proteinSequenceMap, "KR", "P", true, null, null, null, 1);
+        assertEquals(groundTruth.keySet().size(), results.size());
+        results.forEach((peptide, proteinList) -> {
+            assertEquals(groundTruth.get(peptide).size(), proteinList.size());
+            assertTrue(groundTruth.get(peptide).containsAll(proteinList));
+        });
+        assertEquals(2, results.get("nSDSRc").size());
+
+        proteinSequenceMap.put("pro7", "MMM");
+        results = BuildIndex.buildPackedTargetPeptideProteinMap(proteinSequenceMap, "KR", "P", true, null, null, null, 1);
+        assertEquals(Collections.singletonList("pro7"), results.get("nMMMc"));
+        assertEquals(Collections.singletonList("pro7"), results.get("nMc"));
+        assertTrue(new BuildIndex(proteinSequenceMap, "KR", "P", true, null, null, null, 1).getTargetPeptideProteinMap().containsEntry("nMMc", "pro7"));
+    }
+
+    @Test
+    public void parallelBuild() {
+        Map<String, String> randomSequenceMap = RandomProteome.generate(new Random(1), "random", 500, 0, 300);
+        for (int i = 0; i < 500; ++i) {
+            proteinSequenceMap.put("random" + i, (i % 3 == 0 ? "MM" : "") + randomSequenceMap.get("random" + i));
+        }
+        Multimap<String, String> groundTruth = new BuildIndex(proteinSequenceMap, "KR", "P", true, "D", "-", false, 2).getTargetPeptideProteinMap();
+        for (int threadNum : new int[]{2, 4, 7}) {
+            assertEquals(groundTruth, new BuildIndex(proteinSequenceMap, "KR", "P", true, "D", "-", false, 2, threadNum).getTargetPeptideProteinMap());
+        }
+
+        MassTool massTool = new MassTool(2, "KR", "P", true, "D", "-", false, 0.02, 1, "N14");
+        Multimap<String, String> boundedGroundTruth = HashMultimap.create();
+        for (Map.Entry<String, String> entry : groundTruth.entries()) {
+            double mass = massTool.calResidueMass(entry.getKey()) + massTool.H2O;
+            if (entry.getKey().length() - 2 >= 7 && entry.getKey().length() - 2 <= 20 && mass >= 800 && mass <= 2000) {
+                boundedGroundTruth.put(entry.getKey(), entry.getValue());
+            }
+        }
+        assertFalse(boundedGroundTruth.isEmpty());
+        for (int threadNum : new int[]{1, 4}) {
+            assertEquals(boundedGroundTruth, new BuildIndex(proteinSequenceMap, "KR", "P", true, "D", "-", false, 2, 7, 20, 800, 2000, threadNum).getTargetPeptideProteinMap());
+        }
+        assertTrue(new BuildIndex(new HashMap<>(), "KR", "P", true, null, null, null, 2, 4).getTargetPeptideProteinMap().isEmpty());
+    }
+
+    @Test
+    public void incrementalBuild() throws Exception {
+        Multimap<String, String> previousMap = new BuildIndex(proteinSequenceMap, "KR", "P", true, null, null, null, 1).getTargetPeptideProteinMap();
+        Map<String, Long> previousManifest = BuildIndex.buildManifest(proteinSequenceMap);
+
+        proteinSequenceMap.remove("pro1"); // nSDSRc is still in pro2
+        proteinSequenceMap.put("pro2", "SDSKKSDSRDSSKAAR"); // edited
+        proteinSequenceMap.put("pro7", "MSDSRGGK"); // added
+        BuildIndex buildIndex = new BuildIndex(previousMap, previousManifest, proteinSequenceMap, "KR", "P", true, null, null, null, 1, 0, Integer.MAX_VALUE, 0, Double.MAX_VALUE);
+        assertEquals(new BuildIndex(proteinSequenceMap, "KR", "P", true, null, null, null, 1).getTargetPeptideProteinMap(), buildIndex.getTargetPeptideProteinMap());
+        assertEquals(2, buildIndex.getDigestedProteinNum());
+        assertFalse(buildIndex.getTargetPeptideProteinMap().containsValue("pro1"));
+
+        Path path = temporaryFolder.getRoot().toPath().resolve("manifest.tsv");
+        BuildIndex.writeManifest(path, previousManifest, "parameters");
+        assertEquals(previousManifest, BuildIndex.readManifest(path, "parameters"));
+        assertTrue(BuildIndex.readManifest(path, "other parameters").isEmpty());
+        assertTrue(BuildIndex.readManifest(temporaryFolder.getRoot().toPath().resolve("absent.tsv"), "parameters").isEmpty());
+    }
+
+    @Test
+    public void buildTargetPeptideProteinMapping() {
+        proteinSequenceMap.put("pro7", "MMM");
+        Multimap<String, String> groundTruth = new BuildIndex(proteinSequenceMap, "KR", "P", true, "D", "-", false, 2).getTargetPeptideProteinMap();
+        PeptideProteinMapping mapping = BuildIndex.buildTargetPeptideProteinMapping(proteinSequenceMap, "KR", "P", true, "D", "-", false, 2, 0, Integer.MAX_VALUE, 0, Double.MAX_VALUE);
+        assertEquals(groundTruth.size(), mapping.getMappingNum());
+        BuildIndex buildIndex = new BuildIndex(mapping);
+        assertEquals(groundTruth, buildIndex.getTargetPeptideProteinMap());
+        assertSame(mapping, buildIndex.getTargetPeptideProteinMapping());
+    }
+}
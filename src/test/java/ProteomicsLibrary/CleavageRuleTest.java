@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018-2019 The Hong Kong University of Science and Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ProteomicsLibrary;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class CleavageRuleTest {
+
+    @Test
+    public void digest() {
+        String[][] ruleArray = new String[][]{{"KR", "P"}, {"KR", "-"}, {"D", "P"}, {"D", "-"}, {"FYWL", "P"}, {"K", "KP"}};
+        Random random = new Random(1);
+        String aaString = "KRPDFYWLAMS";
+        for (String[] rule : ruleArray) {
+            for (boolean cleavageFromCTerm : new boolean[]{true, false}) {
+                Pattern pattern = MassTool.getDigestSitePattern(rule[0], rule[1], cleavageFromCTerm);
+                CleavageRule cleavageRule = new CleavageRule(rule[0], rule[1], cleavageFromCTerm);
+                for (int k = 0; k < 200; ++k) {
+                    int length = random.nextInt(40);
+                    StringBuilder sb = new StringBuilder(length);
+                    for (int i = 0; i < length; ++i) {
+                        sb.append(aaString.charAt(random.nextInt(aaString.length())));
+                    }
+                    String sequence = sb.toString();
+                    int start = length == 0 ? 0 : random.nextInt(length);
+                    int end = start + random.nextInt(length - start + 1);
+                    List<int[]> groundTruth = regexDigest(sequence.substring(start, end), pattern, cleavageFromCTerm, 2);
+                    List<int[]> result = new ArrayList<>();
+                    cleavageRule.digest(sequence, start, end, 2, (s, e, missedCleavageNum) -> result.add(new int[]{s - start, e - start, missedCleavageNum}));
+                    assertEquals(groundTruth.size(), result.size());
+                    for (int i = 0; i < groundTruth.size(); ++i) {
+                        assertArrayEquals(groundTruth.get(i), result.get(i));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void isCutSiteResidue() {
+        String[][] ruleArray = new String[][]{{"KR", "P"}, {"D", "-"}, {"K", "KP"}};
+        Random random = new Random(1);
+        String aaString = "KRPDAMS";
+        for (String[] rule : ruleArray) {
+            for (boolean cleavageFromCTerm : new boolean[]{true, false}) {
+                Pattern pattern = MassTool.getDigestSitePattern(rule[0], rule[1], cleavageFromCTerm);
+                CleavageRule cleavageRule = new CleavageRule(rule[0], rule[1], cleavageFromCTerm);
+                for (int k = 0; k < 100; ++k) {
+                    StringBuilder sb = new StringBuilder();
+                    for (int i = random.nextInt(30); i > 0; --i) {
+                        sb.append(aaString.charAt(random.nextInt(aaString.length())));
+                    }
+                    String sequence = sb.toString();
+                    Set<Integer> groundTruth = new HashSet<>();
+                    Matcher matcher = pattern.matcher(sequence);
+                    while (matcher.find()) {
+                        groundTruth.add(matcher.start());
+                    }
+                    for (int idx = 0; idx < sequence.length(); ++idx) {
+                        assertEquals(sequence + " " + idx, groundTruth.contains(idx), cleavageRule.isCutSiteResidue(sequence, 0, sequence.length(), idx));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void nestedDigest() {
+        CleavageRule cleavageRule1 = new CleavageRule("KR", "P", true);
+        CleavageRule cleavageRule2 = new CleavageRule("D", "-", false);
+        String sequence = "MSDDFKDEDRPDKPSSDKKDF";
+        Set<String> result = new HashSet<>();
+        cleavageRule1.digest(sequence, 0, sequence.length(), 1, (start, end, missedCleavageNum) -> cleavageRule2.digest(sequence, start, end, 1 - missedCleavageNum, (start2, end2, missedCleavageNum2) -> result.add(sequence.substring(start2, end2))));
+        Set<String> groundTruth = new HashSet<>();
+        for (int[] range : regexDigest(sequence, MassTool.getDigestSitePattern("KR", "P", true), true, 1)) {
+            String subString = sequence.substring(range[0], range[1]);
+            for (int[] range2 : regexDigest(subString, MassTool.getDigestSitePattern("D", "-", false), false, 1 - range[2])) {
+                groundTruth.add(subString.substring(range2[0], range2[1]));
+            }
+        }
+        assertTrue(groundTruth.contains("DRPDKPSS"));
+        assertEquals(groundTruth, result);
+    }
+
+    private static List<int[]> regexDigest(String sequence, Pattern pattern, boolean cleavageFromCTerm, int missedCleavage) {
+        TreeSet<Integer> cutPointSet = new TreeSet<>();
+        cutPointSet.add(0);
+        Matcher matcher = pattern.matcher(sequence);
+        while (matcher.find()) {
+            cutPointSet.add(cleavageFromCTerm ? matcher.end() : matcher.start());
+        }
+        cutPointSet.add(sequence.length());
+        Integer[] cutPointArray = cutPointSet.toArray(new Integer[0]);
+        List<int[]> output = new ArrayList<>();
+        for (int time = 0; time <= missedCleavage; ++time) {
+            for (int i = 0; i + 1 + time < cutPointArray.length; ++i) {
+                output.add(new int[]{cutPointArray[i], cutPointArray[i + 1 + time], time});
+            }
+        }
+        return output;
+    }
+}
@@ -19,17 +19,28 @@ package ProteomicsLibrary;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.TreeMultimap;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class DbToolTest {
     private static DbTool db_tool_obj;
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Before
     public void setUp() throws Exception {
         db_tool_obj = new DbTool(Thread.currentThread().getContextClassLoader().getResource("test.fasta").getPath(), "Others");
@@ -217,4 +228,89 @@ public class DbToolTest {
         assertEquals(2, DbTool.getMissedCleavageNum("nDJINDNIKJNINNKOOIOKMMDc", "DE", "-", false));
         assertEquals(0, DbTool.getMissedCleavageNum("nDJINONIKJNINNKOOIOKMMLc", "DE", "-", false));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void readFasta() throws IOException {
+        // line breaks of all kinds, blank lines, surrounding white spaces, ">" lines which are not headers, non-ASCII chars, a protein without a body, and lines spanning two chunks.
+        Random random = new Random(1);
+        String[] lineBreakArray = new String[]{"\n", "\r\n", "\r", "\n\n", " \t\n"};
+        StringBuilder sb = new StringBuilder();
+        sb.append("  \n");
+        for (int i = 0; i < 300; ++i) {
+            sb.append(i % 7 == 3 ? " >" : ">").append(i % 5 == 0 ? "sp|P" + i + "|NAME_HUMAN  Protein\u00e9 " + i : "pro" + i + " desc " + i).append(lineBreakArray[random.nextInt(lineBreakArray.length)]);
+            if (i % 50 == 7) {
+                continue; // no body
+            }
+            int lineNum = i == 100 ? 80000 : 1 + random.nextInt(5);
+            for (int j = 0; j < lineNum; ++j) {
+                if (random.nextInt(20) == 0) {
+                    sb.append(">").append(lineBreakArray[random.nextInt(lineBreakArray.length)]);
+                }
+                sb.append(j % 11 == 5 ? "\t" : "").append(i % 13 == 0 ? "ACD\u00dfEF" : "").append("MKWVTFISLLFLFSSAYSRGVFRRDAHKSEVAHRFKDLGEENFKALVLIAFAQYLQQCPF", 0, 1 + random.nextInt(60)).append(lineBreakArray[random.nextInt(lineBreakArray.length)]);
+            }
+        }
+        sb.append("LASTLINE");
+        Path path = temporaryFolder.newFile("test.fasta").toPath();
+        Files.write(path, sb.toString().getBytes(java.nio.charset.Charset.defaultCharset()));
+        assertTrue(Files.size(path) > 2 << 20);
+
+        for (String databaseType : new String[]{"TAIR", "UniProt", "nextprot", "refseq", "Others"}) {
+            Map<String, String> proteinSequenceMap = new HashMap<>();
+            Map<String, String> proteinAnnotateMap = new HashMap<>();
+            readFastaByLine(path.toString(), databaseType, proteinSequenceMap, proteinAnnotateMap);
+            DbTool dbTool = new DbTool(path.toString(), databaseType);
+            assertEquals(databaseType, proteinSequenceMap, dbTool.getProteinSequenceMap());
+            assertEquals(databaseType, proteinAnnotateMap, dbTool.getProteinAnnotateMap());
+        }
+
+        Path emptyPath = temporaryFolder.newFile("empty.fasta").toPath();
+        assertEquals(Collections.singletonMap("", ""), new DbTool(emptyPath.toString(), "uniprot").getProteinSequenceMap());
+
+        String missingName = temporaryFolder.getRoot().toPath().resolve("missing.fasta").toString();
+        try {
+            new DbTool(missingName, "uniprot");
+            fail();
+        } catch (FileNotFoundException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().startsWith(missingName));
+        }
+    }
+
+    private static void readFastaByLine(String dbName, String databaseType, Map<String, String> proteinSequenceMap, Map<String, String> proteinAnnotateMap) throws IOException { // the reference line-based reader
+        String id = "";
+        StringBuilder sequence = new StringBuilder();
+        databaseType = databaseType.trim().toLowerCase();
+        boolean newPro = true;
+        Pattern headerPattern;
+        if (databaseType.contentEquals("tair")) {
+            headerPattern = Pattern.compile("^>([^\\s]+)[\\s|]*(.*)$");
+        } else if (databaseType.contentEquals("nextprot")) {
+            headerPattern = Pattern.compile("^>([^ ]+) *(.*)");
+        } else if (databaseType.contentEquals("others")) {
+            headerPattern = Pattern.compile("^>(.+)$");
+        } else {
+            headerPattern = Pattern.compile("^>([^ ]+) *(.*)$");
+        }
+        try (BufferedReader dbReader = new BufferedReader(new FileReader(dbName))) {
+            String line;
+            while ((line = dbReader.readLine()) != null) {
+                line = line.trim();
+                Matcher headMatcher = headerPattern.matcher(line);
+                if (headMatcher.matches()) {
+                    if (!newPro) {
+                        proteinSequenceMap.put(id, sequence.toString());
+                    }
+                    id = headMatcher.group(1).trim();
+                    proteinAnnotateMap.put(id, databaseType.contentEquals("others") ? id : headMatcher.group(2).trim());
+                    newPro = true;
+                } else if (!line.isEmpty()) {
+                    if (newPro) {
+                        sequence = new StringBuilder();
+                        newPro = false;
+                    }
+                    sequence.append(line);
+                }
+            }
+        }
+        proteinSequenceMap.put(id, sequence.toString());
+    }
+}
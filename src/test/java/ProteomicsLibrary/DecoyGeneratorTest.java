@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018-2019 The Hong Kong University of Science and Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ProteomicsLibrary;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class DecoyGeneratorTest {
+
+    @Test
+    public void generate() {
+        assertEquals("MFEDCBAK", new DecoyGenerator("KR", "P", true, DecoyGenerator.Mode.REVERSE, 0).generate("pro", "MKABCDEF"));
+        assertEquals("MBAKPDCREF", new DecoyGenerator("KR", "P", true, DecoyGenerator.Mode.PSEUDO_REVERSE, 0).generate("pro", "MABKCDPRFE"));
+        assertEquals("CPKBAR", new DecoyGenerator("KR", "P", true, DecoyGenerator.Mode.PSEUDO_REVERSE, 0).generate("pro", "ABKPCR")); // KP is not a site.
+        assertEquals("DCBAKFE", new DecoyGenerator("KR", "P", true, DecoyGenerator.Mode.PSEUDO_REVERSE, 0).generate("pro", "ABCDKEF"));
+        assertEquals("CBKADFE", new DecoyGenerator("D", "-", false, DecoyGenerator.Mode.PSEUDO_REVERSE, 0).generate("pro", "AKBCDEF"));
+
+        Map<String, String> proteinSequenceMap = RandomProteome.generate(new Random(1), "pro", 300, 0, 300);
+        Pattern pattern = MassTool.getDigestSitePattern("KR", "P", true);
+        for (DecoyGenerator.Mode mode : DecoyGenerator.Mode.values()) {
+            DecoyGenerator decoyGenerator = new DecoyGenerator("KR", "P", true, mode, 7);
+            Map<String, String> decoySequenceMap = decoyGenerator.generate(proteinSequenceMap, 1);
+            for (int threadNum : new int[]{2, 5}) {
+                assertEquals(decoySequenceMap, decoyGenerator.generate(proteinSequenceMap, threadNum));
+            }
+            assertEquals(decoySequenceMap, new DecoyGenerator("KR", "P", true, mode, 7).generate(new TreeMap<>(proteinSequenceMap), 3));
+            for (String protein : proteinSequenceMap.keySet()) {
+                String sequence = proteinSequenceMap.get(protein);
+                String decoySequence = decoySequenceMap.get(protein);
+                char[] targetArray = sequence.toCharArray();
+                char[] decoyArray = decoySequence.toCharArray();
+                Arrays.sort(targetArray);
+                Arrays.sort(decoyArray);
+                assertArrayEquals(targetArray, decoyArray);
+                if (mode != DecoyGenerator.Mode.REVERSE) { // the sites stay in place.
+                    String sequenceToBeShuffled = sequence.startsWith("M") ? sequence.substring(1) : sequence;
+                    Matcher matcher = pattern.matcher(sequenceToBeShuffled);
+                    while (matcher.find()) {
+                        int idx = matcher.start() + sequence.length() - sequenceToBeShuffled.length();
+                        assertEquals(sequence.charAt(idx), decoySequence.charAt(idx));
+                    }
+                }
+            }
+        }
+        assertNotEquals(new DecoyGenerator("KR", "P", true, DecoyGenerator.Mode.FISHER_YATES, 7).generate(proteinSequenceMap, 1), new DecoyGenerator("KR", "P", true, DecoyGenerator.Mode.FISHER_YATES, 8).generate(proteinSequenceMap, 1));
+    }
+
+    @Test
+    public void removeCollision() {
+        MassTool massTool = new MassTool(1, "KR", "P", true, null, null, null, 0.02, 1, "N14");
+        Map<String, String> proteinSequenceMap = new HashMap<>();
+        proteinSequenceMap.put("pro1", "MAGGAKLPPLRCDDCKWEEWR"); // palindromic ranges are their own pseudo-reverse.
+        proteinSequenceMap.put("pro2", "MSTTSKQNNQRAGGAK");
+        Set<String> targetPeptideSet = new HashSet<>();
+        for (String protein : proteinSequenceMap.keySet()) {
+            BuildIndex.digestProtein(massTool, protein, proteinSequenceMap.get(protein), 3, 30, 0, 5000, (protein2, proteinSequence, start, end) -> targetPeptideSet.add(proteinSequence.substring(start, end)));
+        }
+        PeptideHashSet peptideHashSet = new PeptideHashSet(targetPeptideSet, true);
+
+        Map<String, String> decoySequenceMap = new DecoyGenerator("KR", "P", true, DecoyGenerator.Mode.PSEUDO_REVERSE, 7).generate(proteinSequenceMap, 1);
+        assertEquals(proteinSequenceMap, decoySequenceMap);
+
+        DecoyGenerator decoyGenerator = new DecoyGenerator("KR", "P", true, DecoyGenerator.Mode.PSEUDO_REVERSE, 7, massTool, peptideHashSet, 3, 30, 0, 5000);
+        decoySequenceMap = decoyGenerator.generate(proteinSequenceMap, 2);
+        assertEquals(decoySequenceMap, decoyGenerator.generate(proteinSequenceMap, 1));
+        for (String protein : proteinSequenceMap.keySet()) {
+            String sequence = proteinSequenceMap.get(protein);
+            String decoySequence = decoySequenceMap.get(protein);
+            char[] targetArray = sequence.toCharArray();
+            char[] decoyArray = decoySequence.toCharArray();
+            Arrays.sort(targetArray);
+            Arrays.sort(decoyArray);
+            assertArrayEquals(targetArray, decoyArray);
+            BuildIndex.digestProtein(massTool, protein, decoySequence, 3, 30, 0, 5000, (protein2, proteinSequence, start, end) -> assertFalse(proteinSequence.substring(start, end), targetPeptideSet.contains(proteinSequence.substring(start, end))));
+        }
+    }
+}
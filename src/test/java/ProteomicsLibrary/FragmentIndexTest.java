@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018-2019 The Hong Kong University of Science and Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ProteomicsLibrary;
+
+import ProteomicsLibrary.Types.IonArrayBuffer;
+import ProteomicsLibrary.Types.SparseVector;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class FragmentIndexTest {
+
+    @Test
+    public void query() {
+        Random random = new Random(1);
+        Map<String, String> proteinSequenceMap = RandomProteome.generate(random, "pro", 100, 50, 200);
+        MassTool massTool = new MassTool(1, "KR", "P", true, null, null, null, 1.0005 * 0.5, 0.6, "N14");
+        PrepareSpectrum prepareSpectrum = new PrepareSpectrum(massTool);
+        PeptideMassIndex peptideMassIndex = new BuildIndex(proteinSequenceMap, "KR", "P", true, null, null, null, 1).buildPeptideMassIndex(massTool);
+        FragmentIndex fragmentIndex = new FragmentIndex(peptideMassIndex, massTool, 2);
+        assertSame(peptideMassIndex, fragmentIndex.getPeptideMassIndex());
+
+        int[] sharedPeakNumArray = new int[peptideMassIndex.size()];
+        double[] summedIntensityArray = new double[peptideMassIndex.size()];
+        for (int k = 0; k < 20; ++k) {
+            // a spectrum made of some fragments of a peptide and some noise
+            String peptide = peptideMassIndex.getPeptide(peptideMassIndex.getOrdinal(random.nextInt(peptideMassIndex.size())));
+            double[][] ionMatrix = massTool.buildIonArray(MassTool.compilePeptide(peptide), 1, new IonArrayBuffer()).toMatrix(); // the single-AA peptide is not supported by buildIonArray(String, int)
+            TreeMap<Double, Double> plMap = new TreeMap<>();
+            for (double[] ionArray : ionMatrix) {
+                for (double ion : ionArray) {
+                    if (random.nextBoolean()) {
+                        plMap.put(ion, 1 + random.nextDouble());
+                    }
+                }
+            }
+            for (int i = 0; i < 30; ++i) {
+                plMap.put(200 + random.nextDouble() * 1500, random.nextDouble());
+            }
+            SparseVector digitizedPL = prepareSpectrum.digitizePL(plMap);
+
+            double precursorMass = massTool.calResidueMass(peptide) + massTool.H2O;
+            int startRank = peptideMassIndex.lowerBound(precursorMass - 500);
+            int endRank = peptideMassIndex.upperBound(precursorMass + 500);
+            Arrays.fill(sharedPeakNumArray, -1);
+            int matchedNum = fragmentIndex.query(digitizedPL, precursorMass - 500, precursorMass + 500, sharedPeakNumArray, summedIntensityArray);
+            int groundTruthMatchedNum = 0;
+            for (int rank = startRank; rank < endRank; ++rank) {
+                double[][] candidateIonMatrix = massTool.buildIonArray(MassTool.compilePeptide(peptideMassIndex.getPeptide(peptideMassIndex.getOrdinal(rank))), 2, new IonArrayBuffer()).toMatrix();
+                Set<Integer> binSet = new HashSet<>();
+                for (double[] ionArray : candidateIonMatrix) {
+                    for (double ion : ionArray) {
+                        binSet.add(massTool.mzToBin(ion));
+                    }
+                }
+                int sharedPeakNum = 0;
+                double summedIntensity = 0;
+                for (int bin : binSet) {
+                    if (digitizedPL.isNonzero(bin)) {
+                        ++sharedPeakNum;
+                        summedIntensity += digitizedPL.get(bin);
+                    }
+                }
+                if (sharedPeakNum > 0) {
+                    ++groundTruthMatchedNum;
+                }
+                assertEquals(sharedPeakNum, sharedPeakNumArray[rank - startRank]);
+                assertEquals(summedIntensity, summedIntensityArray[rank - startRank], 1e-9);
+            }
+            assertEquals(groundTruthMatchedNum, matchedNum);
+        }
+        assertEquals(0, fragmentIndex.getPostingNum(-1));
+        assertEquals(0, fragmentIndex.getPostingNum(Integer.MAX_VALUE - 1));
+    }
+}
@@ -86,6 +86,19 @@ public class MassToolTest {
         assertEquals(-5, massTool.mzToBin(-5), 1e-6);
     }
 
+    @Test
+    public void buildPackedChainSet() {
+        String[] sequenceArray = new String[]{"MRGFASSASRIATAAAASKPSLNASTSVNPKLSKTMDYMRIFSVFVVTLWIIRVDARVFKTY", "MRGFACSSASRIATAAAASKPSLNCASTSVNPKLSKTMDYMRICFSVFVVTLWIIRVDARVFKTY", "AKCDKPCDRCKEFGHIKLMCNPQR"};
+        MassTool[] massToolArray = new MassTool[]{new MassTool(1, fixModMap, "KR", "P", true, null, null, null, 1.0005 * 0.5, 0.6, "N14"), new MassTool(2, fixModMap, "D", "-", false, null, null, null, 1.0005 * 0.5, 0.6, "N14"), new MassTool(2, fixModMap, "KR", "P", true, "D", "-", false, 1.0005 * 0.5, 0.6, "N14")};
+        for (MassTool massTool : massToolArray) {
+            for (String sequence : sequenceArray) {
+                for (short linkerType : new short[]{1, 2}) {
+                    assertEquals(massTool.buildChainSet(sequence, linkerType), massTool.buildPackedChainSet(sequence, linkerType).toPeptideSet());
+                }
+            }
+        }
+    }
+
     @Test
     public void buildChainSet() {
         MassTool massTool = new MassTool(1, fixModMap, "KR", "P", true, null, null, null, 1.0005 * 0.5, 0.6, "N14");
@@ -337,6 +350,76 @@ public class MassToolTest {
         assertArrayEquals(groundTruthArray, resultArray);
     }
 
+    @Test
+    public void buildPackedPeptideSet() {
+        String proteinSequence = "MRGFASSASRIATAAAASKPSLNASTSVNPKLSKTMDYMRIFSVFVVTLWIIRVDARVFKTY";
+        MassTool[] massToolArray = new MassTool[]{
+                new MassTool(2, "KR", "P", true, null, null, null, 1.0005 * 0.5, 0.6, "N14"),
+                new MassTool(2, "D", "-", false, null, null, null, 1.0005 * 0.5, 0.6, "N14"),
+                new MassTool(1, fixModMap, "KR", "P", true, "FYWL", "-", true, 1.0005 * 0.5, 0.6, "N14"),
+                new MassTool(1, fixModMap, "KR", "P", true, "D", "-", false, 1.0005 * 0.5, 0.6, "N14"),
+                new MassTool(3, "-", "-", true, null, null, null, 1.0005 * 0.5, 0.6, "N14")};
+        for (MassTool massTool : massToolArray) {
+            Set<String> groundTruth = massTool.buildPeptideSet(proteinSequence);
+            PackedPeptideSet result = massTool.buildPackedPeptideSet(proteinSequence);
+            assertEquals(groundTruth.size(), result.size());
+            assertEquals(groundTruth, result.toPeptideSet());
+            for (String peptide : groundTruth) {
+                assertTrue(result.contains(peptide));
+            }
+        }
+        assertFalse(massToolArray[0].buildPackedPeptideSet(proteinSequence).contains("nMRGc"));
+    }
+
+    @Test
+    public void digestProtein() {
+        MassTool massTool = new MassTool(1, fixModMap, "KR", "P", true, "D", "-", false, 1.0005 * 0.5, 0.6, "N14");
+        String proteinSequence = "MMRGFASSASRIATAAAASKPSLNASTSVNPKLSKTMDYMRIFSVFVVTLWIIRVDARVFKTY";
+        for (int from = 0; from < 3; ++from) {
+            Set<String> result = new HashSet<>();
+            int finalFrom = from;
+            massTool.digestProtein("pro1", proteinSequence, from, (protein, sequence, start, end) -> {
+                assertEquals("pro1", protein);
+                assertSame(proteinSequence, sequence);
+                assertTrue(start >= finalFrom);
+                result.add("n" + sequence.substring(start, end) + "c");
+            });
+            assertEquals(massTool.buildPeptideSet(proteinSequence.substring(from)), result);
+        }
+
+        List<int[]> rangeList = new ArrayList<>();
+        massTool.digestProtein("pro1", "", (protein, sequence, start, end) -> rangeList.add(new int[]{start, end}));
+        massTool.digestProtein("pro1", "MMM", 3, (protein, sequence, start, end) -> rangeList.add(new int[]{start, end}));
+        assertTrue(rangeList.isEmpty());
+    }
+
+    @Test
+    public void buildPeptideSetWithBounds() {
+        String proteinSequence = "MRGFASSASRIATAAAASKPSLNASTSVNPKLSKTMDYMRIFSVFVVTLWIIRVDARVFKTY";
+        MassTool[] massToolArray = new MassTool[]{
+                new MassTool(2, "KR", "P", true, null, null, null, 1.0005 * 0.5, 0.6, "N14"),
+                new MassTool(2, "D", "-", false, null, null, null, 1.0005 * 0.5, 0.6, "N14"),
+                new MassTool(1, fixModMap, "KR", "P", true, "FYWL", "-", true, 1.0005 * 0.5, 0.6, "N14"),
+                new MassTool(1, fixModMap, "KR", "P", true, "D", "-", false, 1.0005 * 0.5, 0.6, "N14")};
+        int[][] lengthBoundArray = new int[][]{{0, Integer.MAX_VALUE}, {3, 10}, {7, 30}, {1, 1}};
+        double[][] massBoundArray = new double[][]{{0, Double.MAX_VALUE}, {500, 1500}, {800, 5000}, {0, 300}};
+        for (MassTool massTool : massToolArray) {
+            Set<String> allPeptideSet = massTool.buildPeptideSet(proteinSequence);
+            for (int[] lengthBound : lengthBoundArray) {
+                for (double[] massBound : massBoundArray) {
+                    Set<String> groundTruth = new HashSet<>();
+                    for (String peptide : allPeptideSet) {
+                        double mass = massTool.calResidueMass(peptide) + massTool.H2O;
+                        if (peptide.length() - 2 >= lengthBound[0] && peptide.length() - 2 <= lengthBound[1] && mass >= massBound[0] && mass <= massBound[1]) {
+                            groundTruth.add(peptide);
+                        }
+                    }
+                    assertEquals(groundTruth, massTool.buildPeptideSet(proteinSequence, lengthBound[0], lengthBound[1], massBound[0], massBound[1]));
+                }
+            }
+        }
+    }
+
     @Test
     public void seqToAAList() {
         String seq = "nGHUKc";
@@ -375,6 +458,66 @@ public class MassToolTest {
         assertArrayEquals(groundTruth, result);
     }
 
+    @Test
+    public void compilePeptide() {
+        CompiledPeptide result = MassTool.compilePeptide("nGHUKc");
+        assertArrayEquals(new char[]{'n', 'G', 'H', 'U', 'K', 'c'}, result.aaArray);
+        assertArrayEquals(new double[]{0, 0, 0, 0, 0, 0}, result.deltaMassArray, 0);
+
+        result = MassTool.compilePeptide("nG(-1.5)H[3.02]U+0.984K[+42.010565]c");
+        assertArrayEquals(new char[]{'n', 'G', 'H', 'U', 'K', 'c'}, result.aaArray);
+        assertArrayEquals(new double[]{0, -1.5, 3.02, 0.984, 42.010565, 0}, result.deltaMassArray, 0);
+        assertEquals("nG(-1.500)H(3.020)U(0.984)K(42.011)c", result.toString());
+
+        // brackets without a number don't belong to the AA, and unknown characters are skipped.
+        result = MassTool.compilePeptide("nG()H.1K]c");
+        assertArrayEquals(new char[]{'n', 'G', 'H', 'K', 'c'}, result.aaArray);
+        assertArrayEquals(new double[]{0, 0, 0.1, 0, 0}, result.deltaMassArray, 0);
+
+        // the fast path must be identical to Double.valueOf.
+        String[] deltaMassArray = new String[]{"0.1", "15.994915", "-17.026549", "+79.96633", "1.", ".5", "123456789.012345", "0.12345678901234567890"};
+        for (String deltaMass : deltaMassArray) {
+            assertEquals(Double.valueOf(deltaMass), MassTool.compilePeptide("nA(" + deltaMass + ")c").deltaMassArray[1], 0);
+        }
+
+        try {
+            MassTool.compilePeptide("nA(1.2.3)c");
+            fail();
+        } catch (NumberFormatException ex) {
+            // the same as the regex based parser
+        }
+
+        MassTool massTool = new MassTool(1, "KR", "P", true, null, null, null, 1.0005 * 0.5, 0.6, "N14");
+        String peptide = "nGASPVTC(57.02146)ILNDQKEMHFRYWc";
+        CompiledPeptide compiledPeptide = MassTool.compilePeptide(peptide);
+        assertEquals(massTool.calResidueMass(peptide), massTool.calResidueMass(compiledPeptide), 0);
+        assertEquals(massTool.calResidueMass2(peptide), massTool.calResidueMass2(compiledPeptide), 0);
+        double[][] ionMatrix = massTool.buildIonArray(peptide, 3);
+        double[][] ionMatrix2 = massTool.buildIonArray(compiledPeptide, 3);
+        for (int i = 0; i < ionMatrix.length; ++i) {
+            assertArrayEquals(ionMatrix[i], ionMatrix2[i], 0);
+        }
+    }
+
+    @Test
+    public void getMassTable() {
+        MassTool massTool = new MassTool(1, fixModMap, "KR", "P", true, null, null, null, 1.0005 * 0.5, 0.6, "N14");
+        Map<Character, Double> massTable = massTool.getMassTable();
+        assertEquals(160.03065, massTable.get('C'), 1e-4);
+        assertEquals(60, massTable.get('n'), 0);
+        for (char aa : massTable.keySet()) {
+            if (aa >= 'A' && aa <= 'Z') {
+                assertEquals(massTable.get(aa) + 70, massTool.calResidueMass("n" + aa + "c"), 1e-9);
+            }
+        }
+        try {
+            massTable.put('A', 0d);
+            fail();
+        } catch (UnsupportedOperationException ex) {
+            // read-only view
+        }
+    }
+
     @Test
     public void isAA() {
         assertTrue(MassTool.isAA('A'));
@@ -398,6 +541,99 @@ public class MassToolTest {
         // todo: finish
     }
 
+    @Test
+    public void buildIonArrayWithBuffer() {
+        MassTool massTool = new MassTool(1, "KR", "P", true, null, null, null, 0.01, 0.6, "N14");
+        IonArrayBuffer buffer = new IonArrayBuffer();
+        String[] peptideArray = new String[]{"nGASPVTC(57.02146)ILNDQKEMHFRYWc", "nSDEKc", "nM(15.995)DEFGHIKc"};
+        SparseVector xcorrPL = new SparseVector();
+        for (int i = 0; i < 5000; i += 7) {
+            xcorrPL.put(i, i % 13 - 6);
+        }
+        for (String peptide : peptideArray) {
+            double[][] ionMatrix = massTool.buildIonArray(peptide, 3);
+            assertSame(buffer, massTool.buildIonArray(MassTool.compilePeptide(peptide), 3, buffer));
+            assertEquals(6, buffer.getRowNum());
+            assertEquals(ionMatrix[0].length, buffer.getColNum());
+            double[][] result = buffer.toMatrix();
+            for (int i = 0; i < ionMatrix.length; ++i) {
+                assertArrayEquals(ionMatrix[i], result[i], 0);
+            }
+            for (int precursorCharge = 1; precursorCharge < 5; ++precursorCharge) {
+                assertEquals(massTool.buildVectorAndCalXCorr(ionMatrix, precursorCharge, xcorrPL), massTool.buildVectorAndCalXCorr(buffer, precursorCharge, xcorrPL), 1e-9);
+            }
+        }
+
+        // a single residue peptide has only one column.
+        massTool.buildIonArray(MassTool.compilePeptide("nKc"), 2, buffer);
+        assertEquals(1, buffer.getColNum());
+        assertEquals(massTool.calResidueMass("nKc") + MassTool.PROTON, buffer.get(0, 0), 1e-9);
+        assertEquals(massTool.calResidueMass("nKc") + massTool.H2O + MassTool.PROTON, buffer.get(1, 0), 1e-9);
+        assertEquals((massTool.calResidueMass("nKc") + massTool.H2O) / 2 + MassTool.PROTON, buffer.get(3, 0), 1e-9);
+
+        assertSame(IonArrayBuffer.forCurrentThread(), IonArrayBuffer.forCurrentThread());
+    }
+
+    @Test
+    public void calXCorr() {
+        MassTool massTool = new MassTool(1, "KR", "P", true, null, null, null, 0.01, 0.6, "N14");
+        SparseVector xcorrPL = new SparseVector();
+        for (int i = 0; i < 200000; i += 3) {
+            xcorrPL.put(i, (i % 17) * 0.1 - 0.8);
+        }
+        DenseVector denseXcorrPL = new DenseVector(200000);
+        for (int i : xcorrPL.idxSet()) {
+            denseXcorrPL.put(i, xcorrPL.get(i));
+        }
+        String[] peptideArray = new String[]{"nGASPVTC(57.02146)ILNDQKEMHFRYWc", "nSDEKc", "n(42.011)M(15.995)DEFGHIKc(-0.984)"};
+        for (String peptide : peptideArray) {
+            assertEquals(massTool.generateTheoFragmentAndCalXCorr(peptide, (short) 3, 123.4, 3, xcorrPL), massTool.generateTheoFragmentAndCalXCorr(peptide, (short) 3, 123.4, 3, denseXcorrPL), 1e-5);
+            CompiledPeptide compiledPeptide = MassTool.compilePeptide(peptide);
+            for (int maxCharge = 1; maxCharge <= 3; ++maxCharge) {
+                double[][] ionMatrix = massTool.buildIonArray(compiledPeptide, maxCharge);
+                for (int precursorCharge = 1; precursorCharge <= 5; ++precursorCharge) {
+                    double groundTruth = massTool.buildVectorAndCalXCorr(ionMatrix, precursorCharge, xcorrPL);
+                    assertEquals(groundTruth, massTool.calXCorr(compiledPeptide, maxCharge, precursorCharge, xcorrPL), 1e-9);
+                    assertEquals(groundTruth, massTool.calXCorr(peptide, maxCharge, precursorCharge, xcorrPL), 1e-9);
+                    assertEquals(groundTruth, massTool.calXCorr(compiledPeptide, maxCharge, precursorCharge, denseXcorrPL), 1e-5);
+                    assertEquals(groundTruth, massTool.buildVectorAndCalXCorr(ionMatrix, precursorCharge, denseXcorrPL), 1e-5);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void calXCorrBatch() {
+        MassTool massTool = new MassTool(1, "KR", "P", true, null, null, null, 0.01, 0.6, "N14");
+        SparseVector[] sparseArray = new SparseVector[4];
+        DenseVector[] denseArray = new DenseVector[4];
+        int[] precursorChargeArray = new int[]{1, 2, 3, 4};
+        for (int k = 0; k < sparseArray.length; ++k) {
+            sparseArray[k] = new SparseVector();
+            denseArray[k] = new DenseVector(150000 + k);
+            for (int i = k; i < 150000; i += 2 + k) {
+                sparseArray[k].put(i, (i % 11) * 0.2 - 1);
+                denseArray[k].put(i, (i % 11) * 0.2 - 1);
+            }
+        }
+
+        CompiledPeptide peptide = MassTool.compilePeptide("nGASPVTC(57.02146)ILNDQKEMHFRYWc");
+        for (int maxCharge = 1; maxCharge <= 3; ++maxCharge) {
+            double[] sparseResult = massTool.calXCorr(peptide, maxCharge, precursorChargeArray, sparseArray);
+            double[] denseResult = massTool.calXCorr(peptide, maxCharge, precursorChargeArray, denseArray);
+            for (int k = 0; k < sparseArray.length; ++k) {
+                assertEquals(massTool.calXCorr(peptide, maxCharge, precursorChargeArray[k], sparseArray[k]), sparseResult[k], 1e-9);
+                assertEquals(massTool.calXCorr(peptide, maxCharge, precursorChargeArray[k], denseArray[k]), denseResult[k], 1e-5);
+            }
+        }
+
+        // the batch scoring must not touch the caller's thread-local buffer.
+        IonArrayBuffer buffer = massTool.buildIonArray(MassTool.compilePeptide("nSDEKc"), 1, IonArrayBuffer.forCurrentThread());
+        double[][] groundTruth = buffer.toMatrix();
+        massTool.calXCorr(peptide, 3, precursorChargeArray, sparseArray);
+        assertArrayEquals(groundTruth[0], IonArrayBuffer.forCurrentThread().toMatrix()[0], 0);
+    }
+
     @Test
     public void binToMz() {
         MassTool massTool = new MassTool(1, "KR", "P", true, null, null, null, 0.5, 0.6, "N14");
@@ -441,6 +677,30 @@ public class MassToolTest {
         // todo: finish
     }
 
+    @Test
+    public void generateTheoFragmentAndCalXCorrForAllLinkSites() {
+        MassTool massTool = new MassTool(1, "KR", "P", true, null, null, null, 0.01, 0.6, "N14");
+        SparseVector xcorrPL = new SparseVector();
+        DenseVector denseXcorrPL = new DenseVector(300000);
+        for (int i = 0; i < 300000; i += 2) {
+            xcorrPL.put(i, (i % 19) * 0.1 - 0.9);
+            denseXcorrPL.put(i, (i % 19) * 0.1 - 0.9);
+        }
+        String[] peptideArray = new String[]{"nGASPVTC(57.02146)ILNDQKEMHFRYWc", "nSDKEKc", "nKc", "n(42.011)M(15.995)DEFGHIKc(-0.984)"};
+        for (String peptide : peptideArray) {
+            CompiledPeptide compiledPeptide = MassTool.compilePeptide(peptide);
+            for (int precursorCharge = 2; precursorCharge <= 4; ++precursorCharge) {
+                double[] result = massTool.generateTheoFragmentAndCalXCorrForAllLinkSites(compiledPeptide, 1200.33, precursorCharge, xcorrPL);
+                double[] denseResult = massTool.generateTheoFragmentAndCalXCorrForAllLinkSites(peptide, 1200.33, precursorCharge, denseXcorrPL);
+                assertEquals(compiledPeptide.length(), result.length);
+                for (short linkSite = 0; linkSite < compiledPeptide.length(); ++linkSite) {
+                    assertEquals(massTool.generateTheoFragmentAndCalXCorr(compiledPeptide, linkSite, 1200.33, precursorCharge, xcorrPL), result[linkSite], 1e-9);
+                    assertEquals(massTool.generateTheoFragmentAndCalXCorr(compiledPeptide, linkSite, 1200.33, precursorCharge, denseXcorrPL), denseResult[linkSite], 1e-6);
+                }
+            }
+        }
+    }
+
     @Test
     public void getMissedCleavageSitePattern() {
         // todo: finish
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018-2019 The Hong Kong University of Science and Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ProteomicsLibrary;
+
+import com.google.common.collect.Multimap;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class OffHeapPeptideStoreTest {
+
+    @Test
+    public void add() {
+        OffHeapPeptideStore peptideStore = new OffHeapPeptideStore(32);
+        assertEquals(0, peptideStore.add("XPEPTIDEKX", 1, 9, 927.45, "pro1"));
+        assertEquals(1, peptideStore.add("ALK", 0, 3, 330.22, "pro1"));
+        assertEquals(0, peptideStore.add("PEPTIDEK", 0, 8, 0, "pro1")); // the same protein is kept once.
+        assertEquals(0, peptideStore.add("PEPTIDEK", 0, 8, 0, "pro2"));
+        assertEquals(2, peptideStore.size());
+        assertEquals(2, peptideStore.getProteinNum());
+
+        assertEquals(0, peptideStore.getHandle("nPEPTIDEKc"));
+        assertEquals(1, peptideStore.getHandle("ALK"));
+        assertEquals(-1, peptideStore.getHandle("ALKK"));
+        assertEquals("nPEPTIDEKc", peptideStore.getPeptide(0));
+        assertEquals("PEPTIDEK", peptideStore.getSequence(0).toString());
+        assertEquals("TIDE", peptideStore.getSequence(0).subSequence(3, 7).toString());
+        assertEquals('K', peptideStore.charAt(0, 7));
+        assertEquals(8, peptideStore.getLength(0));
+        assertEquals(927.45, peptideStore.getMass(0), 0);
+        assertEquals(Arrays.asList("pro2", "pro1"), peptideStore.getProteinList(0));
+        assertEquals(Collections.singletonList("pro1"), peptideStore.getProteinList(1));
+        assertTrue(peptideStore.contentEquals(1, "XALK", 1, 4));
+        assertFalse(peptideStore.contentEquals(1, "XALKK", 1, 5));
+    }
+
+    @Test
+    public void buildOffHeapTargetPeptideStore() {
+        Map<String, String> proteinSequenceMap = RandomProteome.generate(new Random(1), "pro", 200, 1, 200);
+        for (int i = 0; i < 200; i += 4) {
+            proteinSequenceMap.put("pro" + i, "M" + proteinSequenceMap.get("pro" + i));
+        }
+        MassTool massTool = new MassTool(2, "KR", "P", true, null, null, null, 0.02, 1, "N14");
+        BuildIndex buildIndex = new BuildIndex(proteinSequenceMap, "KR", "P", true, null, null, null, 2, 7, 30, 400, 5000, 1);
+        OffHeapPeptideStore peptideStore = BuildIndex.buildOffHeapTargetPeptideStore(proteinSequenceMap, massTool, 7, 30, 400, 5000, 256); // small segments to cross their borders.
+        Multimap<String, String> groundTruth = buildIndex.getTargetPeptideProteinMap();
+        assertEquals(groundTruth, peptideStore.toPeptideProteinMap());
+        assertEquals(groundTruth.keySet().size(), peptideStore.size());
+        for (String peptide : groundTruth.keySet()) {
+            int handle = peptideStore.getHandle(peptide);
+            assertEquals(peptide, peptideStore.getPeptide(handle));
+            assertEquals(groundTruth.get(peptide).size(), peptideStore.getProteinNum(handle));
+            assertEquals(massTool.calResidueMass(peptide) + massTool.H2O, peptideStore.getMass(handle), 1e-9);
+            assertEquals(peptideStore.getMass(handle), massTool.calPeptideMass(peptideStore.getSequence(handle), 0, peptideStore.getLength(handle)), 0);
+        }
+        assertTrue(peptideStore.getOffHeapByteNum() > 0);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2018-2019 The Hong Kong University of Science and Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ProteomicsLibrary;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class PeptideHashSetTest {
+
+    @Test
+    public void containsTest() {
+        PeptideHashSet peptideHashSet = new PeptideHashSet(Arrays.asList("nPEPTIDEKc", "nALKc", "GGR"), false);
+        assertEquals(3, peptideHashSet.size());
+        assertTrue(peptideHashSet.contains("PEPTIDEK"));
+        assertTrue(peptideHashSet.contains("nALKc"));
+        assertTrue(peptideHashSet.contains("nGGRc"));
+        assertTrue(peptideHashSet.contains("XXALKXX", 2, 5));
+        assertFalse(peptideHashSet.contains("AIK"));
+        assertFalse(peptideHashSet.contains("PEPTIDE"));
+        assertFalse(peptideHashSet.add("nALKc"));
+
+        PeptideHashSet l2iSet = new PeptideHashSet(Arrays.asList("nALKc", "nILGRc"), true);
+        assertTrue(l2iSet.contains("AIK"));
+        assertTrue(l2iSet.contains("nLIGRc"));
+        assertFalse(l2iSet.contains("AVK"));
+    }
+
+    @Test
+    public void resize() {
+        Random random = new Random(1);
+        String aaString = "ACDEFGHIKLMNPQRSTVWY";
+        Set<String> peptideSet = new HashSet<>();
+        PeptideHashSet peptideHashSet = new PeptideHashSet(0, false);
+        for (int i = 0; i < 20000; ++i) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < 1 + random.nextInt(6); ++j) {
+                sb.append(aaString.charAt(random.nextInt(aaString.length())));
+            }
+            assertEquals(peptideSet.add(sb.toString()), peptideHashSet.add(sb.toString()));
+        }
+        assertEquals(peptideSet.size(), peptideHashSet.size());
+        for (String peptide : peptideSet) {
+            assertTrue(peptideHashSet.contains(peptide));
+        }
+    }
+}
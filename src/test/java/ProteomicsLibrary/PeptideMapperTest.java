@@ -0,0 +1,80 @@
+/*
+ * Copyright 2018-2019 The Hong Kong University of Science and Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ProteomicsLibrary;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class PeptideMapperTest {
+
+    @Test
+    public void map() {
+        Map<String, String> proteinSequenceMap = new HashMap<>();
+        Random random = new Random(1);
+        String aaString = "ACKLIMPR";
+        for (int i = 0; i < 100; ++i) {
+            int length = 1 + random.nextInt(150);
+            StringBuilder sb = new StringBuilder(length);
+            for (int j = 0; j < length; ++j) {
+                sb.append(aaString.charAt(random.nextInt(aaString.length())));
+            }
+            proteinSequenceMap.put("pro" + i, (i % 4 == 0 ? "M" : "") + sb.toString() + (i % 5 == 0 ? "*" : ""));
+        }
+
+        List<String> peptideList = new ArrayList<>();
+        for (int i = 0; i < 300; ++i) {
+            int length = 1 + random.nextInt(6);
+            StringBuilder sb = new StringBuilder(length);
+            for (int j = 0; j < length; ++j) {
+                sb.append(aaString.charAt(random.nextInt(aaString.length())));
+            }
+            peptideList.add("n" + sb.toString() + "c");
+        }
+        peptideList.add("nC(57.02)Kc");
+        peptideList.add("nCKc");
+
+        PeptideMapper peptideMapper = new PeptideMapper(peptideList, false);
+        Map<String, Map<String, Set<Integer>>> result = peptideMapper.map(proteinSequenceMap, "KR", "P");
+        for (String peptide : peptideList) {
+            Map<String, Set<Integer>> groundTruth = new HashMap<>();
+            for (String protein : proteinSequenceMap.keySet()) {
+                Set<Integer> locationSet = DbTool.findPeptideLocation(proteinSequenceMap.get(protein), peptide, "KR", "P");
+                if (!locationSet.isEmpty()) {
+                    groundTruth.put(protein, locationSet);
+                }
+            }
+            assertEquals(groundTruth, result.getOrDefault(peptide, Collections.emptyMap()));
+        }
+        assertEquals(result.get("nCKc"), result.get("nC(57.02)Kc"));
+
+        peptideMapper = new PeptideMapper(peptideList, true);
+        result = peptideMapper.map(proteinSequenceMap, "KR", "P");
+        for (String peptide : peptideList) {
+            Map<String, Set<Integer>> groundTruth = new HashMap<>();
+            for (String protein : proteinSequenceMap.keySet()) {
+                Set<Integer> locationSet = DbTool.findPeptideLocation(MassTool.L2I(proteinSequenceMap.get(protein)), MassTool.L2I(peptide), "KR", "P");
+                if (!locationSet.isEmpty()) {
+                    groundTruth.put(protein, locationSet);
+                }
+            }
+            assertEquals(groundTruth, result.getOrDefault(peptide, Collections.emptyMap()));
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2018-2019 The Hong Kong University of Science and Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ProteomicsLibrary;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PeptideMassIndexTest {
+
+    private static MassTool massTool;
+    private static Multimap<String, String> peptideProteinMap;
+    private static PeptideMassIndex peptideMassIndex;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setUp() {
+        Map<String, String> proteinSequenceMap = RandomProteome.generate(new Random(1), "pro", 200, 50, 300);
+        proteinSequenceMap.put("dup", proteinSequenceMap.get("pro0"));
+        Map<Character, Double> fixModMap = new HashMap<>();
+        for (char aa : "GASPVTILNDQKEMHFRYWUOnc".toCharArray()) {
+            fixModMap.put(aa, 0d);
+        }
+        fixModMap.put('C', 57.02146);
+        massTool = new MassTool(2, fixModMap, "KR", "P", true, null, null, null, 0.02, 1, "N14");
+        BuildIndex buildIndex = new BuildIndex(proteinSequenceMap, "KR", "P", true, null, null, null, 2);
+        peptideProteinMap = buildIndex.getTargetPeptideProteinMap();
+        peptideMassIndex = buildIndex.buildPeptideMassIndex(massTool);
+    }
+
+    @Test
+    public void columns() {
+        assertEquals(peptideProteinMap.keySet().size(), peptideMassIndex.size());
+        Set<String> peptideSet = new HashSet<>();
+        for (int rank = 0; rank < peptideMassIndex.size(); ++rank) {
+            if (rank > 0) {
+                assertTrue(peptideMassIndex.getMass(rank - 1) <= peptideMassIndex.getMass(rank));
+            }
+            int ordinal = peptideMassIndex.getOrdinal(rank);
+            String peptide = peptideMassIndex.getPeptide(ordinal);
+            assertEquals(ordinal, peptideMassIndex.getOrdinal(peptide));
+            assertEquals(massTool.calResidueMass(peptide) + massTool.H2O, peptideMassIndex.getMass(rank), 1e-9);
+            assertEquals(new HashSet<>(peptideProteinMap.get(peptide)), new HashSet<>(peptideMassIndex.getProteinList(ordinal)));
+            assertEquals(peptideProteinMap.get(peptide).size(), peptideMassIndex.getProteinEnd(ordinal) - peptideMassIndex.getProteinStart(ordinal));
+            peptideSet.add(peptide);
+        }
+        assertEquals(peptideProteinMap.keySet(), peptideSet);
+        assertEquals(peptideProteinMap, peptideMassIndex.toPeptideProteinMap());
+        assertEquals(-1, peptideMassIndex.getOrdinal("nXXXXc"));
+    }
+
+    @Test
+    public void query() {
+        int[][] isotopeCorrectionArrays = new int[][]{{0}, {-2, -1, 0}, {0, -1, -2}, {0, 0}};
+        double[][] toleranceArray = new double[][]{{0.02, 0}, {1.5, 0}, {10, 1}, {2000, 1}};
+        int[] rankBuffer = new int[100000];
+        Random random = new Random(2);
+        for (int k = 0; k < 200; ++k) {
+            double precursorMass = peptideMassIndex.getMass(random.nextInt(peptideMassIndex.size())) + (random.nextInt(5) - 2) * MassTool.C13_DIFF + random.nextDouble() * 0.01;
+            for (int[] isotopeCorrectionArray : isotopeCorrectionArrays) {
+                for (double[] tolerance : toleranceArray) {
+                    List<Integer> groundTruth = new ArrayList<>();
+                    for (int rank = 0; rank < peptideMassIndex.size(); ++rank) {
+                        for (int isotopeCorrection : isotopeCorrectionArray) {
+                            double mass = precursorMass + isotopeCorrection * MassTool.C13_DIFF;
+                            double leftMass = tolerance[1] == 1 ? mass / (1 + tolerance[0] * 1e-6) : mass - tolerance[0];
+                            double rightMass = tolerance[1] == 1 ? mass / (1 - tolerance[0] * 1e-6) : mass + tolerance[0];
+                            if (peptideMassIndex.getMass(rank) >= leftMass && peptideMassIndex.getMass(rank) <= rightMass) {
+                                groundTruth.add(rank);
+                                break;
+                            }
+                        }
+                    }
+                    int num = peptideMassIndex.query(precursorMass, tolerance[0], (int) tolerance[1], isotopeCorrectionArray, rankBuffer);
+                    assertEquals(groundTruth.size(), num);
+                    for (int i = 0; i < num; ++i) {
+                        assertEquals(groundTruth.get(i).intValue(), rankBuffer[i]);
+                    }
+                }
+            }
+        }
+
+        int[] smallBuffer = new int[1];
+        int num = peptideMassIndex.query(peptideMassIndex.getMass(peptideMassIndex.size() / 2), 100, 0, new int[]{0}, smallBuffer);
+        assertTrue(num > 1);
+        assertEquals(peptideMassIndex.lowerBound(peptideMassIndex.getMass(peptideMassIndex.size() / 2) - 100), smallBuffer[0]);
+    }
+
+    @Test
+    public void databaseParameter() throws IOException {
+        Map<String, String> proteinSequenceMap = new HashMap<>();
+        proteinSequenceMap.put("pro1", "MPEPTIDEKAAAR");
+        proteinSequenceMap.put("pro2", "GGGGKLLLLR");
+        String parameters = PeptideMassIndex.buildParameterString("KR", "P", true, null, null, null, 2, 0, Integer.MAX_VALUE, 0, Double.MAX_VALUE, null, "N14", BuildIndex.buildManifest(proteinSequenceMap));
+        assertEquals(parameters, PeptideMassIndex.buildParameterString("KR", "P", true, null, null, null, 2, 0, Integer.MAX_VALUE, 0, Double.MAX_VALUE, null, "N14", BuildIndex.buildManifest(new TreeMap<>(proteinSequenceMap))));
+
+        Map<String, String> editedProteinSequenceMap = new HashMap<>(proteinSequenceMap);
+        editedProteinSequenceMap.put("pro2", "GGGGKLLLLK");
+        String editedParameters = PeptideMassIndex.buildParameterString("KR", "P", true, null, null, null, 2, 0, Integer.MAX_VALUE, 0, Double.MAX_VALUE, null, "N14", BuildIndex.buildManifest(editedProteinSequenceMap));
+        assertNotEquals(PeptideMassIndex.calParameterHash(parameters), PeptideMassIndex.calParameterHash(editedParameters));
+
+        // the index is rebuilt after the database changes with the same settings.
+        Path path = temporaryFolder.getRoot().toPath().resolve("index.bin");
+        AtomicInteger buildNum = new AtomicInteger(0);
+        for (String[] pair : new String[][]{{parameters, "1"}, {parameters, "1"}, {editedParameters, "2"}}) {
+            PeptideMassIndex.openOrBuild(path, pair[0], () -> {
+                buildNum.incrementAndGet();
+                return peptideMassIndex;
+            });
+            assertEquals(Integer.parseInt(pair[1]), buildNum.get());
+        }
+    }
+
+    @Test
+    public void rebuildWhileMapped() throws IOException {
+        Path path = temporaryFolder.getRoot().toPath().resolve("index.bin");
+        String parameters = PeptideMassIndex.buildParameterString("KR", "P", true, null, null, null, 2, 0, Integer.MAX_VALUE, 0, Double.MAX_VALUE, Collections.singletonMap('C', 57.02146), "N14");
+        peptideMassIndex.write(path, parameters);
+        PeptideMassIndex oldIndex = PeptideMassIndex.open(path);
+
+        // a smaller index replaces the file while the old one is still mapped.
+        Multimap<String, String> smallPeptideProteinMap = HashMultimap.create();
+        smallPeptideProteinMap.put("nPEPTIDEKc", "pro");
+        String newParameters = PeptideMassIndex.buildParameterString("KR", "P", true, null, null, null, 1, 0, Integer.MAX_VALUE, 0, Double.MAX_VALUE, Collections.singletonMap('C', 57.02146), "N14");
+        PeptideMassIndex newIndex = PeptideMassIndex.openOrBuild(path, newParameters, () -> new PeptideMassIndex(smallPeptideProteinMap, massTool));
+        assertEquals(1, newIndex.size());
+        assertEquals("nPEPTIDEKc", newIndex.getPeptide(0));
+
+        assertEquals(peptideMassIndex.size(), oldIndex.size());
+        for (int ordinal = 0; ordinal < peptideMassIndex.size(); ++ordinal) {
+            assertEquals(peptideMassIndex.getPeptide(ordinal), oldIndex.getPeptide(ordinal));
+            assertEquals(peptideMassIndex.getProteinList(ordinal), oldIndex.getProteinList(ordinal));
+        }
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(temporaryFolder.getRoot().toPath(), "*.tmp")) {
+            assertFalse(directoryStream.iterator().hasNext());
+        }
+    }
+
+    @Test
+    public void regions() throws IOException {
+        Path path = temporaryFolder.getRoot().toPath().resolve("index.bin");
+        String parameters = PeptideMassIndex.buildParameterString("KR", "P", true, null, null, null, 2, 0, Integer.MAX_VALUE, 0, Double.MAX_VALUE, Collections.singletonMap('C', 57.02146), "N14");
+        peptideMassIndex.write(path, parameters);
+        long fileSize = Files.size(path);
+        Files.delete(path);
+        int defaultMaxRegionSize = PeptideMassIndex.maxRegionSize;
+        try {
+            // the file is larger than a region, but each column fits.
+            PeptideMassIndex.maxRegionSize = (int) (fileSize / 2);
+            peptideMassIndex.write(path, parameters);
+            assertEquals(fileSize, Files.size(path));
+            PeptideMassIndex mappedIndex = PeptideMassIndex.open(path);
+            assertEquals(peptideMassIndex.size(), mappedIndex.size());
+            for (int rank = 0; rank < peptideMassIndex.size(); ++rank) {
+                assertEquals(peptideMassIndex.getMass(rank), mappedIndex.getMass(rank), 0);
+                assertEquals(peptideMassIndex.getOrdinal(rank), mappedIndex.getOrdinal(rank));
+                assertEquals(peptideMassIndex.getPeptide(rank), mappedIndex.getPeptide(rank));
+                assertEquals(peptideMassIndex.getProteinList(rank), mappedIndex.getProteinList(rank));
+            }
+            assertEquals(peptideProteinMap, mappedIndex.toPeptideProteinMap());
+
+            // a column larger than a region
+            PeptideMassIndex.maxRegionSize = 64;
+            try {
+                PeptideMassIndex.open(path);
+                fail("A column larger than a region should not be mapped.");
+            } catch (IOException ex) {
+                assertTrue(ex.getMessage().contains("cannot be mapped"));
+            }
+        } finally {
+            PeptideMassIndex.maxRegionSize = defaultMaxRegionSize;
+        }
+    }
+
+    @Test
+    public void writeAndOpen() throws IOException {
+        Path path = temporaryFolder.getRoot().toPath().resolve("index.bin");
+        String parameters = PeptideMassIndex.buildParameterString("KR", "P", true, null, null, null, 2, 0, Integer.MAX_VALUE, 0, Double.MAX_VALUE, Collections.singletonMap('C', 57.02146), "N14");
+        peptideMassIndex.write(path, parameters);
+        assertEquals(PeptideMassIndex.calParameterHash(parameters), PeptideMassIndex.readParameterHash(path));
+
+        PeptideMassIndex mappedIndex = PeptideMassIndex.open(path);
+        assertEquals(PeptideMassIndex.calParameterHash(parameters), mappedIndex.getParameterHash());
+        assertEquals(peptideMassIndex.size(), mappedIndex.size());
+        assertEquals(peptideMassIndex.getProteinNum(), mappedIndex.getProteinNum());
+        for (int rank = 0; rank < peptideMassIndex.size(); ++rank) {
+            assertEquals(peptideMassIndex.getMass(rank), mappedIndex.getMass(rank), 0);
+            assertEquals(peptideMassIndex.getOrdinal(rank), mappedIndex.getOrdinal(rank));
+            int ordinal = rank; // ranks and ordinals share the range
+            String peptide = peptideMassIndex.getPeptide(ordinal);
+            assertEquals(peptide, mappedIndex.getPeptide(ordinal));
+            assertEquals(ordinal, mappedIndex.getOrdinal(peptide));
+            assertEquals(peptideMassIndex.getProteinList(ordinal), mappedIndex.getProteinList(ordinal));
+        }
+        int[] rankBuffer1 = new int[1000];
+        int[] rankBuffer2 = new int[1000];
+        double precursorMass = peptideMassIndex.getMass(peptideMassIndex.size() / 3);
+        int num = peptideMassIndex.query(precursorMass, 20, 1, new int[]{-1, 0}, rankBuffer1);
+        assertEquals(num, mappedIndex.query(precursorMass, 20, 1, new int[]{-1, 0}, rankBuffer2));
+        assertArrayEquals(Arrays.copyOf(rankBuffer1, num), Arrays.copyOf(rankBuffer2, num));
+
+        // reuse the file only if the parameters are the same
+        AtomicInteger buildNum = new AtomicInteger(0);
+        PeptideMassIndex reusedIndex = PeptideMassIndex.openOrBuild(path, parameters, () -> {
+            buildNum.incrementAndGet();
+            return peptideMassIndex;
+        });
+        assertEquals(0, buildNum.get());
+        assertEquals(peptideMassIndex.size(), reusedIndex.size());
+        String newParameters = PeptideMassIndex.buildParameterString("KR", "P", true, null, null, null, 1, 0, Integer.MAX_VALUE, 0, Double.MAX_VALUE, Collections.singletonMap('C', 57.02146), "N14");
+        assertNotEquals(PeptideMassIndex.calParameterHash(parameters), PeptideMassIndex.calParameterHash(newParameters));
+        PeptideMassIndex.openOrBuild(path, newParameters, () -> {
+            buildNum.incrementAndGet();
+            return peptideMassIndex;
+        });
+        assertEquals(1, buildNum.get());
+        assertEquals(PeptideMassIndex.calParameterHash(newParameters), PeptideMassIndex.readParameterHash(path));
+
+        // broken files
+        Path brokenPath = temporaryFolder.getRoot().toPath().resolve("broken.bin");
+        Files.write(brokenPath, Arrays.copyOf(Files.readAllBytes(path), 100));
+        try {
+            PeptideMassIndex.open(brokenPath);
+            fail("A truncated file should not be opened.");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains("doesn't match"));
+        }
+        Files.write(brokenPath, new byte[10]);
+        assertEquals(0, PeptideMassIndex.readParameterHash(brokenPath));
+    }
+}
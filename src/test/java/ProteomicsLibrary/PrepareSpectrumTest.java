@@ -16,9 +16,15 @@
 
 package ProteomicsLibrary;
 
+import ProteomicsLibrary.Types.DenseVector;
+import ProteomicsLibrary.Types.SparseVector;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
 import static org.junit.Assert.*;
 
 public class PrepareSpectrumTest {
@@ -51,6 +57,32 @@ public class PrepareSpectrumTest {
     public void prepareXCorr1() {
     }
 
+    @Test
+    public void prepareXCorrDense() {
+        PrepareSpectrum prepareSpectrum = new PrepareSpectrum(new MassTool(1, "KR", "P", true, null, null, null, 0.02, 0.6, "N14"));
+        Map<Double, Double> plMap = new HashMap<>();
+        for (int i = 0; i < 300; ++i) {
+            plMap.put(100 + i * 3.17, (double) (i * 37 % 101 + 1));
+        }
+        for (boolean flankingPeak : new boolean[]{true, false}) {
+            SparseVector sparseVector = prepareSpectrum.preSpectrumCometStyle(plMap, 1200, 2, 0, 0, flankingPeak);
+            DenseVector denseVector = prepareSpectrum.preSpectrumCometStyleDense(plMap, 1200, 2, 0, 0, flankingPeak);
+            assertFalse(sparseVector.isEmpty());
+            assertTrue(denseVector.getMaxIdx() >= Collections.max(sparseVector.idxSet()));
+            for (int i = -5; i <= denseVector.getMaxIdx() + 5; ++i) {
+                assertEquals(sparseVector.get(i), denseVector.get(i), 1e-4);
+            }
+
+            sparseVector = prepareSpectrum.preSpectrumCometStyle(plMap, 1200, flankingPeak);
+            denseVector = prepareSpectrum.preSpectrumCometStyleDense(plMap, 1200, flankingPeak);
+            for (int i = 0; i <= denseVector.getMaxIdx(); ++i) {
+                assertEquals(sparseVector.get(i), denseVector.get(i), 1e-4);
+            }
+        }
+
+        assertTrue(prepareSpectrum.preSpectrumCometStyleDense(plMap, 50, false).isEmpty());
+    }
+
     @Test
     public void digitizePL() {
     }
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2018-2019 The Hong Kong University of Science and Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ProteomicsLibrary;
+
+import com.google.common.collect.Multimap;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ProteomeIndexTest {
+
+    private static Map<String, String> proteinSequenceMap;
+    private static ProteomeIndex proteomeIndex;
+
+    @BeforeClass
+    public static void setUp() {
+        proteinSequenceMap = new HashMap<>();
+        Random random = new Random(1);
+        String aaString = "ACDKMPRS"; // a small alphabet to have many repeats.
+        for (int i = 0; i < 100; ++i) {
+            int length = 1 + random.nextInt(200);
+            StringBuilder sb = new StringBuilder(length);
+            for (int j = 0; j < length; ++j) {
+                sb.append(aaString.charAt(random.nextInt(aaString.length())));
+            }
+            proteinSequenceMap.put("pro" + i, (i % 4 == 0 ? "M" : "") + sb.toString());
+        }
+        proteinSequenceMap.put("empty", "");
+        proteomeIndex = new ProteomeIndex(proteinSequenceMap);
+    }
+
+    @Test
+    public void forEachOccurrence() {
+        Random random = new Random(2);
+        for (String protein : proteinSequenceMap.keySet()) {
+            String proteinSequence = proteinSequenceMap.get(protein);
+            for (int time = 0; time < 5 && !proteinSequence.isEmpty(); ++time) {
+                int start = random.nextInt(proteinSequence.length());
+                int end = start + 1 + random.nextInt(Math.min(12, proteinSequence.length() - start));
+                String sequence = proteinSequence.substring(start, end);
+                List<String> groundTruth = new ArrayList<>();
+                for (String protein2 : new TreeSet<>(proteinSequenceMap.keySet())) {
+                    String proteinSequence2 = proteinSequenceMap.get(protein2);
+                    for (int idx = proteinSequence2.indexOf(sequence); idx >= 0; idx = proteinSequence2.indexOf(sequence, idx + 1)) {
+                        groundTruth.add(protein2 + "@" + idx);
+                    }
+                }
+                List<String> result = new ArrayList<>();
+                proteomeIndex.forEachOccurrence(sequence, (proteinIdx, offset) -> result.add(proteomeIndex.getProtein(proteinIdx) + "@" + offset));
+                assertEquals(groundTruth, result);
+                assertEquals(groundTruth.size(), proteomeIndex.count(sequence));
+            }
+        }
+        assertEquals(0, proteomeIndex.count("W"));
+        assertEquals(0, proteomeIndex.count(""));
+        assertTrue(proteomeIndex.getProteinSet("nW(15.99)c").isEmpty());
+    }
+
+    @Test
+    public void flankAndLocation() throws Exception {
+        Multimap<String, String> peptideProteinMap = new BuildIndex(proteinSequenceMap, "KR", "P", true, null, null, null, 1).getTargetPeptideProteinMap();
+        for (String peptide : peptideProteinMap.keySet()) {
+            Character[] groundTruth = DbTool.getLeftRightFlank(peptide, peptideProteinMap, proteinSequenceMap, "KR", "P", true);
+            assertArrayEquals(groundTruth, proteomeIndex.getLeftRightFlank(peptide, peptideProteinMap.get(peptide), "KR", "P", true));
+            if (groundTruth != null) {
+                assertNotNull(proteomeIndex.getLeftRightFlank(peptide, "KR", "P", true));
+            }
+            assertTrue(proteomeIndex.getProteinSet(peptide).containsAll(peptideProteinMap.get(peptide)));
+
+            Map<String, Set<Integer>> locationMap = proteomeIndex.findPeptideLocation(peptide, "KR", "P");
+            for (String protein : proteinSequenceMap.keySet()) {
+                Set<Integer> locationSet = DbTool.findPeptideLocation(proteinSequenceMap.get(protein), peptide, "KR", "P");
+                assertEquals(locationSet, proteomeIndex.findPeptideLocation(protein, peptide, "KR", "P"));
+                assertEquals(locationSet.isEmpty() ? null : locationSet, locationMap.get(protein));
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2018-2019 The Hong Kong University of Science and Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ProteomicsLibrary;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+class RandomProteome { // the random protein fixture shared by the indexing tests.
+
+    private static final String AA_STRING = "ACDEFGHIKLMNPQRSTVWY";
+
+    static Map<String, String> generate(Random random, String proteinPrefix, int proteinNum, int minLength, int lengthBound) { // proteinPrefix + i -> a sequence of minLength + random.nextInt(lengthBound) amino acids.
+        Map<String, String> proteinSequenceMap = new HashMap<>();
+        for (int i = 0; i < proteinNum; ++i) {
+            int length = minLength + random.nextInt(lengthBound);
+            StringBuilder sb = new StringBuilder(length);
+            for (int j = 0; j < length; ++j) {
+                sb.append(AA_STRING.charAt(random.nextInt(AA_STRING.length())));
+            }
+            proteinSequenceMap.put(proteinPrefix + i, sb.toString());
+        }
+        return proteinSequenceMap;
+    }
+}
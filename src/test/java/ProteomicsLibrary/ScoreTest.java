@@ -17,6 +17,7 @@
 package ProteomicsLibrary;
 
 import ProteomicsLibrary.Types.Coordinate;
+import ProteomicsLibrary.Types.IonArrayBuffer;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -25,6 +26,7 @@ import java.util.*;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 public class ScoreTest {
 
@@ -33,6 +35,8 @@ public class ScoreTest {
 
     private static double[][] ionMatrix1;
     private static double[][] ionMatrix2;
+    private static IonArrayBuffer ionBuffer1 = new IonArrayBuffer();
+    private static IonArrayBuffer ionBuffer2 = new IonArrayBuffer();
     private static TreeMap<Coordinate, Double> varPTMMap1 = new TreeMap<>();
     private static TreeMap<Coordinate, Double> varPTMMap2 = new TreeMap<>();
     private static Map<Double, Double> plMap;
@@ -306,6 +310,8 @@ public class ScoreTest {
     public static void setUp() {
         ionMatrix1 = massTool.buildIonArray("n(144.102)SDALETLGFLN(0.984)HYQMK(144.102)c", 2);
         ionMatrix2 = massTool.buildIonArray("n(144.102)SDALETLGFLNHYQ(0.984)MK(144.102)c", 2);
+        massTool.buildIonArray(MassTool.compilePeptide("n(144.102)SDALETLGFLN(0.984)HYQMK(144.102)c"), 2, ionBuffer1);
+        massTool.buildIonArray(MassTool.compilePeptide("n(144.102)SDALETLGFLNHYQ(0.984)MK(144.102)c"), 2, ionBuffer2);
 
         varPTMMap1.put(new Coordinate(0, 1), 114.102);
         varPTMMap1.put(new Coordinate(11, 12), 0.984);
@@ -578,19 +584,25 @@ public class ScoreTest {
     @Test
     public void calIonFraction() {
         assertEquals((double) 17 / (double) 32 , Score.calIonFraction(ionMatrix1, 2, plMap, 0.01), 0.001);
+        assertEquals((double) 17 / (double) 32 , Score.calIonFraction(ionBuffer1, 2, plMap, 0.01), 0.001);
         assertEquals((double) 14 / (double) 32 , Score.calIonFraction(ionMatrix2, 2, plMap, 0.01), 0.001);
+        assertEquals((double) 14 / (double) 32 , Score.calIonFraction(ionBuffer2, 2, plMap, 0.01), 0.001);
     }
 
     @Test
     public void calMatchedHighestIntensityFraction() {
         assertEquals((double) 15 / (double) 17 , Score.calMatchedHighestIntensityFraction(ionMatrix1, 2, plMap, 0.01), 0.001);
+        assertEquals((double) 15 / (double) 17 , Score.calMatchedHighestIntensityFraction(ionBuffer1, 2, plMap, 0.01), 0.001);
         assertEquals((double) 12 / (double) 14 , Score.calMatchedHighestIntensityFraction(ionMatrix2, 2, plMap, 0.01), 0.001);
+        assertEquals((double) 12 / (double) 14 , Score.calMatchedHighestIntensityFraction(ionBuffer2, 2, plMap, 0.01), 0.001);
     }
 
     @Test
     public void calExplainedAAFraction() {
         assertEquals((double) 16 / (double) 16 , Score.calExplainedAAFraction(ionMatrix1, 2, plMap, 0.01), 0.001);
+        assertEquals((double) 16 / (double) 16 , Score.calExplainedAAFraction(ionBuffer1, 2, plMap, 0.01), 0.001);
         assertEquals((double) 12 / (double) 16 , Score.calExplainedAAFraction(ionMatrix2, 2, plMap, 0.01), 0.001);
+        assertEquals((double) 12 / (double) 16 , Score.calExplainedAAFraction(ionBuffer2, 2, plMap, 0.01), 0.001);
     }
 
     @Test
@@ -608,15 +620,21 @@ public class ScoreTest {
     @Test
     public void calBinomialScorePValue() throws Exception {
         assertEquals(1.34398E-17, Score.calBinomialScorePValue(new TreeMap<>(plMap), 6, binomial, 1, ionMatrix1, 0.01, 18), 0.001);
+        assertEquals(1.34398E-17, Score.calBinomialScorePValue(new TreeMap<>(plMap), 6, binomial, 1, ionBuffer1, 0.01, 18), 0.001);
         assertEquals(6.37371E-13, Score.calBinomialScorePValue(new TreeMap<>(plMap), 6, binomial, 1, ionMatrix2, 0.01, 18), 0.001);
+        assertEquals(6.37371E-13, Score.calBinomialScorePValue(new TreeMap<>(plMap), 6, binomial, 1, ionBuffer2, 0.01, 18), 0.001);
     }
 
     @Test
     public void calBinomialScorePValueSub () throws Exception {
         assertEquals(1.343981E-17, Score.calBinomialScorePValueSub(new TreeMap<>(plMap), 6, binomial, 1, ionMatrix1, 0.01, 18), 0.001);
+        assertEquals(1.343981E-17, Score.calBinomialScorePValueSub(new TreeMap<>(plMap), 6, binomial, 1, ionBuffer1, 0.01, 18), 0.001);
         assertEquals(4.906808E-26, Score.calBinomialScorePValueSub(new TreeMap<>(plMap), 1, binomial, 1, ionMatrix1, 0.01, 18), 0.001);
+        assertEquals(4.906808E-26, Score.calBinomialScorePValueSub(new TreeMap<>(plMap), 1, binomial, 1, ionBuffer1, 0.01, 18), 0.001);
         assertEquals(1.312552E-9, Score.calBinomialScorePValueSub(new TreeMap<>(plMap), 6, binomial, 1, ionMatrix2, 0.01, 18), 0.001);
+        assertEquals(1.312552E-9, Score.calBinomialScorePValueSub(new TreeMap<>(plMap), 6, binomial, 1, ionBuffer2, 0.01, 18), 0.001);
         assertEquals(3.982398E-20, Score.calBinomialScorePValueSub(new TreeMap<>(plMap), 1, binomial, 1, ionMatrix2, 0.01, 18), 0.001);
+        assertEquals(3.982398E-20, Score.calBinomialScorePValueSub(new TreeMap<>(plMap), 1, binomial, 1, ionBuffer2, 0.01, 18), 0.001);
 
     }
 
@@ -686,10 +704,28 @@ public class ScoreTest {
     @Test
     public void getMatchedPeakNum() {
         assertEquals(17, Score.getMatchedIonNum(new TreeMap<>(plMap), 1, ionMatrix1, 0.01));
+        assertEquals(17, Score.getMatchedIonNum(new TreeMap<>(plMap), 1, ionBuffer1, 0.01));
         assertEquals(14, Score.getMatchedIonNum(new TreeMap<>(plMap), 1, ionMatrix2, 0.01));
+        assertEquals(14, Score.getMatchedIonNum(new TreeMap<>(plMap), 1, ionBuffer2, 0.01));
         assertEquals(22, Score.getMatchedIonNum(new TreeMap<>(plMap), 1, ionMatrix1, 0.5));
+        assertEquals(22, Score.getMatchedIonNum(new TreeMap<>(plMap), 1, ionBuffer1, 0.5));
         assertEquals(21, Score.getMatchedIonNum(new TreeMap<>(plMap), 1, ionMatrix2, 0.5));
+        assertEquals(21, Score.getMatchedIonNum(new TreeMap<>(plMap), 1, ionBuffer2, 0.5));
         assertEquals(30, Score.getMatchedIonNum(new TreeMap<>(plMap), 2, ionMatrix1, 0.01));
+        assertEquals(30, Score.getMatchedIonNum(new TreeMap<>(plMap), 2, ionBuffer1, 0.01));
         assertEquals(25, Score.getMatchedIonNum(new TreeMap<>(plMap), 2, ionMatrix2, 0.01));
+        assertEquals(25, Score.getMatchedIonNum(new TreeMap<>(plMap), 2, ionBuffer2, 0.01));
+        try {
+            Score.getMatchedIonNum(new TreeMap<>(plMap), 3, ionBuffer1, 0.01); // the buffer only has charge 1 and 2.
+            fail("A charge beyond the buffer should not be counted.");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+        try {
+            Score.getMatchedIonNum(new TreeMap<>(plMap), 3, ionMatrix1, 0.01);
+            fail("A charge beyond the matrix should not be counted.");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018-2019 The Hong Kong University of Science and Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ProteomicsLibrary.Types;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class PackedPeptideSetTest {
+
+    @Test
+    public void packAndUnpack() {
+        String[] sequenceArray = new String[]{"A", "Z", "PEPTIDE", "ABCDEFGHIJKL", "ABCDEFGHIJKLM", "ABCDEFGHIJKLMNOPQRSTUVWX"};
+        for (String sequence : sequenceArray) {
+            assertTrue(PackedPeptide.isPackable(sequence, 0, sequence.length()));
+            long high = PackedPeptide.packHigh(sequence, 0, sequence.length());
+            long low = PackedPeptide.packLow(sequence, 0, sequence.length());
+            assertEquals(sequence, PackedPeptide.unpack(high, low));
+            assertEquals(sequence.length(), PackedPeptide.length(high, low));
+        }
+        assertFalse(PackedPeptide.isPackable("ABCDEFGHIJKLMNOPQRSTUVWXY", 0, 25));
+        assertFalse(PackedPeptide.isPackable("PEP*", 0, 4));
+        assertFalse(PackedPeptide.isPackable("nPEPc", 0, 5));
+        assertFalse(PackedPeptide.isPackable("PEP", 1, 1));
+    }
+
+    @Test
+    public void addAndContains() {
+        PackedPeptideSet packedPeptideSet = new PackedPeptideSet();
+        Set<String> groundTruth = new HashSet<>();
+        Random random = new Random(1);
+        for (int i = 0; i < 5000; ++i) {
+            int length = 1 + random.nextInt(30);
+            StringBuilder sb = new StringBuilder(length);
+            for (int j = 0; j < length; ++j) {
+                sb.append((char) ('A' + random.nextInt(26)));
+            }
+            String peptide = "n" + sb.toString() + "c";
+            assertEquals(groundTruth.add(peptide), packedPeptideSet.add(peptide));
+        }
+        assertEquals(groundTruth.size(), packedPeptideSet.size());
+        assertEquals(groundTruth, packedPeptideSet.toPeptideSet());
+        for (String peptide : groundTruth) {
+            assertTrue(packedPeptideSet.contains(peptide));
+            assertTrue(packedPeptideSet.contains(peptide.substring(1, peptide.length() - 1)));
+        }
+        assertFalse(packedPeptideSet.contains("nAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAc"));
+
+        assertTrue(packedPeptideSet.add("XXPEPTIDEXX", 2, 9));
+        assertFalse(packedPeptideSet.add("nPEPTIDEc"));
+
+        PackedPeptideSet other = new PackedPeptideSet();
+        other.addAll(packedPeptideSet);
+        assertEquals(packedPeptideSet.toPeptideSet(), other.toPeptideSet());
+
+        other.clear();
+        assertTrue(other.isEmpty());
+        assertFalse(other.contains("nPEPTIDEc"));
+    }
+
+    @Test
+    public void packedPeptideMap() {
+        PackedPeptideMap<List<String>> packedPeptideMap = new PackedPeptideMap<>();
+        for (int i = 0; i < 100; ++i) {
+            packedPeptideMap.getOrCreate("nPEPTIDEc", 1, 8, ArrayList::new).add("pro" + i);
+            packedPeptideMap.getOrCreate("PEPTIDE" + (char) ('A' + i % 26), 0, 8, ArrayList::new).add("pro" + i);
+        }
+        packedPeptideMap.put("nABCDEFGHIJKLMNOPQRSTUVWXYZc", Collections.singletonList("long"));
+        assertEquals(28, packedPeptideMap.size());
+        assertEquals(100, packedPeptideMap.get("PEPTIDE").size());
+        assertEquals(Arrays.asList("pro0", "pro26", "pro52", "pro78"), packedPeptideMap.get("nPEPTIDEAc"));
+        assertEquals(Collections.singletonList("long"), packedPeptideMap.get("ABCDEFGHIJKLMNOPQRSTUVWXYZ"));
+        assertNull(packedPeptideMap.get("nPEPc"));
+        assertEquals(packedPeptideMap.size(), packedPeptideMap.toPeptideMap().size());
+        assertTrue(packedPeptideMap.toPeptideMap().containsKey("nPEPTIDEZc"));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018-2019 The Hong Kong University of Science and Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ProteomicsLibrary.Types;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class PeptideProteinMappingTest {
+
+    @Test
+    public void csr() {
+        Multimap<String, String> peptideProteinMap = HashMultimap.create();
+        peptideProteinMap.put("nSDSRc", "pro2");
+        peptideProteinMap.put("nSDSRc", "pro1");
+        peptideProteinMap.put("nKc", "pro2");
+        peptideProteinMap.put("nABCc", "pro3");
+        PeptideProteinMapping mapping = new PeptideProteinMapping(peptideProteinMap);
+        assertEquals(3, mapping.getPeptideNum());
+        assertEquals(3, mapping.getProteinNum());
+        assertEquals(4, mapping.getMappingNum());
+        assertEquals("nABCc", mapping.getPeptide(0));
+        assertEquals("nSDSRc", mapping.getPeptide(2));
+        assertEquals(-1, mapping.getPeptideId("nXc"));
+
+        int peptideId = mapping.getPeptideId("nSDSRc");
+        assertEquals(2, mapping.getProteinEnd(peptideId) - mapping.getProteinStart(peptideId));
+        assertEquals("pro1", mapping.getProtein(mapping.getProteinIdAt(mapping.getProteinStart(peptideId))));
+        assertEquals("pro2", mapping.getProtein(mapping.getProteinIdAt(mapping.getProteinStart(peptideId) + 1)));
+
+        int proteinId = mapping.getProteinId("pro2");
+        List<String> peptideList = new ArrayList<>();
+        for (int offset = mapping.getPeptideStart(proteinId); offset < mapping.getPeptideEnd(proteinId); ++offset) {
+            peptideList.add(mapping.getPeptide(mapping.getPeptideIdAt(offset)));
+        }
+        assertEquals(Arrays.asList("nKc", "nSDSRc"), peptideList);
+    }
+
+    @Test
+    public void pairs() {
+        List<String> peptideList = Arrays.asList("nKc", "nABCc");
+        List<String> proteinList = Arrays.asList("pro2", "pro1");
+        PeptideProteinMapping mapping = new PeptideProteinMapping(peptideList, proteinList, new int[]{0, 0, 1, 0, 99}, new int[]{0, 1, 1, 0, 99}, 4); // the duplicated pair is merged and the tail is ignored.
+        assertEquals(3, mapping.getMappingNum());
+        assertTrue(mapping.containsMapping(mapping.getPeptideId("nKc"), mapping.getProteinId("pro1")));
+        assertTrue(mapping.containsMapping(mapping.getPeptideId("nKc"), mapping.getProteinId("pro2")));
+        assertFalse(mapping.containsMapping(mapping.getPeptideId("nABCc"), mapping.getProteinId("pro2")));
+    }
+
+    @Test
+    public void asMultimap() {
+        Random random = new Random(1);
+        Multimap<String, String> groundTruth = HashMultimap.create();
+        for (int i = 0; i < 2000; ++i) {
+            groundTruth.put("n" + random.nextInt(500) + "c", "pro" + random.nextInt(100));
+        }
+        Multimap<String, String> view = new PeptideProteinMapping(groundTruth).asMultimap();
+        assertEquals(groundTruth, view);
+        assertEquals(view, groundTruth);
+        assertEquals(groundTruth.hashCode(), view.hashCode());
+        assertEquals(groundTruth.size(), view.size());
+        assertEquals(groundTruth.keySet(), view.keySet());
+        assertEquals(groundTruth.keys(), view.keys());
+        assertEquals(new HashSet<>(groundTruth.values()), new HashSet<>(view.values()));
+        assertEquals(groundTruth.entries(), view.entries());
+        for (String peptide : groundTruth.keySet()) {
+            assertEquals(groundTruth.get(peptide), view.get(peptide));
+            assertTrue(view.containsEntry(peptide, groundTruth.get(peptide).iterator().next()));
+        }
+        assertTrue(view.get("nXc").isEmpty());
+        assertFalse(view.containsEntry("nXc", "pro0"));
+        try {
+            view.put("nXc", "pro0");
+            fail();
+        } catch (UnsupportedOperationException ex) {
+            // expected
+        }
+    }
+}
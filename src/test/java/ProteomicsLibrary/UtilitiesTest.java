@@ -61,6 +61,15 @@ public class UtilitiesTest {
         assertArrayEquals(groundTruth, result);
     }
 
+    @Test
+    public void calFnv1aHash() {
+        assertEquals(0xcbf29ce484222325L, Utilities.calFnv1aHash("", 0, 0, false));
+        assertEquals(0xaf63dc4c8601ec8cL, Utilities.calFnv1aHash("a", 0, 1, false)); // the published FNV-1a test vectors.
+        assertEquals(0x85944171f73967e8L, Utilities.calFnv1aHash("xfoobarx", 1, 7, false));
+        assertEquals(Utilities.calFnv1aHash("PEPTIDEI", 0, 8, false), Utilities.calFnv1aHash("PEPTLDEL", 0, 8, true));
+        assertNotEquals(Utilities.calFnv1aHash("PEPTIDEI", 0, 8, false), Utilities.calFnv1aHash("PEPTLDEL", 0, 8, false));
+    }
+
     @Test
     public void getBasenameExt() {
         String[] basenameExt;
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018-2019 The Hong Kong University of Science and Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ProteomicsLibrary;
+
+import ProteomicsLibrary.Types.CompiledPeptide;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class VarModEnumeratorTest {
+
+    @Test
+    public void enumerate() {
+        Map<Character, Double> fixModMap = new HashMap<>();
+        for (char aa : "GASPVTILNDQKEMHFRYWUOnc".toCharArray()) {
+            fixModMap.put(aa, 0d);
+        }
+        fixModMap.put('C', 57.02146);
+        MassTool massTool = new MassTool(2, fixModMap, "KR", "P", true, null, null, null, 0.02, 1, "N14");
+        Map<Character, double[]> varModMap = new HashMap<>();
+        varModMap.put('M', new double[]{15.994915});
+        varModMap.put('S', new double[]{79.966331});
+        varModMap.put('T', new double[]{79.966331});
+        varModMap.put('n', new double[]{42.010565, -17.026549});
+        VarModEnumerator varModEnumerator = new VarModEnumerator(massTool, varModMap, 3);
+
+        String peptide = "nMSTCMSKc";
+        double baseMass = massTool.calResidueMass(peptide) + massTool.H2O;
+        for (double[] window : new double[][]{{0, 1e9}, {baseMass + 100, baseMass + 200}, {baseMass - 20, baseMass - 10}, {baseMass + 1e3, 1e9}}) {
+            Set<String> groundTruth = bruteForce(massTool, MassTool.compilePeptide(peptide), varModMap, 3, window[0], window[1]);
+            Set<String> result = new HashSet<>();
+            int num = varModEnumerator.enumerate(peptide, window[0], window[1], (modifiedPeptide, mass, modNum) -> {
+                assertEquals(massTool.calResidueMass(modifiedPeptide) + massTool.H2O, mass, 1e-6);
+                assertTrue(modNum <= 3);
+                result.add(modifiedPeptide.toString());
+            });
+            assertEquals(groundTruth, result);
+            assertEquals(groundTruth.size(), num);
+        }
+
+        // an existing modification is kept, and the max modification number is respected.
+        List<CompiledPeptide> resultList = new ArrayList<>();
+        new VarModEnumerator(massTool, varModMap, 0).enumerate("nM(15.995)SKc", 0, 1e9, (modifiedPeptide, mass, modNum) -> resultList.add(modifiedPeptide));
+        assertEquals(1, resultList.size());
+        assertEquals(15.995, resultList.get(0).deltaMassArray[1], 1e-9);
+    }
+
+    private static Set<String> bruteForce(MassTool massTool, CompiledPeptide peptide, Map<Character, double[]> varModMap, int maxModNum, double minMass, double maxMass) {
+        Set<String> output = new HashSet<>();
+        int length = peptide.length();
+        int[] choiceArray = new int[length]; // 0: unmodified, i: the (i - 1)-th delta mass
+        while (true) {
+            double[] deltaMassArray = peptide.deltaMassArray.clone();
+            int modNum = 0;
+            for (int i = 0; i < length; ++i) {
+                if (choiceArray[i] > 0) {
+                    deltaMassArray[i] = varModMap.get(peptide.aaArray[i])[choiceArray[i] - 1];
+                    ++modNum;
+                }
+            }
+            CompiledPeptide modifiedPeptide = new CompiledPeptide(peptide.aaArray, deltaMassArray);
+            double mass = massTool.calResidueMass(modifiedPeptide) + massTool.H2O;
+            if (modNum <= maxModNum && mass >= minMass && mass <= maxMass) {
+                output.add(modifiedPeptide.toString());
+            }
+
+            int i = 0;
+            while (i < length) {
+                double[] deltaMassChoiceArray = varModMap.get(peptide.aaArray[i]);
+                if (deltaMassChoiceArray != null && choiceArray[i] < deltaMassChoiceArray.length) {
+                    ++choiceArray[i];
+                    break;
+                }
+                choiceArray[i] = 0;
+                ++i;
+            }
+            if (i == length) {
+                return output;
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2018-2019 The Hong Kong University of Science and Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ProteomicsLibrary;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class VariantDigesterTest {
+
+    @Test
+    public void digest() {
+        Random random = new Random(1);
+        String aaString = "ACDKMPRS";
+        for (String[] enzyme : new String[][]{{"KR", "P", "true"}, {"D", "-", "false"}}) {
+            MassTool massTool = new MassTool(2, enzyme[0], enzyme[1], Boolean.parseBoolean(enzyme[2]), null, null, null, 0.02, 1, "N14");
+            VariantDigester variantDigester = new VariantDigester(massTool, 2, 20, 0, 5000, 2, Integer.MAX_VALUE);
+            for (int i = 0; i < 100; ++i) {
+                int length = 1 + random.nextInt(80);
+                StringBuilder sb = new StringBuilder(length);
+                for (int j = 0; j < length; ++j) {
+                    sb.append(aaString.charAt(random.nextInt(aaString.length())));
+                }
+                String proteinSequence = (i % 3 == 0 ? "MM" : "") + sb.toString();
+                Multimap<Integer, Character> locationVariantMap = HashMultimap.create();
+                for (int j = 0; j < 1 + random.nextInt(4); ++j) {
+                    locationVariantMap.put(1 + random.nextInt(proteinSequence.length()), (aaString + "*").charAt(random.nextInt(aaString.length() + 1)));
+                }
+
+                Set<String> groundTruth = bruteForce(massTool, proteinSequence, locationVariantMap, 2, 20, 5000, 2);
+                Set<String> result = new HashSet<>();
+                variantDigester.digest("pro", proteinSequence, locationVariantMap, (protein, sequence, start, end) -> result.add(sequence.substring(start, end)));
+                assertEquals(proteinSequence + " " + locationVariantMap, groundTruth, result);
+            }
+        }
+    }
+
+    @Test
+    public void cleavageSiteChange() {
+        MassTool massTool = new MassTool(0, "KR", "P", true, null, null, null, 0.02, 1, "N14");
+        VariantDigester variantDigester = new VariantDigester(massTool, 1, 50, 0, 10000, 1, Integer.MAX_VALUE);
+        Multimap<Integer, Character> locationVariantMap = HashMultimap.create();
+        locationVariantMap.put(5, 'K'); // creates a site
+        locationVariantMap.put(12, 'A'); // destroys a site
+        Set<String> result = new HashSet<>();
+        variantDigester.digest("pro", "AAAAAAAAAAARGGGGGK", locationVariantMap, (protein, sequence, start, end) -> result.add(sequence.substring(start, end)));
+        assertEquals(new HashSet<>(Arrays.asList("AAAAK", "AAAAAAAAAAAAGGGGGK")), result); // AAAAAAR after the new site doesn't contain the variant.
+    }
+
+    private static Set<String> bruteForce(MassTool massTool, String proteinSequence, Multimap<Integer, Character> locationVariantMap, int minLength, int maxLength, double maxMass, int maxVariantNum) { // builds each variant protein and keeps the peptides containing all of its variants.
+        List<Integer> positionList = new ArrayList<>(new TreeSet<>(locationVariantMap.keySet()));
+        Set<String> output = new HashSet<>();
+        for (int mask = 1; mask < (1 << positionList.size()); ++mask) {
+            List<Integer> chosenList = new ArrayList<>();
+            for (int i = 0; i < positionList.size(); ++i) {
+                if ((mask & (1 << i)) != 0) {
+                    chosenList.add(positionList.get(i) - 1);
+                }
+            }
+            if (chosenList.size() > maxVariantNum) {
+                continue;
+            }
+            List<String> variantProteinList = Collections.singletonList(proteinSequence);
+            for (int position : chosenList) {
+                List<String> tempList = new ArrayList<>();
+                for (int k = 0; k < variantProteinList.size(); ++k) {
+                    for (char aa : locationVariantMap.get(position + 1)) {
+                        String variantProtein = variantProteinList.get(k);
+                        if (aa == proteinSequence.charAt(position)) {
+                            continue;
+                        }
+                        if (variantProtein.length() <= position) { // truncated by an earlier stop, so it cannot contain this variant.
+                            continue;
+                        }
+                        tempList.add(aa == '*' ? variantProtein.substring(0, position) : variantProtein.substring(0, position) + aa + variantProtein.substring(position + 1));
+                    }
+                }
+                variantProteinList = tempList;
+            }
+            int first = chosenList.get(0);
+            int last = chosenList.get(chosenList.size() - 1);
+            for (String variantProtein : variantProteinList) {
+                boolean truncated = variantProtein.length() == last;
+                BuildIndex.digestProtein(massTool, "pro", variantProtein, minLength, maxLength, 0, maxMass, (protein, sequence, start, end) -> {
+                    if (start <= first && (truncated ? end == last : end > last)) {
+                        output.add(sequence.substring(start, end));
+                    }
+                });
+            }
+        }
+        return output;
+    }
+}